@@ -36,6 +36,54 @@ public class QuotedTokenizer {
 		if (index == string.length())
 			return null;
 
+		//
+		// Most tokens have no quotes, they are a trimmed substring of
+		// the input so we do not have to copy them character by character
+		//
+
+		int start = index;
+		int begin = -1;
+		int end = string.length();
+		while (index < string.length()) {
+			char c = string.charAt(index++);
+
+			if (Character.isWhitespace(c))
+				continue;
+
+			if (separators.indexOf(c) >= 0) {
+				if (returnTokens)
+					peek = Character.toString(c);
+				else
+					separator = c;
+				end = index - 1;
+				break;
+			}
+
+			if (c == '"' || c == '\'') {
+				index = start;
+				return quotedToken(separators);
+			}
+
+			if (begin < 0)
+				begin = index - 1;
+		}
+
+		String result;
+		if (begin < 0)
+			result = "";
+		else {
+			// a white space at the end of the input is never part of the token
+			if (end == string.length() && Character.isWhitespace(string.charAt(end - 1)))
+				end--;
+			result = string.substring(begin, end).trim();
+		}
+
+		if (result.length() == 0 && index == string.length())
+			return null;
+		return result;
+	}
+
+	private String quotedToken(String separators) {
 		StringBuilder sb = new StringBuilder();
 
 		boolean hadstring = false; // means no further trimming
@@ -20,6 +20,8 @@ import aQute.bnd.service.diff.*;
 import aQute.bnd.version.*;
 import aQute.lib.collections.*;
 import aQute.lib.getopt.*;
+import aQute.lib.io.*;
+import aQute.lib.json.*;
 import aQute.lib.tag.*;
 
 /**
@@ -55,6 +57,19 @@ public class BaselineCommands {
 
 		@Description("Show all, also unchanged")
 		boolean all();
+
+		@Description("Baseline all the JARs in the newer directory against the JARs in the older directory. With only "
+				+ "the older directory the built deliverables of all the projects in the workspace are baselined")
+		boolean batch();
+
+		@Description("Write the result of a batch as JSON to this file, use '-' for the console")
+		String report();
+
+		@Description("The number of bundles that are baselined in parallel in a batch")
+		int threads();
+
+		@Description("The directory with the cache of the API trees for a batch, default the workspace cache")
+		String cache();
 	}
 
 	/**
@@ -66,6 +81,11 @@ public class BaselineCommands {
 	public void _baseline(baseLineOptions opts) throws Exception {
 
 		List<String> args = opts._();
+		if (opts.batch()) {
+			batch(opts, args);
+			return;
+		}
+
 		if (args.size() == 0) {
 			Project project = bnd.getProject();
 			if (project != null) {
@@ -115,6 +135,101 @@ public class BaselineCommands {
 		baseline(opts, nj, oj);
 	}
 
+	/**
+	 * Baseline a set of bundles in one run, the bundles are matched on their
+	 * bundle symbolic name.
+	 */
+	private void batch(baseLineOptions opts, List<String> args) throws Exception {
+		if (args.isEmpty() || args.size() > 2) {
+			bnd.error("A batch requires [older dir] or [newer dir] [older dir]");
+			return;
+		}
+
+		List<File> newer = new ArrayList<File>();
+		Workspace ws;
+		if (args.size() == 1) {
+			ws = bnd.getWorkspace((File) null);
+			if (ws == null) {
+				bnd.error("No workspace for the deliverables, specify the newer directory");
+				return;
+			}
+			for (Project project : ws.getAllProjects()) {
+				File[] files = project.getBuildFiles(false);
+				if (files == null)
+					bnd.warning("Project %s is not built", project);
+				else
+					newer.addAll(Arrays.asList(files));
+			}
+		} else {
+			ws = Workspace.findWorkspace(bnd.getBase());
+			addJars(newer, bnd.getFile(args.remove(0)));
+		}
+		List<File> older = new ArrayList<File>();
+		addJars(older, bnd.getFile(args.remove(0)));
+
+		BatchBaseline batch = new BatchBaseline(bnd);
+		if (opts.threads() > 0)
+			batch.setThreads(opts.threads());
+		if (opts.cache() != null)
+			batch.setCache(new TreeCache(bnd.getFile(opts.cache())));
+		else if (ws != null)
+			batch.setCache(ws.getPlugin(TreeCache.class));
+		if (ws != null)
+			batch.setIgnore(ws.getProperty(Constants.DIFFIGNORE));
+
+		List<BatchBaseline.BundleReport> reports = batch.baseline(newer, older);
+
+		if (!opts.quiet()) {
+			bnd.out.printf("  %-50s %-10s %-10s %-10s%n", "Bundle", "New", "Old", "Suggest");
+			for (BatchBaseline.BundleReport report : reports) {
+				bnd.out.printf("%s %-50s %-10s %-10s %-10s%n", report.mismatch ? '*' : ' ', report.bsn,
+						report.newerVersion, report.olderVersion, report.suggestedVersion);
+				for (BatchBaseline.PackageReport p : report.packages) {
+					if (p.mismatch || (opts.all() && p.delta != Delta.UNCHANGED))
+						bnd.out.printf("%s   %-48s %-10s %-10s %-10s %s%n", p.mismatch ? '*' : ' ', p.name,
+								p.newerVersion, p.olderVersion, p.suggestedVersion, p.delta);
+				}
+				for (String error : report.errors)
+					bnd.out.printf("    %s%n", error);
+			}
+		}
+
+		if (opts.report() != null) {
+			Writer w = "-".equals(opts.report()) ? new OutputStreamWriter(bnd.out, "UTF-8") : IO.writer(bnd
+					.getFile(opts.report()));
+			try {
+				new JSONCodec().enc().to(w).indent("  ").put(reports).flush();
+			}
+			finally {
+				if (!"-".equals(opts.report()))
+					w.close();
+			}
+		}
+
+		for (BatchBaseline.BundleReport report : reports) {
+			if (report.mismatch)
+				bnd.error("Baseline mismatch for %s %s against %s", report.bsn, report.newerVersion,
+						report.olderVersion);
+			for (String error : report.errors)
+				bnd.error("%s: %s", report.bsn == null ? report.newer : report.bsn, error);
+		}
+	}
+
+	private void addJars(List<File> jars, File file) {
+		if (file.isFile()) {
+			if (file.getName().endsWith(".jar"))
+				jars.add(file);
+		} else if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File child : children)
+					addJars(jars, child);
+			}
+		} else
+			bnd.messages.NoSuchFile_(file);
+	}
+
 	private void baseline(baseLineOptions opts, Jar newer, Jar older) throws FileNotFoundException,
 			UnsupportedEncodingException, IOException, Exception {
 		PrintStream out = null;
@@ -764,6 +764,23 @@ public class bnd extends Processor {
 	@Description("Build a project. This will create the jars defined in the bnd.bnd and sub-builders.")
 	public void _build(final buildoptions opts) throws Exception {
 
+		//
+		// Outside a project we build the whole workspace,
+		// independent projects are built in parallel
+		//
+		if (opts.project() == null && getProject(null) == null) {
+			Workspace ws = Workspace.findWorkspace(getBase());
+			if (ws == null || !ws.isValid()) {
+				messages.NoValidWorkspace(getBase());
+				return;
+			}
+			for (Project p : ws.build(ws.getBuildOrder(), opts.test())) {
+				getInfo(p, p + ": ");
+			}
+			getInfo(ws);
+			return;
+		}
+
 		perProject(opts, new PerProject() {
 			public void doit(Project p) throws Exception {
 				p.build(opts.test());
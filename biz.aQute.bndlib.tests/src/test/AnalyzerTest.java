@@ -24,6 +24,135 @@ class T3 extends T2 {}
 public class AnalyzerTest extends BndTestCase {
 	static File	cwd	= new File(System.getProperty("user.dir"));
 
+	/**
+	 * Check that the parallel analysis creates the same manifest as the
+	 * sequential analysis
+	 */
+
+	public void testParallelAnalysis() throws Exception {
+		byte[] sequential = analyze(false);
+		byte[] parallel = analyze(true);
+		assertTrue(Arrays.equals(sequential, parallel));
+	}
+
+	/**
+	 * Analyze with a class cache, the second run must use the cached analysis
+	 * and still produce the same manifest
+	 */
+	public void testClazzCache() throws Exception {
+		File file = File.createTempFile("clazz", ".cache");
+		file.delete();
+		try {
+			byte[] plain = analyze(false);
+
+			ClazzCache cache = new ClazzCache(file);
+			assertTrue(Arrays.equals(plain, analyze(false, cache)));
+			cache.close();
+			long length = file.length();
+			assertTrue(length > 0);
+
+			cache = new ClazzCache(file);
+			assertTrue(Arrays.equals(plain, analyze(true, cache)));
+			cache.close();
+			assertEquals(length, file.length());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A truncated last record, as from a killed build, must be cut off before
+	 * new records are appended
+	 */
+	public void testClazzCacheTruncatedTail() throws Exception {
+		File file = File.createTempFile("clazz", ".cache");
+		file.delete();
+		try {
+			byte[] plain = analyze(false);
+
+			ClazzCache cache = new ClazzCache(file);
+			analyze(false, cache);
+			cache.close();
+			long length = file.length();
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(length - 10);
+			raf.close();
+
+			cache = new ClazzCache(file);
+			assertTrue(Arrays.equals(plain, analyze(false, cache)));
+			cache.close();
+			assertEquals(length, file.length());
+
+			// Everything is read back, nothing is appended
+			cache = new ClazzCache(file);
+			assertTrue(Arrays.equals(plain, analyze(false, cache)));
+			cache.close();
+			assertEquals(length, file.length());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A cache file that grows beyond its maximum size is compacted
+	 */
+	public void testClazzCacheCompaction() throws Exception {
+		File file = File.createTempFile("clazz", ".cache");
+		file.delete();
+		try {
+			byte[] plain = analyze(false);
+
+			ClazzCache cache = new ClazzCache(file);
+			analyze(false, cache);
+			cache.close();
+			long length = file.length();
+			file.delete();
+
+			long maxSize = length / 2;
+			cache = new ClazzCache(file, maxSize);
+			assertTrue(Arrays.equals(plain, analyze(false, cache)));
+			cache.close();
+			assertTrue(file.length() > 4);
+			assertTrue(file.length() <= maxSize);
+
+			cache = new ClazzCache(file, maxSize);
+			assertTrue(Arrays.equals(plain, analyze(false, cache)));
+			cache.close();
+			assertTrue(file.length() <= maxSize);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private byte[] analyze(boolean parallel) throws Exception {
+		return analyze(parallel, null);
+	}
+
+	private byte[] analyze(boolean parallel, ClazzCache cache) throws Exception {
+		Builder b = new Builder();
+		try {
+			if (cache != null)
+				b.addBasicPlugin(cache);
+			b.addClasspath(IO.getFile("jar/spring.jar"));
+			b.setExportPackage("*");
+			b.setProperty(Constants.NOEXTRAHEADERS, "true");
+			b.setProperty(Constants.PARALLEL_ANALYSIS, Boolean.toString(parallel));
+			b.setProperty(Constants.PARALLEL_THREADS, "4");
+			Jar jar = b.build();
+			assertTrue(b.check());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			jar.writeManifest(out);
+			return out.toByteArray();
+		}
+		finally {
+			b.close();
+		}
+	}
+
 	/**
 	 * #525 Test if exceptions are imported
 	 */
@@ -2,6 +2,7 @@ package test;
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.nio.*;
 import java.util.*;
 
 import junit.framework.*;
@@ -9,6 +10,7 @@ import junit.framework.*;
 import org.xml.sax.*;
 
 import aQute.bnd.osgi.*;
+import aQute.bnd.osgi.Clazz.FieldDef;
 import aQute.bnd.osgi.Descriptors.PackageRef;
 import aQute.lib.io.*;
 
@@ -157,4 +159,110 @@ public class ClazzTest extends TestCase {
 		Set<PackageRef> referred = c.getReferred();
 		System.out.println(referred);
 	}
+
+	/**
+	 * Check that the constant pool is properly decoded when the class is
+	 * parsed from a buffer that does not start at 0.
+	 */
+	public static class Constants {
+		public static final String	S	= "\u00e9t\u00e9 \u20ac";
+		public static final long	L	= 1234567890123L;
+		public static final double	D	= 1.5D;
+		public static final int		I	= 100000;
+	}
+
+	public static void testParseFromBuffer() throws Exception {
+		byte[] data = IO.read(new File("bin/test/ClazzTest$Constants.class"));
+		ByteBuffer bb = ByteBuffer.allocate(data.length + 3);
+		bb.put(new byte[3]);
+		bb.put(data);
+		bb.position(3);
+
+		final Map<String,Object> constants = new HashMap<String,Object>();
+		Analyzer a = new Analyzer();
+		Clazz c = new Clazz(a, "", null);
+		c.parseClassFile(bb, new ClassDataCollector() {
+			String	field;
+
+			@Override
+			public void field(FieldDef def) {
+				field = def.getName();
+			}
+
+			@Override
+			public void constant(Object o) {
+				constants.put(field, o);
+			}
+		});
+		assertEquals(3, bb.position());
+		assertEquals("test.ClazzTest$Constants", c.getFQN());
+		assertEquals("\u00e9t\u00e9 \u20ac", constants.get("S"));
+		assertEquals(1234567890123L, constants.get("L"));
+		assertEquals(1.5D, constants.get("D"));
+		assertEquals(100000, constants.get("I"));
+		a.close();
+	}
+
+	/**
+	 * A subclass that overrides the deprecated pool hooks still gets the
+	 * decoded constant pool
+	 */
+	@SuppressWarnings("deprecation")
+	public static void testPoolHooks() throws Exception {
+		final List<Integer> utf8 = new ArrayList<Integer>();
+		final List<Object> pool = new ArrayList<Object>();
+		final List<String> classes = new ArrayList<String>();
+		Analyzer a = new Analyzer();
+		Clazz c = new Clazz(a, "", null) {
+			@Override
+			protected void constantUtf8(DataInputStream in, int poolIndex) throws IOException {
+				super.constantUtf8(in, poolIndex);
+				utf8.add(poolIndex);
+			}
+
+			@Override
+			protected void pool(Object[] p, int[] intPool) {
+				pool.addAll(Arrays.asList(p));
+				for (Object o : p) {
+					if (o instanceof Clazz.ClassConstant)
+						classes.add(((Clazz.ClassConstant) o).getName());
+				}
+			}
+		};
+		c.parseClassFile(new FileInputStream("bin/test/ClazzTest$Constants.class"), new ClassDataCollector() {});
+		assertTrue(pool.contains("\u00e9t\u00e9 \u20ac"));
+		assertTrue(pool.contains("test/ClazzTest$Constants"));
+		for (int poolIndex : utf8)
+			assertTrue(pool.get(poolIndex) instanceof String);
+		assertTrue(pool.contains(1234567890123L));
+		assertTrue(classes.contains("test/ClazzTest$Constants"));
+		assertEquals("test.ClazzTest$Constants", c.getFQN());
+		a.close();
+	}
+
+	/**
+	 * A truncated class file must fail with an EOFException, like it did when
+	 * it was read from a DataInputStream
+	 */
+	public static void testTruncatedClass() throws Exception {
+		byte[] data = IO.read(new File("bin/test/ClazzTest$Constants.class"));
+		Analyzer a = new Analyzer();
+		try {
+			for (int length : new int[] {
+					6, 20, data.length / 2, data.length - 1
+			}) {
+				Clazz c = new Clazz(a, "", null);
+				try {
+					c.parseClassFile(ByteBuffer.wrap(data, 0, length), new ClassDataCollector() {});
+					fail("Expected an EOFException for " + length + " bytes");
+				}
+				catch (EOFException e) {
+					// expected
+				}
+			}
+		}
+		finally {
+			a.close();
+		}
+	}
 }
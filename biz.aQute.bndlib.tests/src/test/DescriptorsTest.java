@@ -1,5 +1,8 @@
 package test;
 
+import java.lang.ref.*;
+import java.util.*;
+
 import junit.framework.*;
 import aQute.bnd.osgi.*;
 import aQute.bnd.osgi.Descriptors.PackageRef;
@@ -20,4 +23,51 @@ public class DescriptorsTest extends TestCase {
 		assertTrue(a == b);
 
 	}
+
+	/**
+	 * Analyzers with a parent that has a Descriptors plugin share the refs
+	 */
+	public static void testShared() throws Exception {
+		final Descriptors d = new Descriptors();
+		Processor parent = new Processor() {
+			@Override
+			protected void setTypeSpecificPlugins(Set<Object> list) {
+				super.setTypeSpecificPlugins(list);
+				list.add(d);
+			}
+		};
+		Analyzer a = new Analyzer(parent);
+		Analyzer b = new Analyzer(parent);
+		Analyzer c = new Analyzer();
+
+		TypeRef ref = a.getTypeRef("java/lang/String");
+		assertTrue(ref == b.getTypeRef("java/lang/String"));
+		assertTrue(ref == d.getTypeRef("java/lang/String"));
+		assertTrue(ref.getPackageRef() == b.getPackageRef("java.lang"));
+		assertTrue(a.getDescriptor("(I)V") == b.getDescriptor("(I)V"));
+		assertFalse(ref == c.getTypeRef("java/lang/String"));
+
+		a.close();
+		b.close();
+		c.close();
+		parent.close();
+	}
+
+	/**
+	 * Refs that are in use are never replaced, refs that are no longer
+	 * referred to can be garbage collected
+	 */
+	public static void testWeak() throws Exception {
+		Descriptors d = new Descriptors();
+		TypeRef ref = d.getTypeRef("a/b/C");
+		WeakReference<TypeRef> weak = new WeakReference<TypeRef>(d.getTypeRef("a/b/D"));
+
+		for (int i = 0; i < 10 && weak.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(weak.get());
+		assertTrue(ref == d.getTypeRef("a/b/C"));
+		assertEquals("a.b.D", d.getTypeRef("a/b/D").getFQN());
+	}
 }
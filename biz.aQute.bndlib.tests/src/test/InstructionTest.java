@@ -55,4 +55,38 @@ public class InstructionTest extends TestCase {
 		assertTrue(new Instruction("!=literal").isNegated());
 		assertTrue(new Instruction("=*********").isLiteral());
 	}
+
+	/**
+	 * Longer instruction lists are compiled, the first instruction that
+	 * matches must still win
+	 */
+	public static void testCompiledMatcher() {
+		Instructions instructions = new Instructions(
+				"!com.foo.impl.*, com.foo.bar, com.foo.*;x=1, com.f*, com.[a-z]ar.*, =org.a?b, *");
+
+		assertEquals("!com.foo.impl.*", instructions.matcher("com.foo.impl").toString());
+		assertEquals("!com.foo.impl.*", instructions.matcher("com.foo.impl.x").toString());
+		assertEquals("com.foo.*", instructions.matcher("com.foo.implx").toString());
+		assertEquals("com.foo.bar", instructions.matcher("com.foo.bar").toString());
+		assertEquals("com.foo.*", instructions.matcher("com.foo").toString());
+		assertEquals("com.f*", instructions.matcher("com.foobar").toString());
+		assertEquals("com.[a-z]ar.*", instructions.matcher("com.bar.x").toString());
+		assertEquals("=org.a?b", instructions.matcher("org.a?b").toString());
+		assertEquals("*", instructions.matcher("org.foo").toString());
+		assertEquals("*", instructions.matcher("com.foo.\nx").toString());
+		assertFalse(instructions.matches("com.foo.impl"));
+
+		assertEquals(Arrays.asList("com.foo.bar", "com.foo.x", "com.foo", "org.foo"),
+				instructions.select(Arrays.asList("org.foo", "com.foo.x", "com.foo.impl", "com.foo", "com.foo.bar"),
+						false));
+
+		Set<Instruction> unused = new HashSet<Instruction>();
+		new Instructions("a.*, b, c*, d").select(Arrays.asList("a.b", "c"), unused, false);
+		assertEquals(2, unused.size());
+
+		instructions.remove(instructions.matcher("com.foo.impl"));
+		assertEquals("com.foo.*", instructions.matcher("com.foo.impl").toString());
+		instructions.keySet().remove(instructions.matcher("com.foo.impl"));
+		assertEquals("com.f*", instructions.matcher("com.foo.impl").toString());
+	}
 }
@@ -1,12 +1,14 @@
 package test;
 
 import java.io.*;
+import java.util.*;
 import java.util.jar.*;
 import java.util.zip.*;
 
 import junit.framework.*;
 import aQute.bnd.osgi.*;
 import aQute.lib.io.*;
+import aQute.lib.zip.*;
 @SuppressWarnings("resource")
 
 public class JarTest extends TestCase {
@@ -64,6 +66,328 @@ public class JarTest extends TestCase {
 		zin.close();
 	}
 
+	/**
+	 * The compression of the entries must not depend on the number of write
+	 * threads
+	 */
+	public static void testWriteMethods() throws Exception {
+		for (Jar.Compression compression : Jar.Compression.values()) {
+			Jar jar = new Jar("asm.jar", IO.getFile("jar/asm.jar"));
+			jar.putResource("META-INF/extra/a.txt", new EmbeddedResource("hello".getBytes("UTF-8"), 1400000000000L));
+			jar.setCompression(compression);
+
+			File sequential = File.createTempFile("sequential", ".jar");
+			File parallel = File.createTempFile("parallel", ".jar");
+			try {
+				jar.write(sequential);
+				jar.setWriteThreads(4);
+				jar.write(parallel);
+
+				ZipFile szip = new ZipFile(sequential);
+				ZipFile pzip = new ZipFile(parallel);
+				try {
+					assertEquals(szip.size(), pzip.size());
+					for (Enumeration< ? extends ZipEntry> e = szip.entries(); e.hasMoreElements();) {
+						ZipEntry se = e.nextElement();
+						ZipEntry pe = pzip.getEntry(se.getName());
+						assertNotNull(se.getName(), pe);
+						assertEquals(compression + " " + se.getName(), se.getMethod(), pe.getMethod());
+						if (!se.isDirectory())
+							assertTrue(se.getName(),
+									Arrays.equals(IO.read(szip.getInputStream(se)), IO.read(pzip.getInputStream(pe))));
+					}
+				}
+				finally {
+					szip.close();
+					pzip.close();
+				}
+			}
+			finally {
+				jar.close();
+				sequential.delete();
+				parallel.delete();
+			}
+		}
+	}
+
+	/**
+	 * Without copying stored entries, a JAR written with parallel deflate must
+	 * be byte for byte the same as a JAR written with a single
+	 * {@link ZipOutputStream}
+	 */
+	public static void testWriteBytes() throws Exception {
+		Jar jar = new Jar("asm.jar", IO.getFile("jar/asm.jar"));
+		jar.putResource("META-INF/extra/a.txt", new EmbeddedResource("hello".getBytes("UTF-8"), 1400000000000L));
+		jar.putResource("META-INF/extra/now.txt", new EmbeddedResource("now".getBytes("UTF-8"), 0));
+		jar.putResource("old/b.txt", new EmbeddedResource("old".getBytes("UTF-8"), 1000L));
+		EmbeddedResource extra = new EmbeddedResource("extra".getBytes("UTF-8"), 1400000000000L);
+		extra.setExtra("extra");
+		jar.putResource("c/extra.txt", extra);
+		jar.setCopyStored(false);
+		try {
+			assertWriteBytes(jar, true);
+			jar.setCompression(Jar.Compression.STORE);
+			assertWriteBytes(jar, true);
+			jar.setDoNotTouchManifest();
+			assertWriteBytes(jar, false);
+		}
+		finally {
+			jar.close();
+		}
+
+		// a manifest without a modification time gets an extended timestamp
+		jar = new Jar("zero");
+		jar.putResource("a/b.txt", new EmbeddedResource("b".getBytes("UTF-8"), 0));
+		jar.setManifest(new Manifest());
+		assertWriteBytes(jar, true);
+		jar.close();
+	}
+
+	/**
+	 * More than 64k entries need the ZIP64 end records
+	 */
+	public static void testWriteZip64() throws Exception {
+		Jar jar = new Jar("zip64");
+		for (int i = 0; i < 0x10000; i++)
+			jar.putResource("a/" + i, new EmbeddedResource(new byte[0], 1400000000000L));
+		jar.setManifest(new Manifest());
+		assertWriteBytes(jar, true);
+
+		ZipFile zip = new ZipFile(write(jar, 4));
+		try {
+			assertEquals(0x10002, zip.size());
+		}
+		finally {
+			zip.close();
+			jar.close();
+		}
+	}
+
+	/**
+	 * Compare the written JAR for 1 and 4 write threads with a JAR written as a
+	 * single {@link ZipOutputStream}. Directory entries get the current time,
+	 * the comparison is repeated when the time changes while writing.
+	 */
+	static void assertWriteBytes(Jar jar, boolean manifest) throws Exception {
+		for (int threads : new int[] {
+				1, 4
+		}) {
+			for (int i = 0;; i++) {
+				byte[] expected = writeZipOutputStream(jar, manifest);
+				byte[] actual = IO.read(write(jar, threads));
+				if (Arrays.equals(expected, actual))
+					break;
+				if (i < 3 && !Arrays.equals(expected, writeZipOutputStream(jar, manifest)))
+					continue;
+				fail("Different bytes for " + threads + " threads");
+			}
+		}
+	}
+
+	static File write(Jar jar, int threads) throws Exception {
+		File tmp = File.createTempFile("write", ".jar");
+		tmp.deleteOnExit();
+		jar.setWriteThreads(threads);
+		jar.write(tmp);
+		return tmp;
+	}
+
+	/**
+	 * Write a JAR to a single {@link ZipOutputStream} the way the JAR used to
+	 * be written
+	 * 
+	 * @param manifest
+	 *            write the manifest of the JAR or else the manifest resource
+	 */
+	static byte[] writeZipOutputStream(Jar jar, boolean manifest) throws Exception {
+		String name = "META-INF/MANIFEST.MF";
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		ZipOutputStream jout = manifest ? new JarOutputStream(bout) : new ZipOutputStream(bout);
+		Set<String> directories = new HashSet<String>();
+		if (manifest) {
+			JarEntry ze = new JarEntry(name);
+			ZipUtil.setModifiedTime(ze, jar.lastModified());
+			jout.putNextEntry(ze);
+			jar.writeManifest(jout);
+			jout.closeEntry();
+		} else
+			writeZipEntry(jout, directories, name, jar.getResource(name));
+
+		for (Map.Entry<String,Resource> entry : jar.getResources().entrySet()) {
+			if (!entry.getKey().equals(name))
+				writeZipEntry(jout, directories, entry.getKey(), entry.getValue());
+		}
+		jout.finish();
+		return bout.toByteArray();
+	}
+
+	static void writeZipEntry(ZipOutputStream jout, Set<String> directories, String path, Resource resource)
+			throws Exception {
+		for (int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+			if (directories.add(path.substring(0, i))) {
+				jout.putNextEntry(new ZipEntry(path.substring(0, i + 1)));
+				jout.closeEntry();
+			}
+		}
+		ZipEntry ze = new ZipEntry(path);
+		ze.setMethod(ZipEntry.DEFLATED);
+		long lastModified = resource.lastModified();
+		if (lastModified == 0L)
+			lastModified = System.currentTimeMillis();
+		ZipUtil.setModifiedTime(ze, lastModified);
+		if (resource.getExtra() != null)
+			ze.setExtra(resource.getExtra().getBytes("UTF-8"));
+		jout.putNextEntry(ze);
+		resource.write(jout);
+		jout.closeEntry();
+	}
+
+	/**
+	 * A JAR written with parallel deflate must have the same entries, in the
+	 * same order, with the same content and times as a sequentially written
+	 * JAR. Check both the local headers and the central directory.
+	 */
+	public static void testParallelWrite() throws Exception {
+		Jar jar = new Jar("asm.jar", IO.getFile("jar/asm.jar"));
+		jar.putResource("META-INF/extra/a.txt", new EmbeddedResource("hello".getBytes("UTF-8"), 1400000000000L));
+
+		ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+		jar.write(sequential);
+
+		jar.setWriteThreads(4);
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		jar.write(parallel);
+
+		JarInputStream sin = new JarInputStream(new ByteArrayInputStream(sequential.toByteArray()));
+		JarInputStream pin = new JarInputStream(new ByteArrayInputStream(parallel.toByteArray()));
+		assertNotNull(pin.getManifest());
+		assertEquals(sin.getManifest(), pin.getManifest());
+
+		int n = 0;
+		JarEntry se;
+		while ((se = sin.getNextJarEntry()) != null) {
+			JarEntry pe = pin.getNextJarEntry();
+			assertNotNull(pe);
+			assertEquals(se.getName(), pe.getName());
+			if (!se.isDirectory()) {
+				assertEquals(se.getTime(), pe.getTime());
+				assertTrue(se.getName(), Arrays.equals(readEntry(sin), readEntry(pin)));
+			}
+			n++;
+		}
+		assertNull(pin.getNextJarEntry());
+		sin.close();
+		pin.close();
+
+		for (byte[] written : new byte[][] {
+				sequential.toByteArray(), parallel.toByteArray()
+		}) {
+			File tmp = File.createTempFile("parallel", ".jar");
+			try {
+				IO.copy(new ByteArrayInputStream(written), tmp);
+				ZipFile zip = new ZipFile(tmp);
+				try {
+					assertEquals(n + 1, zip.size());
+					ZipEntry ze = zip.getEntry("META-INF/extra/a.txt");
+					assertEquals(5, ze.getSize());
+					assertEquals("hello", IO.collect(zip.getInputStream(ze)));
+
+					// entries from the source are copied as they were stored,
+					// with one thread as well
+					ZipFile source = new ZipFile(IO.getFile("jar/asm.jar"));
+					try {
+						for (Enumeration< ? extends ZipEntry> e = source.entries(); e.hasMoreElements();) {
+							ZipEntry original = e.nextElement();
+							if (original.isDirectory() || original.getName().equals("META-INF/MANIFEST.MF"))
+								continue;
+							ZipEntry copy = zip.getEntry(original.getName());
+							assertEquals(original.getCrc(), copy.getCrc());
+							assertEquals(original.getCompressedSize(), copy.getCompressedSize());
+						}
+					}
+					finally {
+						source.close();
+					}
+				}
+				finally {
+					zip.close();
+				}
+			}
+			finally {
+				tmp.delete();
+			}
+		}
+	}
+
+	public static void testManifestReader() throws Exception {
+		for (String name : new String[] {
+				"asm.jar", "osgi.core-4.3.0.jar", "spring.jar", "mina.jar"
+		}) {
+			File file = IO.getFile("jar/" + name);
+			Jar jar = new Jar(file);
+			try {
+				Manifest manifest = ManifestReader.read(file);
+				assertNotNull(name, manifest);
+				assertEquals(name, jar.getManifest().getMainAttributes(), manifest.getMainAttributes());
+				assertEquals(name, jar.getManifest().getEntries(), manifest.getEntries());
+				assertEquals(name, jar.getBsn(), ManifestReader.getBsn(manifest));
+				assertEquals(name, jar.getVersion(), ManifestReader.getVersion(manifest));
+			}
+			finally {
+				jar.close();
+			}
+		}
+
+		File tmp = File.createTempFile("manifest", ".jar");
+		try {
+			// Stored, not the first entry
+			Manifest m = new Manifest();
+			m.getMainAttributes().putValue("Manifest-Version", "1.0");
+			m.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "test.manifest;singleton:=true");
+			m.getMainAttributes().putValue(Constants.BUNDLE_VERSION, " 1.2.3 ");
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			m.write(bout);
+			byte[] data = bout.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(tmp));
+			zout.putNextEntry(new ZipEntry("a/b.txt"));
+			zout.write("b".getBytes("UTF-8"));
+			ZipEntry ze = new ZipEntry("META-INF/MANIFEST.MF");
+			ze.setMethod(ZipEntry.STORED);
+			ze.setSize(data.length);
+			ze.setCrc(crc.getValue());
+			zout.putNextEntry(ze);
+			zout.write(data);
+			zout.close();
+
+			Manifest manifest = ManifestReader.read(tmp);
+			assertEquals("test.manifest", ManifestReader.getBsn(manifest));
+			assertEquals("1.2.3", ManifestReader.getVersion(manifest));
+
+			// No manifest
+			Jar jar = new Jar("nomanifest");
+			jar.putResource("a/b.txt", new EmbeddedResource("b".getBytes("UTF-8"), 0));
+			jar.setDoNotTouchManifest();
+			jar.write(tmp);
+			jar.close();
+			assertNull(ManifestReader.read(tmp));
+			assertNull(ManifestReader.getBsn(null));
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	static byte[] readEntry(InputStream in) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int size;
+		while ((size = in.read(buffer)) > 0)
+			bout.write(buffer, 0, size);
+		return bout.toByteArray();
+	}
+
 	public static void testSimple() throws ZipException, IOException {
 		File file = IO.getFile("jar/asm.jar");
 		Jar jar = new Jar("asm.jar", file);
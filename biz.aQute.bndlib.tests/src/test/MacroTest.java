@@ -32,6 +32,38 @@ public class MacroTest extends TestCase {
 		assertEquals( "testfilenamemacros", processor.getReplacer().process("${stem;testfilenamemacros.properties}"));
 	}
 	
+	/**
+	 * The templates are compiled once and the pure commands are memoized, the
+	 * result must still follow the properties
+	 */
+	public void testCompiledTemplates() throws Exception {
+		Processor processor = new Processor();
+		processor.setProperty("a", "1");
+		processor.setProperty("list", "x.a,x.b,y.c");
+		processor.setProperty("cond", "${if;${a};yes;no}");
+		processor.setProperty("filtered", "${filter;${list};x\\..*}");
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals("yes", processor.getProperty("cond"));
+			assertEquals("x.a,x.b", processor.getProperty("filtered"));
+		}
+
+		processor.setProperty("a", "");
+		processor.setProperty("list", "x.d,y.e");
+		assertEquals("no", processor.getProperty("cond"));
+		assertEquals("x.d", processor.getProperty("filtered"));
+
+		Macro replacer = processor.getReplacer();
+		for (int i = 0; i < 3; i++) {
+			assertEquals("${a}", replacer.process("\\${a}"));
+			assertEquals("a{b}c", replacer.process("${literal;a{b}c}").substring(2, 7));
+			assertEquals("list", replacer.process("${list"));
+			assertEquals(processor.getBase().getAbsolutePath() + "/x", replacer.process("./x"));
+			assertEquals("a./x", replacer.process("a./x"));
+		}
+		assertEquals(processor.getErrors().toString(), 0, processor.getErrors().size());
+	}
+
 	/**
 	 * List functions
 	 */
@@ -199,4 +199,74 @@ public class ParseHeaderTest extends TestCase {
 		assertEquals(new Version(2), version.get(1));
 		assertEquals(new Version(2, 1), version.get(2));
 	}
+
+	/**
+	 * Parsed headers are cached, every caller must get its own copy and
+	 * problems must be reported every time
+	 */
+	public static void testCachedHeader() throws Exception {
+		String s = "a;b;version:Version=1, c;x=\"1,2\"";
+		Parameters first = OSGiHeader.parseHeader(s);
+		Parameters second = OSGiHeader.parseHeader(s);
+		assertTrue(first.isEqual(second));
+		assertNotSame(first.get("a"), second.get("a"));
+		assertSame(second.get("a"), second.get("b"));
+		assertEquals(Type.VERSION, second.get("b").getType("version"));
+		assertEquals("1,2", second.get("c").get("x"));
+
+		first.get("a").put("y", "2");
+		first.remove("c");
+		Parameters third = OSGiHeader.parseHeader(s);
+		assertTrue(second.isEqual(third));
+		assertNull(third.get("a").get("y"));
+
+		for (int i = 0; i < 2; i++) {
+			Processor p = new Processor();
+			try {
+				OSGiHeader.parseHeader("a;version=", p);
+				assertTrue(p.check("No value after '=' sign for attribute version"));
+			}
+			finally {
+				p.close();
+			}
+		}
+
+		Parameters result = new Parameters();
+		result.put("a", new Attrs());
+		OSGiHeader.parseHeader(s, null, result);
+		assertEquals(4, result.size());
+		assertTrue(result.containsKey("a~"));
+	}
+
+	/**
+	 * Parsed attributes are compact and shared, they must become mutable
+	 * through any of the ways a map can be modified
+	 */
+	public static void testCompactAttrs() {
+		String s = "a;version:Version=1;resolution:=optional;x=1";
+		Attrs first = OSGiHeader.parseHeader(s).get("a");
+		Attrs second = OSGiHeader.parseHeader(s).get("a");
+		assertEquals("version:Version=1;resolution:=optional;x=1", second.toString());
+		assertEquals(3, second.size());
+		assertEquals("optional", second.get("resolution:"));
+		assertEquals(Arrays.asList("version", "resolution:", "x"), new ArrayList<String>(second.keySet()));
+
+		Iterator<Map.Entry<String,String>> i = first.entrySet().iterator();
+		i.next().setValue("2");
+		i.next();
+		i.remove();
+		assertEquals("version:Version=2;x=1", first.toString());
+		assertEquals(Type.VERSION, first.getType("version"));
+
+		first.keySet().remove("x");
+		first.put("y", "3");
+		assertEquals("version:Version=2;y=3", first.toString());
+
+		assertEquals("version:Version=1;resolution:=optional;x=1", second.toString());
+		Attrs copy = new Attrs(second);
+		second.clear();
+		assertTrue(second.isEmpty());
+		assertEquals("version:Version=1;resolution:=optional;x=1", copy.toString());
+		assertEquals(Type.VERSION, new Attrs(new Attrs(), copy).getType("version"));
+	}
 }
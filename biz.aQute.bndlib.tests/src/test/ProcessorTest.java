@@ -30,6 +30,52 @@ public class ProcessorTest extends TestCase {
 	public static void testPlugins() {
 
 	}
+
+	/**
+	 * The resolved properties are cached, they must follow the changes in the
+	 * parent chain
+	 */
+	public void testPropertyCache() throws IOException {
+		Processor top = new Processor();
+		Processor middle = new Processor(top);
+		Processor bottom = new Processor(middle);
+
+		top.setProperty("a", "1");
+		top.setProperty("-plugin.a", "A");
+		middle.setProperty("b", "${a}-${if;${a};yes;no}");
+		bottom.setProperty("c", "${b}");
+		assertEquals("1-yes", bottom.getProperty("c"));
+		assertEquals("A", bottom.getProperty("-plugin.*"));
+
+		top.setProperty("a", "");
+		assertEquals("-no", bottom.getProperty("c"));
+
+		middle.setProperty("-plugin.b", "B");
+		assertEquals("A,B", bottom.getProperty("-plugin.*"));
+
+		middle.getProperties().remove("b");
+		assertEquals("${b}", bottom.getProperty("c"));
+
+		bottom.setProperty("c", "x");
+		assertEquals("x", bottom.getProperty("c"));
+		assertEquals("y", bottom.getProperty("d", "y"));
+
+		// Not cached when the value depends on something else than properties
+		bottom.setProperty("s", "${processor.test.property}");
+		System.setProperty("processor.test.property", "1");
+		try {
+			assertEquals("1", bottom.getProperty("s"));
+			System.setProperty("processor.test.property", "2");
+			assertEquals("2", bottom.getProperty("s"));
+		}
+		finally {
+			System.getProperties().remove("processor.test.property");
+		}
+
+		bottom.close();
+		middle.close();
+		top.close();
+	}
 	
 	public void testFixupMessages() throws IOException {
 		Processor p = new Processor();
@@ -246,6 +246,66 @@ public class ProjectTest extends TestCase {
 		// assertFalse(bottom.isStale());
 	}
 
+	/**
+	 * Check isStale with -staledigest, time stamps do not matter as long as the
+	 * content of the inputs is the same
+	 */
+	public void testIsStaleDigest() throws Exception {
+		Workspace ws = getWorkspace(IO.getFile("testresources/ws"));
+		ws.setOffline(false);
+		Project bottom = ws.getProject("p-stale-dep");
+		bottom.setProperty(Constants.STALEDIGEST, "true");
+		bottom.clean();
+		bottom.build();
+		assertTrue(bottom.check());
+		assertTrue(new File(bottom.getTarget(), "buildfiles.digests").isFile());
+
+		stale(bottom, true);
+		assertFalse(bottom.isStale());
+		bottom.getPropertiesFile().setLastModified(System.currentTimeMillis() + 20000);
+		assertFalse(bottom.isStale());
+
+		File extra = new File(bottom.getOutput(), "extra.txt");
+		try {
+			extra.getParentFile().mkdirs();
+			IO.store("extra", extra);
+			assertTrue(bottom.isStale());
+		}
+		finally {
+			IO.delete(extra);
+		}
+		assertFalse(bottom.isStale());
+		assertTrue(bottom.check());
+	}
+
+	/**
+	 * Build projects with the workspace scheduler, dependencies first and
+	 * dependents of a failed project are not built
+	 */
+	public void testWorkspaceBuild() throws Exception {
+		Workspace ws = getWorkspace(IO.getFile("testresources/ws"));
+		Project top = ws.getProject("p-stale");
+		Project bottom = ws.getProject("p-stale-dep");
+		Project other = ws.getProject("p3");
+		new File(other.getBase(), "src").mkdirs();
+
+		List<Project> done = ws.build(Arrays.asList(top, other, bottom), false);
+		assertEquals(3, done.size());
+		assertTrue(done.indexOf(bottom) < done.indexOf(top));
+		assertTrue(top.check());
+		assertTrue(bottom.check());
+		assertTrue(other.check());
+		assertNotNull(top.getFiles());
+
+		top.clean();
+		bottom.clean();
+		bottom.setProperty("Include-Resource", "does-not-exist");
+		done = ws.build(Arrays.asList(top, bottom), false);
+		assertEquals(2, done.size());
+		assertFalse(bottom.isOk());
+		assertTrue(top.check("Not built because p-stale-dep failed"));
+	}
+
 	private  void stale(Project project, boolean b) throws Exception {
 		File file = project.getBuildFiles(false)[0];
 		if (b)
@@ -382,6 +442,152 @@ public class ProjectTest extends TestCase {
 		}
 	}
 
+	/**
+	 * With -incremental a build of unchanged content reuses the previous
+	 * bundle and its analysis
+	 */
+	public void testIncremental() throws Exception {
+		Workspace ws = getWorkspace(IO.getFile("testresources/ws"));
+		Project project = ws.getProject("p3");
+		project.setProperty(Constants.INCREMENTAL, "true");
+		project.clean();
+		new File(project.getBase(), "src").mkdirs();
+		try {
+			File[] files = project.build();
+			assertTrue(project.check());
+			assertEquals(1, files.length);
+			File snapshot = new File(files[0].getParentFile(), files[0].getName() + ".snapshot");
+			assertTrue(snapshot.isFile());
+			String lastModified = new Jar(files[0]).getManifest().getMainAttributes().getValue(Constants.BND_LASTMODIFIED);
+			Packages exports = new Packages(project.getExports());
+			assertFalse(exports.isEmpty());
+
+			outdate(files[0], snapshot);
+			project.updateModified(System.currentTimeMillis(), "Testing");
+			files = project.build();
+			assertTrue(project.check());
+			assertEquals(lastModified,
+					new Jar(files[0]).getManifest().getMainAttributes().getValue(Constants.BND_LASTMODIFIED));
+			assertEquals(exports.keySet().toString(), project.getExports().keySet().toString());
+
+			// a changed instruction builds again
+			outdate(files[0], snapshot);
+			project.setProperty("Bundle-Description", "changed");
+			project.updateModified(System.currentTimeMillis(), "Testing");
+			files = project.build();
+			assertTrue(project.check());
+			assertFalse(lastModified.equals(new Jar(files[0]).getManifest().getMainAttributes()
+					.getValue(Constants.BND_LASTMODIFIED)));
+		}
+		finally {
+			project.clean();
+		}
+	}
+
+	/**
+	 * A reused build must still be baselined, the baseline repository can
+	 * have a new release
+	 */
+	public void testIncrementalBaseline() throws Exception {
+		Workspace ws = getWorkspace(IO.getFile("testresources/ws"));
+		Project project = ws.getProject("p3");
+		project.setProperty(Constants.INCREMENTAL, "true");
+		project.clean();
+		new File(project.getBase(), "src").mkdirs();
+		try {
+			File[] files = project.build();
+			assertTrue(project.check());
+			String lastModified = new Jar(files[0]).getManifest().getMainAttributes().getValue(Constants.BND_LASTMODIFIED);
+
+			final List<Jar> baselined = new ArrayList<Jar>();
+			ProjectBuilder builder = new ProjectBuilder(project) {
+				@Override
+				public void doBaseline(Jar dot) throws Exception {
+					baselined.add(dot);
+					super.doBaseline(dot);
+				}
+			};
+			builder.setBase(project.getBase());
+			try {
+				Jar jar = builder.build();
+				assertTrue(builder.check());
+				assertEquals(lastModified, jar.getManifest().getMainAttributes().getValue(Constants.BND_LASTMODIFIED));
+				assertEquals(Arrays.asList(jar), baselined);
+			}
+			finally {
+				builder.close();
+			}
+		}
+		finally {
+			project.clean();
+		}
+	}
+
+	/**
+	 * A reused build must still make its outputs and be the JAR of the
+	 * builder. A changed source file must build again with -sources.
+	 */
+	public void testIncrementalOutputs() throws Exception {
+		Workspace ws = getWorkspace(IO.getFile("testresources/ws"));
+		Project project = ws.getProject("p3");
+		project.setProperty(Constants.INCREMENTAL, "true");
+		project.setProperty(Constants.SOURCES, "true");
+		File saved = new File(project.getTarget(), "saved/MANIFEST.MF");
+		File expanded = new File(project.getTarget(), "expanded");
+		project.setProperty(Constants.SAVEMANIFEST, saved.getAbsolutePath());
+		project.setProperty("-expand", expanded.getAbsolutePath());
+		project.clean();
+		File src = new File(project.getBase(), "src");
+		src.mkdirs();
+		File source = new File(src, "Extra.txt");
+		try {
+			File[] files = project.build();
+			assertTrue(project.check());
+			File snapshot = new File(files[0].getParentFile(), files[0].getName() + ".snapshot");
+			String lastModified = new Jar(files[0]).getManifest().getMainAttributes().getValue(Constants.BND_LASTMODIFIED);
+			assertTrue(saved.isFile());
+			assertTrue(new File(expanded, "org/osgi/service/cm").isDirectory());
+			saved.delete();
+			IO.delete(expanded);
+
+			outdate(files[0], snapshot);
+			ProjectBuilder builder = project.getBuilder(null);
+			try {
+				Jar jar = builder.build();
+				assertTrue(builder.check());
+				assertEquals(lastModified, jar.getManifest().getMainAttributes().getValue(Constants.BND_LASTMODIFIED));
+				assertSame(jar, builder.getJar());
+				assertTrue(saved.isFile());
+				assertTrue(new File(expanded, "org/osgi/service/cm").isDirectory());
+			}
+			finally {
+				builder.close();
+			}
+
+			outdate(files[0], snapshot);
+			IO.store("changed", source);
+			project.updateModified(System.currentTimeMillis(), "Testing");
+			files = project.build();
+			assertTrue(project.check());
+			assertFalse(lastModified.equals(new Jar(files[0]).getManifest().getMainAttributes()
+					.getValue(Constants.BND_LASTMODIFIED)));
+		}
+		finally {
+			source.delete();
+			project.clean();
+		}
+	}
+
+	/**
+	 * Move the output and its snapshot back in time so the project is out of
+	 * date without waiting for the clock
+	 */
+	private static void outdate(File output, File snapshot) {
+		long past = (output.lastModified() / 1000 - 10) * 1000;
+		assertTrue(output.setLastModified(past));
+		assertTrue(snapshot.setLastModified(past));
+	}
+
 	public  void testRepoMacro() throws Exception {
 		Workspace ws = getWorkspace(IO.getFile("testresources/ws"));
 		Project project = ws.getProject("p2");
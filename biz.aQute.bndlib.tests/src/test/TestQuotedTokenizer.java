@@ -69,4 +69,15 @@ public class TestQuotedTokenizer extends TestCase {
 		qt.nextToken();
 		assertNull(qt.nextToken());
 	}
+
+	public static void testSpacesAndQuotes() {
+		QuotedTokenizer qt = new QuotedTokenizer("  a  b ;'x' y , \"z\" ,", ";,");
+		assertEquals("a  b", qt.nextToken());
+		assertEquals(';', qt.getSeparator());
+		assertEquals("xy ", qt.nextToken());
+		assertEquals(',', qt.getSeparator());
+		assertEquals("z", qt.nextToken());
+		assertEquals(',', qt.getSeparator());
+		assertNull(qt.nextToken());
+	}
 }
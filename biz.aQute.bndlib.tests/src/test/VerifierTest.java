@@ -159,6 +159,44 @@ public class VerifierTest extends TestCase {
 		assertTrue(v.check());
 	}
 
+	/**
+	 * The manifest headers are parsed once and shared by the checks
+	 */
+	public static void testHeaderParsedOnce() throws Exception {
+		Jar jar = new Jar("x");
+		Manifest m = new Manifest();
+		m.getMainAttributes().putValue("Manifest-Version", "1.0");
+		m.getMainAttributes().putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+		m.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "x");
+		m.getMainAttributes().putValue(Constants.EXPORT_PACKAGE, "a;version=1;x=");
+		m.getMainAttributes().putValue(Constants.IMPORT_PACKAGE, "b;version=\"[1,2)\"");
+		jar.setManifest(m);
+		jar.putResource("a/A.txt", new EmbeddedResource("a".getBytes("UTF-8"), 0));
+
+		Analyzer analyzer = new Analyzer();
+		try {
+			analyzer.setJar(jar);
+			final Map<String,Integer> parsed = new HashMap<String,Integer>();
+			Verifier v = new Verifier(analyzer) {
+				@Override
+				public Parameters parseHeader(String value) {
+					Integer n = parsed.get(value);
+					parsed.put(value, n == null ? 1 : n + 1);
+					return super.parseHeader(value);
+				}
+			};
+			v.setProperty(Constants.STRICT, "true");
+			v.verify();
+
+			assertEquals(Integer.valueOf(1), parsed.get("a;version=1;x="));
+			assertEquals(Integer.valueOf(1), parsed.get("b;version=\"[1,2)\""));
+			assertTrue(v.check("No value after '=' sign for attribute x"));
+		}
+		finally {
+			analyzer.close();
+		}
+	}
+
 	public static void testnativeCode() throws Exception {
 		Builder b = new Builder();
 		b.addClasspath(new File("bin"));
@@ -40,6 +40,58 @@ public class BaselineTest extends TestCase {
 		workspace = null;
 	}
 
+	/**
+	 * Baseline a set of bundles against an older set, the bundles are matched
+	 * on bsn and the highest older version that is not higher
+	 */
+	public void testBatch() throws Exception {
+		tmp.mkdirs();
+		List<File> older = Arrays.asList(bundle("a", "1.0.0", "1.0"), bundle("a", "2.0.0", "2.0"));
+		List<File> newer = Arrays.asList(bundle("a", "1.5.0", "1.0"), bundle("b", "1.0.0", "1.0"));
+
+		Processor processor = new Processor();
+		BatchBaseline batch = new BatchBaseline(processor);
+		batch.setCache(new TreeCache(new File(tmp, "trees")));
+		List<BatchBaseline.BundleReport> reports = batch.baseline(newer, older);
+		assertTrue(processor.check());
+		assertEquals(1, reports.size());
+
+		BatchBaseline.BundleReport report = reports.get(0);
+		assertEquals("a", report.bsn);
+		assertEquals("1.5.0", report.newerVersion);
+		assertEquals("1.0.0", report.olderVersion);
+		assertFalse(report.mismatch);
+		assertTrue(report.errors.isEmpty());
+		assertEquals(1, report.packages.size());
+		assertEquals("test.api", report.packages.get(0).name);
+		assertEquals(Delta.UNCHANGED, report.packages.get(0).delta);
+
+		// Only the tree of the older bundle is cached, the second time it
+		// comes from the cache
+		assertEquals(1, new File(tmp, "trees").list().length);
+		batch.setThreads(1);
+		List<BatchBaseline.BundleReport> again = batch.baseline(newer, older);
+		assertEquals(reports.toString(), again.toString());
+	}
+
+	private File bundle(String bsn, String version, String packageVersion) throws Exception {
+		Builder b = new Builder();
+		try {
+			b.addClasspath(IO.getFile("bin"));
+			b.setBundleSymbolicName(bsn);
+			b.setBundleVersion(version);
+			b.setExportPackage("test.api;version=" + packageVersion);
+			Jar jar = b.build();
+			assertTrue(b.check());
+			File file = new File(tmp, bsn + "-" + version + ".jar");
+			jar.write(file);
+			return file;
+		}
+		finally {
+			b.close();
+		}
+	}
+
 	public void testJava8DefaultMethods() throws Exception {
 		Builder older = new Builder();
 		older.addClasspath( IO.getFile("java8/older/bin"));
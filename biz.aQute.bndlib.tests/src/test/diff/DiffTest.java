@@ -40,6 +40,60 @@ public class DiffTest extends TestCase {
 		return differ.tree(b).get("<api>").get("a").get("a.clazzA");
 	}
 
+	/**
+	 * The packages are calculated in parallel, the result must be the same as
+	 * with one thread
+	 */
+	public void testParallelAPI() throws Exception {
+		Tree serial = api(IO.getFile("testresources/demo.jar"), "1");
+		Tree parallel = api(IO.getFile("testresources/demo.jar"), "4");
+		assertEquals(Delta.UNCHANGED, parallel.diff(serial).getDelta());
+		assertEquals(serial.getChildren().length, parallel.getChildren().length);
+	}
+
+	private Tree api(File file, String threads) throws Exception {
+		Analyzer analyzer = new Analyzer();
+		try {
+			analyzer.setProperty(Constants.PARALLEL_THREADS, threads);
+			analyzer.setJar(file);
+			return differ.tree(analyzer).get("<api>");
+		}
+		finally {
+			analyzer.close();
+		}
+	}
+
+	/**
+	 * Trees of JAR files are stored in the cache under the digest of the file
+	 * and the ignore instructions
+	 */
+	public void testTreeCache() throws Exception {
+		File dir = IO.getFile("tmp/treecache");
+		IO.delete(dir);
+		try {
+			DiffPluginImpl cached = new DiffPluginImpl();
+			cached.setCache(new TreeCache(dir));
+			File demo = IO.getFile("testresources/demo.jar");
+
+			Tree first = cached.tree(demo);
+			assertEquals(1, dir.list().length);
+			Tree second = cached.tree(demo);
+			assertNotSame(first, second);
+			assertEquals(Delta.UNCHANGED, second.diff(first).getDelta());
+			assertEquals(Delta.UNCHANGED, second.diff(differ.tree(demo)).getDelta());
+			assertNotNull(second.get("<api>").get("test.api").get("test.api.Interf"));
+
+			cached.setIgnore("Bundle-Version");
+			Tree ignored = cached.tree(demo);
+			assertEquals(2, dir.list().length);
+			assertEquals(second.get("<manifest>").getChildren().length - 1,
+					ignored.get("<manifest>").getChildren().length);
+		}
+		finally {
+			IO.delete(dir);
+		}
+	}
+
 	/**
 	 * Test API differences. We have a package in the /demo workspace project and we have
 	 * the same package in our test.api package. If you make changes, copy the demo.jar
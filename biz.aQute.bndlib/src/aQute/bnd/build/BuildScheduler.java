@@ -0,0 +1,134 @@
+package aQute.bnd.build;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.lib.collections.*;
+
+/**
+ * Builds a set of projects of a workspace in dependency order. A project is
+ * started as soon as all the projects it depends on (see
+ * {@link Project#getDependson()}) are built, so independent projects build
+ * concurrently. At most {@code threads} projects are built at the same time.
+ * <p>
+ * If a project fails, the projects that depend on it (directly or indirectly)
+ * are not built, they get an error that refers to the failed project. The
+ * errors and warnings of a build stay on its project so they can be reported
+ * per project.
+ */
+class BuildScheduler {
+	final Executor								executor;
+	final int									threads;
+	final boolean								underTest;
+
+	final Map<Project,Set<Project>>				waiting		= new LinkedHashMap<Project,Set<Project>>();
+	final MultiMap<Project,Project>				dependents	= new MultiMap<Project,Project>();
+	final List<Project>							ready		= new LinkedList<Project>();
+	final List<Project>							done		= new ArrayList<Project>();
+
+	BuildScheduler(Executor executor, int threads, boolean underTest) {
+		this.executor = executor;
+		this.threads = Math.max(1, threads);
+		this.underTest = underTest;
+	}
+
+	/**
+	 * Build the given projects.
+	 *
+	 * @return the projects in the order they finished, projects that were not
+	 *         built because of a failure or a cycle are included and have an
+	 *         error
+	 */
+	List<Project> build(Collection<Project> projects) throws Exception {
+		Set<Project> todo = new LinkedHashSet<Project>(projects);
+
+		//
+		// Only dependencies that are part of this build
+		// have to be waited for, the others are treated
+		// by the project itself (isStale)
+		//
+		for (Project project : todo) {
+			Set<Project> dependson = new LinkedHashSet<Project>(project.getDependson());
+			dependson.retainAll(todo);
+			dependson.remove(project);
+			waiting.put(project, dependson);
+			for (Project dependency : dependson)
+				dependents.add(dependency, project);
+			if (dependson.isEmpty())
+				ready.add(project);
+		}
+		for (Project project : ready)
+			waiting.remove(project);
+
+		CompletionService<Project> completion = new ExecutorCompletionService<Project>(executor);
+		int running = 0;
+
+		while (true) {
+			while (running < threads && !ready.isEmpty()) {
+				final Project project = ready.remove(0);
+				completion.submit(new Callable<Project>() {
+					public Project call() throws Exception {
+						try {
+							project.build(underTest);
+						}
+						catch (Exception e) {
+							project.exception(e, "Building %s: %s", project, e);
+						}
+						return project;
+					}
+				});
+				running++;
+			}
+
+			if (running == 0)
+				break;
+
+			Project project = completion.take().get();
+			running--;
+			done.add(project);
+
+			if (project.isOk())
+				built(project);
+			else
+				failed(project, project);
+		}
+
+		for (Map.Entry<Project,Set<Project>> entry : waiting.entrySet()) {
+			Project project = entry.getKey();
+			project.error("Not built, circular dependency on %s", entry.getValue());
+			done.add(project);
+		}
+		return done;
+	}
+
+	private void built(Project project) {
+		List<Project> list = dependents.get(project);
+		if (list == null)
+			return;
+
+		for (Project dependent : list) {
+			Set<Project> dependson = waiting.get(dependent);
+			if (dependson != null) {
+				dependson.remove(project);
+				if (dependson.isEmpty()) {
+					waiting.remove(dependent);
+					ready.add(dependent);
+				}
+			}
+		}
+	}
+
+	private void failed(Project project, Project cause) {
+		List<Project> list = dependents.get(project);
+		if (list == null)
+			return;
+
+		for (Project dependent : list) {
+			if (waiting.remove(dependent) != null) {
+				dependent.error("Not built because %s failed", cause);
+				done.add(dependent);
+				failed(dependent, cause);
+			}
+		}
+	}
+}
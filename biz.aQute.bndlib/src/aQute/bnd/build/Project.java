@@ -1297,10 +1297,17 @@ public class Project extends Processor {
 		}
 
 		Set<Project> visited = new HashSet<Project>();
-		return isStale(visited);
+		return workspace.getStaleCheck().isStale(this, visited);
 	}
 
-	boolean isStale(Set<Project> visited) throws Exception {
+	/**
+	 * Evaluate if this project is stale, the dependencies are evaluated
+	 * through the check so each project is only evaluated once.
+	 *
+	 * @param visited
+	 *            the projects on the current dependency path
+	 */
+	boolean isStale(StaleCheck check, Set<Project> visited) throws Exception {
 		// When we do not generate anything ...
 		if (isNoBundles())
 			return false;
@@ -1311,39 +1318,54 @@ public class Project extends Processor {
 		}
 
 		visited.add(this);
+		try {
+			long buildTime = 0;
 
-		long buildTime = 0;
-
-		files = getBuildFiles(false);
-		if (files == null)
-			return true;
-
-		for (File f : files) {
-			if (f.lastModified() < lastModified())
+			files = getBuildFiles(false);
+			if (files == null)
 				return true;
 
-			if (buildTime < f.lastModified())
-				buildTime = f.lastModified();
-		}
+			boolean digest = StaleCheck.isDigest(this);
+			for (File f : files) {
+				long lastModified = check.lastModified(f);
+				if (digest) {
+					if (lastModified == 0L)
+						return true;
+					continue;
+				}
 
-		for (Project dependency : getDependson()) {
-			if (dependency == this)
-				continue;
+				if (lastModified < lastModified())
+					return true;
 
-			if (dependency.isStale())
-				return true;
+				if (buildTime < lastModified)
+					buildTime = lastModified;
+			}
 
-			if (dependency.isNoBundles())
-				continue;
+			for (Project dependency : getDependson()) {
+				if (dependency == this)
+					continue;
 
-			File[] deps = dependency.getBuildFiles();
-			for (File f : deps) {
-				if (f.lastModified() >= buildTime)
+				if (check.isStale(dependency, visited))
 					return true;
+
+				if (digest || dependency.isNoBundles())
+					continue;
+
+				File[] deps = dependency.getBuildFiles();
+				for (File f : deps) {
+					if (check.lastModified(f) >= buildTime)
+						return true;
+				}
 			}
-		}
 
-		return false;
+			if (digest)
+				return !check.isUnchanged(this);
+
+			return false;
+		}
+		finally {
+			visited.remove(this);
+		}
 	}
 
 	/**
@@ -1446,6 +1468,7 @@ public class Project extends Processor {
 					fw.close();
 				}
 				getWorkspace().changedFile(bfs);
+				getWorkspace().built(this);
 				return files;
 			}
 			return null;
@@ -1631,6 +1654,8 @@ public class Project extends Processor {
 			ProjectLauncher launcher = packageProject.getProjectLauncher();
 			launcher.setKeep(keep);
 			Jar jar = launcher.executable();
+			if (isTrue(getProperty(PARALLEL_WRITE)))
+				jar.setWriteThreads(getParallelThreads());
 
 			outStream = new FileOutputStream(output);
 			jar.write(outStream);
@@ -2432,6 +2457,8 @@ public class Project extends Processor {
 		launcher.getRunProperties().put("profile", profile); // TODO remove
 		launcher.getRunProperties().put(PROFILE, profile);
 		Jar jar = launcher.executable();
+		if (isTrue(getProperty(PARALLEL_WRITE)))
+			jar.setWriteThreads(getParallelThreads());
 		Manifest m = jar.getManifest();
 		Attributes main = m.getMainAttributes();
 		for (String key : getPropertyKeys(true)) {
@@ -15,11 +15,14 @@ import aQute.bnd.service.repository.SearchableRepository.ResourceDescriptor;
 import aQute.bnd.version.*;
 import aQute.lib.collections.*;
 import aQute.lib.io.*;
+import aQute.libg.cryptography.Digester;
+import aQute.libg.cryptography.SHA1;
 
 public class ProjectBuilder extends Builder {
 	private final DiffPluginImpl	differ	= new DiffPluginImpl();
 	Project							project;
 	boolean							initialized;
+	SHA1							digest;
 
 	public ProjectBuilder(Project project) {
 		super(project);
@@ -94,6 +97,147 @@ public class ProjectBuilder extends Builder {
 		project.getWorkspace().changedFile(f);
 	}
 
+	/**
+	 * Build the JAR and, with {@link Constants#INCREMENTAL}, keep a snapshot of
+	 * the analysis next to the output file so a next build of the same content
+	 * can reuse the JAR.
+	 */
+	@Override
+	public Jar build() throws Exception {
+		digest = null;
+		Jar jar = super.build();
+		if (jar != null && digest != null && isOk() && getWarnings().isEmpty())
+			writeSnapshot(getSnapshotFile(), digest, jar.lastModified());
+		return jar;
+	}
+
+	/**
+	 * Reuse the output file of the previous build when the snapshot of that
+	 * build has the same digest of the content, instructions and classpath.
+	 * The snapshot has the same modification time as the JAR of its build,
+	 * otherwise the output file was not saved from that build.
+	 */
+	@Override
+	protected Jar doReuse(Jar dot) throws Exception {
+		if (!isTrue(getProperty(INCREMENTAL)))
+			return null;
+
+		SHA1 current = getBuildDigest(dot);
+		File output = project.getOutputFile(getBsn(), getVersion());
+		File file = getSnapshotFile();
+		if (file.isFile() && output.isFile() && output.lastModified() == file.lastModified()) {
+			Properties snapshot = new Properties();
+			InputStream in = new FileInputStream(file);
+			try {
+				snapshot.load(in);
+			}
+			finally {
+				in.close();
+			}
+
+			if (current.asHex().equals(snapshot.getProperty("digest"))) {
+				trace("reusing %s, nothing changed since %s", output, new Date(file.lastModified()));
+				setAnalysis(toPackages(snapshot.getProperty(EXPORT_PACKAGE)),
+						toPackages(snapshot.getProperty(IMPORT_PACKAGE)), toPackages(snapshot.getProperty("Contained")));
+
+				// we are up to date now
+				long now = System.currentTimeMillis();
+				output.setLastModified(now);
+				file.setLastModified(now);
+				return new Jar(output);
+			}
+		}
+		digest = current;
+		return null;
+	}
+
+	/**
+	 * Digest everything that influences the build of the dot JAR: the
+	 * resources collected so far, the instructions, the classpath and, with
+	 * {@link Constants#SOURCES}, the source files. A reused build does not
+	 * analyze the classes so it can not add the sources again.
+	 */
+	private SHA1 getBuildDigest(Jar dot) throws Exception {
+		Digester<SHA1> digester = SHA1.getDigester();
+		writeDigestString(digester, getBndVersion());
+
+		for (String key : new TreeSet<String>(getPropertyKeys(true))) {
+			writeDigestString(digester, key);
+			writeDigestString(digester, getUnprocessedProperty(key, ""));
+		}
+
+		for (Jar jar : getClasspath()) {
+			writeDigestString(digester, jar.getName());
+			writeDigestString(digester, Long.toString(jar.lastModified()));
+		}
+
+		for (Map.Entry<String,Resource> entry : dot.getResources().entrySet()) {
+			writeDigestString(digester, entry.getKey());
+			entry.getValue().write(digester);
+		}
+
+		if (hasSources()) {
+			for (File root : getSourcePath())
+				digestSources(digester, root);
+		}
+		return digester.digest();
+	}
+
+	private static void digestSources(OutputStream out, File file) throws IOException {
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names == null)
+				return;
+			Arrays.sort(names);
+			for (String name : names)
+				digestSources(out, new File(file, name));
+		} else if (file.isFile()) {
+			writeDigestString(out, file.getAbsolutePath());
+			writeDigestString(out, Long.toString(file.lastModified()));
+		}
+	}
+
+	private static void writeDigestString(OutputStream out, String s) throws IOException {
+		out.write(s.getBytes("UTF-8"));
+		out.write(0);
+	}
+
+	private File getSnapshotFile() throws Exception {
+		File output = project.getOutputFile(getBsn(), getVersion());
+		return new File(output.getParentFile(), output.getName() + ".snapshot");
+	}
+
+	private void writeSnapshot(File file, SHA1 digest, long lastModified) throws Exception {
+		Properties snapshot = new Properties();
+		snapshot.setProperty("digest", digest.asHex());
+		if (getExports() != null)
+			snapshot.setProperty(EXPORT_PACKAGE, printClauses(getExports()));
+		if (getImports() != null)
+			snapshot.setProperty(IMPORT_PACKAGE, printClauses(getImports()));
+		snapshot.setProperty("Contained", printClauses(getContained()));
+
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+
+		OutputStream out = new FileOutputStream(file);
+		try {
+			snapshot.store(out, "bnd build snapshot");
+		}
+		finally {
+			out.close();
+		}
+		file.setLastModified(lastModified);
+	}
+
+	private Packages toPackages(String clauses) {
+		Packages packages = new Packages();
+		for (Entry<String,Attrs> entry : OSGiHeader.parseHeader(clauses).entrySet()) {
+			packages.put(getPackageRef(removeDuplicateMarker(entry.getKey())), entry.getValue());
+		}
+		return packages;
+	}
+
 	/**
 	 * Compare this builder's JAR with a baseline
 	 * 
@@ -105,6 +249,7 @@ public class ProjectBuilder extends Builder {
 		String diffignore = project.getProperty(Constants.DIFFIGNORE);
 		trace("ignore headers & paths %s", diffignore);
 		differ.setIgnore(diffignore);
+		differ.setCache(getPlugin(TreeCache.class));
 
 		Jar fromRepo = getBaselineJar();
 		if (fromRepo == null) {
@@ -141,7 +286,9 @@ public class ProjectBuilder extends Builder {
 		try {
 			Baseline baseliner = new Baseline(this, differ);
 
-			Set<Info> infos = baseliner.baseline(dot, fromRepo, null);
+			File source = fromRepo.getSource();
+			Set<Info> infos = source != null && source.isFile() ? baseliner.baseline(dot, source, null) : baseliner
+					.baseline(dot, fromRepo, null);
 			if (infos.isEmpty())
 				trace("no deltas");
 
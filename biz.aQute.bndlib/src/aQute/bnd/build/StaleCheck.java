@@ -0,0 +1,236 @@
+package aQute.bnd.build;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.bnd.osgi.*;
+import aQute.lib.io.*;
+import aQute.lib.utf8properties.*;
+import aQute.libg.cryptography.*;
+
+/**
+ * Decides if projects are stale. The outcome for a project is remembered so a
+ * project that is reached through several paths in the dependency graph is
+ * only evaluated once, and the time stamps of the files are only read once.
+ * The workspace keeps a check for the duration of a build session (see
+ * {@link Workspace#build(Collection, boolean)}), outside a session every
+ * {@link Project#isStale()} uses a new check.
+ * <p>
+ * With {@link Constants#STALEDIGEST} the inputs of a project (bnd files,
+ * classes and the build path) are compared to the SHA-1 digests recorded at
+ * the last build instead of comparing time stamps. A file whose length and
+ * time stamp did not change since it was recorded is assumed to be unchanged,
+ * otherwise its content is digested.
+ */
+class StaleCheck {
+	final static String					DIGESTS		= Constants.BUILDFILES + ".digests";
+
+	final ConcurrentMap<Project,Boolean>	stale		= new ConcurrentHashMap<Project,Boolean>();
+	final ConcurrentMap<File,Long>			modified	= new ConcurrentHashMap<File,Long>();
+	final ConcurrentMap<File,Stamp>			digests		= new ConcurrentHashMap<File,Stamp>();
+
+	/**
+	 * The length, time stamp and content digest of a file
+	 */
+	static class Stamp {
+		final long		length;
+		final long		lastModified;
+		final String	digest;
+
+		Stamp(long length, long lastModified, String digest) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+
+		boolean same(File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+
+		@Override
+		public String toString() {
+			return length + "," + lastModified + "," + digest;
+		}
+
+		static Stamp parse(String s) {
+			String parts[] = s.split(",");
+			if (parts.length != 3)
+				return null;
+			try {
+				return new Stamp(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Answer if the project is stale.
+	 *
+	 * @param visited
+	 *            the projects on the current dependency path, used to detect
+	 *            cycles
+	 */
+	boolean isStale(Project project, Set<Project> visited) throws Exception {
+		Boolean result = stale.get(project);
+		if (result != null)
+			return result;
+
+		boolean b = project.isStale(this, visited);
+		stale.put(project, b);
+		return b;
+	}
+
+	/**
+	 * The time stamp of a file, read once per check
+	 */
+	long lastModified(File file) {
+		Long result = modified.get(file);
+		if (result == null) {
+			result = file.lastModified();
+			modified.put(file, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Called when a project was built, its build files changed so everything
+	 * that depends on them must be evaluated again.
+	 */
+	void built(Project project) throws Exception {
+		stale.clear();
+		modified.clear();
+		if (isDigest(project))
+			writeDigests(project);
+	}
+
+	static boolean isDigest(Project project) {
+		return Processor.isTrue(project.getProperty(Constants.STALEDIGEST));
+	}
+
+	/**
+	 * Answer if the inputs of the project have the digests that were recorded
+	 * at the last build. When only the time stamps differ the record is
+	 * updated so the next check does not have to digest these files again.
+	 */
+	boolean isUnchanged(Project project) throws Exception {
+		File file = new File(project.getTarget(), DIGESTS);
+		if (!file.isFile())
+			return false;
+
+		UTF8Properties record = new UTF8Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			record.load(in);
+		}
+		finally {
+			in.close();
+		}
+
+		Set<File> inputs = getInputs(project);
+		if (record.size() != inputs.size())
+			return false;
+
+		boolean touched = false;
+		for (File input : inputs) {
+			String s = record.getProperty(input.getAbsolutePath());
+			if (s == null)
+				return false;
+			Stamp recorded = Stamp.parse(s);
+			if (recorded == null)
+				return false;
+			if (recorded.same(input))
+				continue;
+			if (!recorded.digest.equals(getStamp(input).digest))
+				return false;
+			touched = true;
+		}
+
+		if (touched)
+			writeDigests(project);
+		return true;
+	}
+
+	void writeDigests(Project project) throws Exception {
+		UTF8Properties record = new UTF8Properties();
+		for (File input : getInputs(project))
+			record.setProperty(input.getAbsolutePath(), getStamp(input).toString());
+
+		File file = new File(project.getTarget(), DIGESTS);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			record.store(out, null);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The stamp of a file, the content is only digested again when the length
+	 * or the time stamp changed since the last time.
+	 */
+	Stamp getStamp(File file) throws Exception {
+		Stamp stamp = digests.get(file);
+		if (stamp != null && stamp.same(file))
+			return stamp;
+
+		long length = file.length();
+		long lastModified = file.lastModified();
+		Digester<SHA1> digester = SHA1.getDigester();
+		IO.copy(file, digester);
+		stamp = new Stamp(length, lastModified, digester.digest().asHex());
+		digests.put(file, stamp);
+		return stamp;
+	}
+
+	/**
+	 * The files that are used to build the project: the bnd files, the output
+	 * of the compiler, the build path and the build files of the projects it
+	 * depends on.
+	 */
+	static Set<File> getInputs(Project project) throws Exception {
+		Set<File> inputs = new TreeSet<File>();
+		if (project.getPropertiesFile() != null)
+			inputs.add(project.getPropertiesFile());
+		if (project.getIncluded() != null)
+			inputs.addAll(project.getIncluded());
+
+		File[] bnds = project.getBase().listFiles();
+		if (bnds != null)
+			for (File bnd : bnds)
+				if (bnd.isFile() && bnd.getName().endsWith(Constants.DEFAULT_BND_EXTENSION))
+					inputs.add(bnd);
+
+		addFiles(inputs, project.getOutput());
+		for (Container container : project.getBuildpath())
+			addFiles(inputs, container.getFile());
+
+		for (Project dependency : project.getDependson()) {
+			if (dependency == project || dependency.isNoBundles())
+				continue;
+			File[] files = dependency.getBuildFiles(false);
+			if (files != null)
+				for (File f : files)
+					addFiles(inputs, f);
+		}
+		return inputs;
+	}
+
+	private static void addFiles(Set<File> inputs, File file) {
+		if (file == null)
+			return;
+
+		if (file.isFile()) {
+			inputs.add(file);
+			return;
+		}
+
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				addFiles(inputs, child);
+	}
+}
@@ -13,6 +13,7 @@ import java.util.regex.*;
 import javax.naming.*;
 
 import aQute.bnd.annotation.plugin.*;
+import aQute.bnd.differ.*;
 import aQute.bnd.header.*;
 import aQute.bnd.maven.support.*;
 import aQute.bnd.osgi.*;
@@ -60,6 +61,9 @@ public class Workspace extends Processor {
 	 */
 	final ThreadLocal<Reporter>					signalBusy		= new ThreadLocal<Reporter>();
 	ResourceRepositoryImpl						resourceRepositoryImpl;
+	ClazzCache									clazzCache;
+	final Descriptors							descriptors		= new Descriptors();
+	volatile StaleCheck							staleCheck;
 
 	private Parameters							gestalt;
 
@@ -479,6 +483,50 @@ public class Workspace extends Processor {
 		}
 	}
 
+	/**
+	 * Build the given projects. Projects that do not depend on each other are
+	 * built in parallel, the number of concurrent builds is limited by
+	 * {@link Constants#PARALLEL_THREADS}. When a project fails, the projects
+	 * that depend on it are not built and get an error. During the build each
+	 * project is only checked once for being stale, until a project is built.
+	 *
+	 * @param projects
+	 *            the projects to build
+	 * @param underTest
+	 *            build for test
+	 * @return the projects in the order their build finished, the errors and
+	 *         warnings are on each project
+	 */
+	public List<Project> build(Collection<Project> projects, boolean underTest) throws Exception {
+		BuildScheduler scheduler = new BuildScheduler(getExecutor(), getParallelThreads(), underTest);
+		if (staleCheck != null)
+			return scheduler.build(projects);
+
+		staleCheck = new StaleCheck();
+		try {
+			return scheduler.build(projects);
+		}
+		finally {
+			staleCheck = null;
+		}
+	}
+
+	/**
+	 * Answer the stale check of the current build session, outside a session
+	 * a new check is returned so nothing is remembered between calls.
+	 */
+	StaleCheck getStaleCheck() {
+		StaleCheck check = staleCheck;
+		return check == null ? new StaleCheck() : check;
+	}
+
+	/**
+	 * Called when a project was built.
+	 */
+	void built(Project project) throws Exception {
+		getStaleCheck().built(project);
+	}
+
 	public static Workspace getWorkspace(String path) throws Exception {
 		File file = IO.getFile(new File(""), path);
 		return getWorkspace(file);
@@ -495,11 +543,20 @@ public class Workspace extends Processor {
 			list.add(this);
 			list.add(maven);
 			list.add(settings);
+			list.add(descriptors);
 
 			if (!isTrue(getProperty(NOBUILDINCACHE))) {
 				list.add(new CachedFileRepo());
 			}
 
+			if (!isTrue(getProperty(NOCLAZZCACHE))) {
+				if (clazzCache == null)
+					clazzCache = new ClazzCache(new File(getCache("clazz"), "clazz.cache"));
+				list.add(clazzCache);
+			}
+
+			list.add(new TreeCache(getCache("trees")));
+
 			resourceRepositoryImpl = new ResourceRepositoryImpl();
 			resourceRepositoryImpl.setCache(IO.getFile(getProperty(CACHEDIR, "~/.bnd/caches/shas")));
 			resourceRepositoryImpl.setExecutor(getExecutor());
@@ -762,6 +819,14 @@ public class Workspace extends Processor {
 
 	public void close() {
 		cache.remove(getPropertiesFile().getParentFile().getParentFile());
+		if (clazzCache != null) {
+			try {
+				clazzCache.flush();
+			}
+			catch (IOException e) {
+				warning("Could not write the class cache %s", e);
+			}
+		}
 	}
 
 	/**
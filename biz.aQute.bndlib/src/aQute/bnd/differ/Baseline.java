@@ -80,6 +80,35 @@ public class Baseline {
 		return baseline(n, nExports, o, oExports, packageFilters);
 	}
 
+	/**
+	 * Compare a jar to a baseline JAR file. When the differ is a
+	 * {@link DiffPluginImpl} with a {@link TreeCache} the tree of the baseline
+	 * is only calculated the first time, only its manifest is read when it is
+	 * in the cache.
+	 *
+	 * @see #baseline(Jar, Jar, Instructions)
+	 */
+	public Set<Info> baseline(Jar newer, File older, Instructions packageFilters) throws Exception {
+		if (!(differ instanceof DiffPluginImpl)) {
+			Jar jar = new Jar(older);
+			try {
+				return baseline(newer, jar, packageFilters);
+			}
+			finally {
+				jar.close();
+			}
+		}
+
+		Tree n = differ.tree(newer);
+		Parameters nExports = getExports(newer);
+		Tree o = ((DiffPluginImpl) differ).tree(older);
+		Parameters oExports = getExports(ManifestReader.read(older));
+		if (packageFilters == null)
+			packageFilters = new Instructions();
+
+		return baseline(n, nExports, o, oExports, packageFilters);
+	}
+
 	public Set<Info> baseline(Tree n, Parameters nExports, Tree o, Parameters oExports, Instructions packageFilters)
 			throws Exception {
 		diff = n.diff(o);
@@ -293,7 +322,10 @@ public class Baseline {
 	}
 
 	private Parameters getExports(Jar jar) throws Exception {
-		Manifest m = jar.getManifest();
+		return getExports(jar.getManifest());
+	}
+
+	private Parameters getExports(Manifest m) {
 		if (m == null)
 			return new Parameters();
 
@@ -0,0 +1,262 @@
+package aQute.bnd.differ;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.jar.*;
+
+import aQute.bnd.differ.Baseline.BundleInfo;
+import aQute.bnd.differ.Baseline.Info;
+import aQute.bnd.header.*;
+import aQute.bnd.osgi.*;
+import aQute.bnd.service.diff.*;
+import aQute.bnd.util.dto.*;
+import aQute.bnd.version.*;
+
+/**
+ * Baselines a set of bundles against a previous set, for example a repository
+ * against the snapshot of the previous release. Each newer bundle is compared
+ * to the highest older bundle with the same bundle symbolic name and a version
+ * that is not higher. The comparisons run in parallel and the trees of the
+ * older, released, JARs are shared through a {@link TreeCache}, the result is
+ * a report per bundle that can be serialized, e.g. to JSON.
+ */
+public class BatchBaseline {
+	final Processor	reporter;
+	TreeCache		cache;
+	String			diffignore;
+	int				threads;
+
+	/**
+	 * The result of baselining one bundle
+	 */
+	public static class BundleReport extends DTO {
+		public String				bsn;
+		public String				newer;
+		public String				older;
+		public String				newerVersion;
+		public String				olderVersion;
+		public String				suggestedVersion;
+		public boolean				mismatch;
+		public List<PackageReport>	packages	= new ArrayList<PackageReport>();
+		public List<String>			errors		= new ArrayList<String>();
+		public List<String>			warnings	= new ArrayList<String>();
+	}
+
+	/**
+	 * The result of baselining one exported package
+	 */
+	public static class PackageReport extends DTO {
+		public String	name;
+		public Delta	delta;
+		public String	newerVersion;
+		public String	olderVersion;
+		public String	suggestedVersion;
+		public String	suggestedIfProviders;
+		public boolean	mismatch;
+		public String	warning;
+	}
+
+	/**
+	 * @param reporter
+	 *            the processor that provides the number of threads (see
+	 *            {@link Processor#getParallelThreads()}) and gets the errors
+	 *            that are not related to a bundle
+	 */
+	public BatchBaseline(Processor reporter) {
+		this.reporter = reporter;
+		this.threads = reporter.getParallelThreads();
+	}
+
+	public void setCache(TreeCache cache) {
+		this.cache = cache;
+	}
+
+	public void setIgnore(String diffignore) {
+		this.diffignore = diffignore;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Baseline the newer JARs against the older JARs.
+	 *
+	 * @return a report per newer bundle that has a baseline, sorted on bundle
+	 *         symbolic name
+	 */
+	public List<BundleReport> baseline(Collection<File> newer, Collection<File> older) throws Exception {
+		Map<String,SortedMap<Version,File>> olderIndex = index(older);
+		Map<String,SortedMap<Version,File>> newerIndex = index(newer);
+
+		final List<File[]> pairs = new ArrayList<File[]>();
+		for (Map.Entry<String,SortedMap<Version,File>> entry : newerIndex.entrySet()) {
+			SortedMap<Version,File> candidates = olderIndex.get(entry.getKey());
+			if (candidates == null) {
+				reporter.trace("no baseline for %s", entry.getKey());
+				continue;
+			}
+			for (Map.Entry<Version,File> n : entry.getValue().entrySet()) {
+				SortedMap<Version,File> lower = candidates.headMap(n.getKey());
+				File o = candidates.get(n.getKey());
+				if (o == null && !lower.isEmpty())
+					o = lower.get(lower.lastKey());
+				if (o == null) {
+					reporter.trace("no baseline for %s-%s", entry.getKey(), n.getKey());
+					continue;
+				}
+				pairs.add(new File[] {
+						n.getValue(), o
+				});
+			}
+		}
+
+		final BundleReport[] reports = new BundleReport[pairs.size()];
+		final AtomicInteger next = new AtomicInteger();
+		Callable<Object> worker = new Callable<Object>() {
+			public Object call() throws Exception {
+				for (int i; (i = next.getAndIncrement()) < pairs.size();)
+					reports[i] = baseline(pairs.get(i)[0], pairs.get(i)[1]);
+				return null;
+			}
+		};
+
+		List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+		for (int t = 1; t < Math.min(threads, pairs.size()); t++) {
+			FutureTask<Object> task = new FutureTask<Object>(worker);
+			Processor.getExecutor().execute(task);
+			tasks.add(task);
+		}
+		FutureTask<Object> self = new FutureTask<Object>(worker);
+		self.run();
+		tasks.add(self);
+		for (FutureTask<Object> task : tasks) {
+			try {
+				task.get();
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+		return Arrays.asList(reports);
+	}
+
+	/**
+	 * Baseline one JAR against another. Problems are reported in the report,
+	 * they do not stop the other comparisons.
+	 */
+	public BundleReport baseline(File newer, File older) {
+		BundleReport report = new BundleReport();
+		report.newer = newer.getAbsolutePath();
+		report.older = older.getAbsolutePath();
+
+		//
+		// The reporter is shared by the threads, a bundle gets
+		// its own processor to collect its errors and warnings
+		//
+		Processor processor = new Processor();
+		processor.setTrace(reporter.isTrace());
+		try {
+			DiffPluginImpl differ = new DiffPluginImpl();
+			differ.setCache(cache);
+			differ.setIgnore(diffignore);
+			Baseline baseline = new Baseline(processor, differ);
+
+			//
+			// The newer JAR is usually a snapshot, its tree is not worth
+			// keeping in the cache
+			//
+			Jar jnewer = new Jar(newer);
+			Tree n;
+			try {
+				n = differ.tree(jnewer);
+			}
+			finally {
+				jnewer.close();
+			}
+			Tree o = differ.tree(older);
+			Set<Info> infos = baseline.baseline(n, getExports(newer), o, getExports(older), new Instructions());
+
+			BundleInfo binfo = baseline.getBundleInfo();
+			report.bsn = binfo.bsn;
+			report.newerVersion = toString(binfo.newerVersion);
+			report.olderVersion = toString(binfo.olderVersion);
+			report.suggestedVersion = toString(binfo.suggestedVersion);
+			report.mismatch = binfo.mismatch;
+
+			for (Info info : infos) {
+				PackageReport p = new PackageReport();
+				p.name = info.packageName;
+				p.delta = info.packageDiff.getDelta();
+				p.newerVersion = toString(info.newerVersion);
+				p.olderVersion = toString(info.olderVersion);
+				p.suggestedVersion = toString(info.suggestedVersion);
+				p.suggestedIfProviders = toString(info.suggestedIfProviders);
+				p.mismatch = info.mismatch;
+				p.warning = info.warning.length() == 0 ? null : info.warning;
+				report.packages.add(p);
+				if (info.mismatch)
+					report.mismatch = true;
+			}
+			Collections.sort(report.packages, new Comparator<PackageReport>() {
+				public int compare(PackageReport a, PackageReport b) {
+					return a.name.compareTo(b.name);
+				}
+			});
+		}
+		catch (Exception e) {
+			processor.exception(e, "Baselining %s against %s: %s", newer, older, e);
+		}
+		finally {
+			report.errors.addAll(processor.getErrors());
+			report.warnings.addAll(processor.getWarnings());
+			processor.close();
+		}
+		return report;
+	}
+
+	/**
+	 * Index the JARs on bundle symbolic name and version, only the manifests
+	 * are read. Files that are not bundles are ignored.
+	 */
+	private Map<String,SortedMap<Version,File>> index(Collection<File> files) {
+		Map<String,SortedMap<Version,File>> index = new TreeMap<String,SortedMap<Version,File>>();
+		for (File file : files) {
+			try {
+				Manifest manifest = ManifestReader.read(file);
+				String bsn = ManifestReader.getBsn(manifest);
+				if (bsn == null)
+					continue;
+
+				String version = ManifestReader.getVersion(manifest);
+				Version v = version == null || !Verifier.isVersion(version) ? Version.emptyVersion : new Version(
+						version);
+				SortedMap<Version,File> versions = index.get(bsn);
+				if (versions == null) {
+					versions = new TreeMap<Version,File>();
+					index.put(bsn, versions);
+				}
+				versions.put(v, file);
+			}
+			catch (Exception e) {
+				reporter.warning("Cannot read the manifest of %s: %s", file, e);
+			}
+		}
+		return index;
+	}
+
+	private static Parameters getExports(File file) throws IOException {
+		Manifest manifest = ManifestReader.read(file);
+		if (manifest == null)
+			return new Parameters();
+		return OSGiHeader.parseHeader(manifest.getMainAttributes().getValue(Constants.EXPORT_PACKAGE));
+	}
+
+	private static String toString(Version version) {
+		return version == null ? null : version.toString();
+	}
+}
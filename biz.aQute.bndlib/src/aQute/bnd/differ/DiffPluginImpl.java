@@ -60,16 +60,43 @@ public class DiffPluginImpl implements Differ {
 		ORDERED_HEADERS.add(Constants.TESTCASES);
 	}
 
-	Instructions localIgnore = null;
+	Instructions	localIgnore	= null;
+	String			ignore;
+	TreeCache		cache;
 
 	/**
+	 * Create the tree of a JAR file. With a {@link TreeCache} the tree is
+	 * stored under the digest of the file and the ignore instructions.
+	 *
 	 * @see aQute.bnd.service.diff.Differ#diff(aQute.lib.resource.Jar,
 	 *      aQute.lib.resource.Jar)
 	 */
 	public Tree tree(File newer) throws Exception {
+		SHA1 key = null;
+		if (cache != null) {
+			Digester<SHA1> digester = SHA1.getDigester();
+			IO.copy(newer, digester);
+			if (ignore != null)
+				digester.write(ignore.getBytes("UTF-8"));
+			key = digester.digest();
+
+			Tree tree = cache.get(key);
+			if (tree != null)
+				return tree;
+		}
+
 		Jar jnewer = new Jar(newer);
 		try {
-			return tree(jnewer);
+			Tree tree = tree(jnewer);
+			if (key != null) {
+				try {
+					cache.put(key, tree);
+				}
+				catch (IOException e) {
+					// the cache is an optimization
+				}
+			}
+			return tree;
 		}
 		finally {
 			jnewer.close();
@@ -220,6 +247,7 @@ public class DiffPluginImpl implements Differ {
 	}
 
 	public void setIgnore(String diffignore) {
+		ignore = diffignore;
 		if ( diffignore == null) {
 			localIgnore = null;
 			return;
@@ -229,4 +257,10 @@ public class DiffPluginImpl implements Differ {
 		localIgnore = new Instructions(p); 
 	}
 
+	/**
+	 * Set the cache for the trees of JAR files, null disables the cache.
+	 */
+	public void setCache(TreeCache cache) {
+		this.cache = cache;
+	}
 }
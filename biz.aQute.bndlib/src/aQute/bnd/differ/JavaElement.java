@@ -7,6 +7,7 @@ import static java.lang.reflect.Modifier.*;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.jar.*;
 import java.util.regex.*;
@@ -64,19 +65,28 @@ class JavaElement {
 
 	final Analyzer						analyzer;
 	final Map<PackageRef,Instructions>	providerMatcher	= Create.map();
-	final Set<TypeRef>					notAccessible	= Create.set();
-	final Map<Object,Element>			cache			= Create.map();
+	final Set<TypeRef>					notAccessible	= Collections
+																.newSetFromMap(new ConcurrentHashMap<TypeRef,Boolean>());
+	final ConcurrentMap<Clazz, //
+	FutureTask<Element>>				cache			= new ConcurrentHashMap<Clazz,FutureTask<Element>>();
+	final ConcurrentMap<TypeRef,Clazz>	classes			= new ConcurrentHashMap<TypeRef,Clazz>();
 	MultiMap<PackageRef, //
 	Element>							packages;
 	final MultiMap<TypeRef, //
 	Element>							covariant		= new MultiMap<TypeRef,Element>();
-	final Set<JAVA>						javas			= Create.set();
+	final Set<JAVA>						javas			= Collections
+																.newSetFromMap(new ConcurrentHashMap<JAVA,Boolean>());
 	final Packages						exports;
 
 	/**
 	 * Create an element for the API. We take the exported packages and traverse
 	 * those for their classes. If there is no manifest or it does not describe
 	 * a bundle we assume the whole contents is exported.
+	 * <p>
+	 * The packages are calculated in parallel, the number of threads is
+	 * {@link Analyzer#getParallelThreads()}. The elements of the classes,
+	 * including the super classes from the class path, are shared between the
+	 * threads so each class is only calculated once.
 	 * 
 	 * @param infos
 	 */
@@ -108,19 +118,53 @@ class JavaElement {
 		// creating the packages yet because we do not yet know
 		// which classes are accessible
 
-		packages = new MultiMap<PackageRef,Element>();
-
+		final MultiMap<PackageRef,Clazz> exported = new MultiMap<PackageRef,Clazz>();
 		for (Clazz c : analyzer.getClassspace().values()) {
 			if (c.isPublic() || c.isProtected()) {
 				PackageRef packageName = c.getClassName().getPackageRef();
 
 				if (exports.containsKey(packageName)) {
-					Element cdef = classElement(c);
-					packages.add(packageName, cdef);
+					exported.add(packageName, c);
 				}
 			}
 		}
 
+		final List<PackageRef> refs = new ArrayList<PackageRef>(exported.keySet());
+		final Map<PackageRef,List<Element>> elements = new ConcurrentHashMap<PackageRef,List<Element>>();
+		final AtomicInteger next = new AtomicInteger();
+		Callable<Object> worker = new Callable<Object>() {
+			public Object call() throws Exception {
+				for (int i; (i = next.getAndIncrement()) < refs.size();) {
+					PackageRef packageName = refs.get(i);
+					List<Element> list = new ArrayList<Element>();
+					for (Clazz c : exported.get(packageName))
+						list.add(classElement(c));
+					elements.put(packageName, list);
+				}
+				return null;
+			}
+		};
+
+		//
+		// The current thread is one of the workers
+		//
+
+		int threads = Math.min(analyzer.getParallelThreads(), refs.size());
+		List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+		for (int t = 1; t < threads; t++) {
+			FutureTask<Object> task = new FutureTask<Object>(worker);
+			Processor.getExecutor().execute(task);
+			tasks.add(task);
+		}
+		FutureTask<Object> self = new FutureTask<Object>(worker);
+		self.run();
+		tasks.add(self);
+		for (FutureTask<Object> task : tasks)
+			get(task);
+
+		packages = new MultiMap<PackageRef,Element>();
+		for (PackageRef packageName : refs)
+			packages.addAll(packageName, elements.get(packageName));
 	}
 
 	static Element getAPI(Analyzer analyzer) throws Exception {
@@ -169,10 +213,23 @@ class JavaElement {
 	 * @throws Exception
 	 */
 	Element classElement(final Clazz clazz) throws Exception {
-		Element e = cache.get(clazz);
-		if (e != null)
-			return e;
+		FutureTask<Element> task = cache.get(clazz);
+		if (task == null) {
+			FutureTask<Element> calculate = new FutureTask<Element>(new Callable<Element>() {
+				public Element call() throws Exception {
+					return calculateClassElement(clazz);
+				}
+			});
+			task = cache.putIfAbsent(clazz, calculate);
+			if (task == null) {
+				task = calculate;
+				task.run();
+			}
+		}
+		return get(task);
+	}
 
+	private Element calculateClassElement(final Clazz clazz) throws Exception {
 		final StringBuilder comment = new StringBuilder();
 		final Set<Element> members = new LinkedHashSet<Element>();
 		final Set<MethodDef> methods = new LinkedHashSet<MethodDef>();
@@ -191,14 +248,6 @@ class JavaElement {
 		boolean p = matchers != null && matchers.matches(shortName);
 		final AtomicBoolean provider = new AtomicBoolean(p);
 
-		//
-		// Check if we already had this clazz in the cache
-		//
-
-		Element before = cache.get(clazz); // for super classes
-		if (before != null)
-			return before;
-
 		clazz.parseClassFileWithCollector(new ClassDataCollector() {
 			boolean			memberEnd;
 			Clazz.FieldDef	last;
@@ -249,7 +298,7 @@ class JavaElement {
 				if (!clazz.isInterface())
 					comment = inherit(members, name);
 
-				Clazz c = analyzer.findClass(name);
+				Clazz c = findClass(name);
 				if ((c == null || c.isPublic()) && !name.isObject())
 					members.add(new Element(Type.EXTENDS, name.getFQN(), null, MICRO, MAJOR, comment));
 			}
@@ -279,7 +328,7 @@ class JavaElement {
 			public String inherit(final Set<Element> members, TypeRef name) throws Exception {
 				if (name.isObject()) {
 					if (OBJECT.isEmpty()) {
-						Clazz c = analyzer.findClass(name);
+						Clazz c = findClass(name);
 						Element s = classElement(c);
 						for (Element child : s.children) {
 							if (INHERITED.contains(child.type)) {
@@ -297,7 +346,7 @@ class JavaElement {
 					members.addAll(OBJECT);
 				} else {
 
-					Clazz c = analyzer.findClass(name);
+					Clazz c = findClass(name);
 					if (c == null) {
 						return "Cannot load " + name;
 					}
@@ -411,7 +460,7 @@ class JavaElement {
 			@Override
 			public void innerClass(TypeRef innerClass, TypeRef outerClass, String innerName, int innerClassAccessFlags)
 					throws Exception {
-				Clazz clazz = analyzer.findClass(innerClass);
+				Clazz clazz = findClass(innerClass);
 				if (clazz != null)
 					clazz.setInnerAccess(innerClassAccessFlags);
 
@@ -628,9 +677,36 @@ class JavaElement {
 		access(members, clazz.getAccess(), clazz.isDeprecated());
 
 		// And make the result
-		Element s = new Element(type, fqn, members, MINOR, MAJOR, comment.length() == 0 ? null : comment.toString());
-		cache.put(clazz, s);
-		return s;
+		return new Element(type, fqn, members, MINOR, MAJOR, comment.length() == 0 ? null : comment.toString());
+	}
+
+	/**
+	 * Find a class in the analyzer. The analyzer is not thread safe, the
+	 * classes that are found are remembered so the lock is only needed the
+	 * first time.
+	 */
+	Clazz findClass(TypeRef name) throws Exception {
+		Clazz c = classes.get(name);
+		if (c != null)
+			return c;
+
+		synchronized (classes) {
+			c = analyzer.findClass(name);
+		}
+		if (c != null)
+			classes.putIfAbsent(name, c);
+		return c;
+	}
+
+	private static <T> T get(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
 	}
 
 	private String toString(TypeRef[] prototype) {
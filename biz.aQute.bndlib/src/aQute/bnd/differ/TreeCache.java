@@ -0,0 +1,147 @@
+package aQute.bnd.differ;
+
+import java.io.*;
+
+import aQute.bnd.service.diff.*;
+import aQute.bnd.service.diff.Tree.Data;
+import aQute.libg.cryptography.*;
+
+/**
+ * A persistent cache of diff trees. A tree is stored in its own file under a
+ * SHA-1 key, the {@link DiffPluginImpl} uses the digest of the JAR file and
+ * the ignore instructions as key. A released JAR never changes so its tree
+ * has to be calculated only once, baselining against it is then only the
+ * diff.
+ * <p>
+ * A file that cannot be read, for example because it was written by another
+ * version, is deleted and the tree is calculated again.
+ */
+public class TreeCache {
+	/*
+	 * Must be changed when the tree or the format of the file changes
+	 */
+	final static int	VERSION	= 1;
+	final static int	MAGIC	= 0xBDDF0000 + VERSION;
+
+	final File			dir;
+
+	public TreeCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Answer the tree stored under the key.
+	 *
+	 * @return the tree or null if it is not in the cache
+	 */
+	public Tree get(SHA1 key) {
+		File file = getFile(key);
+		if (!file.isFile())
+			return null;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC)
+					throw new IOException("Not a tree cache file " + file);
+				return new Element(read(in));
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (Exception e) {
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store the tree under the key. The file is written under a temporary
+	 * name and then renamed so other processes never see a partial tree.
+	 */
+	public void put(SHA1 key, Tree tree) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create directory for tree cache " + dir);
+
+		File tmp = File.createTempFile("tree", ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				write(out, tree.serialize());
+			}
+			finally {
+				out.close();
+			}
+			File file = getFile(key);
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				tmp.renameTo(file);
+			}
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	File getFile(SHA1 key) {
+		return new File(dir, key.asHex() + ".tree");
+	}
+
+	static void write(DataOutputStream out, Data data) throws IOException {
+		out.writeUTF(data.type.name());
+		writeString(out, data.name);
+		out.writeUTF(data.add.name());
+		out.writeUTF(data.rem.name());
+		out.writeBoolean(data.comment != null);
+		if (data.comment != null)
+			writeString(out, data.comment);
+
+		int n = data.children == null ? 0 : data.children.length;
+		out.writeInt(n);
+		for (int i = 0; i < n; i++)
+			write(out, data.children[i]);
+	}
+
+	static Data read(DataInputStream in) throws IOException {
+		Data data = new Data();
+		data.type = Type.valueOf(in.readUTF());
+		data.name = readString(in);
+		data.add = Delta.valueOf(in.readUTF());
+		data.rem = Delta.valueOf(in.readUTF());
+		if (in.readBoolean())
+			data.comment = readString(in);
+
+		int n = in.readInt();
+		if (n > 0) {
+			data.children = new Data[n];
+			for (int i = 0; i < n; i++)
+				data.children[i] = read(in);
+		}
+		return data;
+	}
+
+	/*
+	 * writeUTF is limited to 64k, a header value can be longer
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid string length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	@Override
+	public String toString() {
+		return "TreeCache[" + dir + "]";
+	}
+}
@@ -116,10 +116,41 @@ public class Attrs implements Map<String,String> {
 	public static final Pattern	TYPED		= Pattern.compile("\\s*(" + EXTENDED + ")\\s*:\\s*(" + SCALAR + "|" + LIST
 													+ ")\\s*");
 
-	private Map<String,String>	map;
-	private Map<String,Type>	types;
-	static Map<String,String>	EMPTY		= Collections.emptyMap();
-	public static Attrs			EMPTY_ATTRS	= new Attrs();
+	/*
+	 * The parser returns the attributes in a compact and immutable form: flat
+	 * arrays that are shared by the copies of the attributes. The first
+	 * modification turns them into the mutable maps.
+	 */
+	private static class Compact {
+		final String[]	keys;
+		final String[]	values;
+		final Type[]	types;
+
+		Compact(String[] keys, String[] values, Type[] types) {
+			this.keys = keys;
+			this.values = values;
+			this.types = types;
+		}
+
+		int indexOf(String key) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i].equals(key))
+					return i;
+			}
+			return -1;
+		}
+	}
+
+	private final static int		KEYS			= 0;
+	private final static int		VALUES			= 1;
+	private final static int		ENTRIES			= 2;
+	private final static Compact	EMPTY_COMPACT	= new Compact(new String[0], new String[0], null);
+
+	private Compact					compact;
+	private Map<String,String>		map;
+	private Map<String,Type>		types;
+	static Map<String,String>		EMPTY			= Collections.emptyMap();
+	public static Attrs				EMPTY_ATTRS		= new Attrs();
 	static {
 		EMPTY_ATTRS.map = Collections.emptyMap();
 	}
@@ -129,11 +160,90 @@ public class Attrs implements Map<String,String> {
 	public Attrs(Attrs... attrs) {
 		for (Attrs a : attrs) {
 			if (a != null) {
+				if (a.compact != null) {
+					if (compact == null && map == null && types == null) {
+						compact = a.compact;
+						continue;
+					}
+					putAll(a);
+					for (int i = 0; a.compact.types != null && i < a.compact.keys.length; i++) {
+						if (a.compact.types[i] != null) {
+							if (types == null)
+								types = new LinkedHashMap<String,Type>();
+							types.put(a.compact.keys[i], a.compact.types[i]);
+						}
+					}
+					continue;
+				}
 				putAll(a);
-				if (a.types != null)
+				if (a.types != null) {
+					if (types == null)
+						types = new LinkedHashMap<String,Type>();
 					types.putAll(a.types);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Turn the attributes into their compact form. Keys are interned, they
+	 * come from a small set like version and resolution:.
+	 */
+	void compact() {
+		if (compact != null || map == EMPTY_ATTRS.map)
+			return;
+
+		if (map == null || map.isEmpty()) {
+			if (types == null || types.isEmpty()) {
+				map = null;
+				types = null;
+				compact = EMPTY_COMPACT;
 			}
+			return;
+		}
+
+		//
+		// A removed key keeps its type in the mutable form
+		//
+		if (types != null && !map.keySet().containsAll(types.keySet()))
+			return;
+
+		int n = map.size();
+		String[] keys = new String[n];
+		String[] values = new String[n];
+		Type[] typed = types == null || types.isEmpty() ? null : new Type[n];
+		int i = 0;
+		for (Map.Entry<String,String> e : map.entrySet()) {
+			keys[i] = e.getKey().intern();
+			values[i] = e.getValue();
+			if (typed != null)
+				typed[i] = types.get(e.getKey());
+			i++;
 		}
+		compact = new Compact(keys, values, typed);
+		map = null;
+		types = null;
+	}
+
+	/*
+	 * Answer the mutable map, a compact form is copied into the maps first
+	 */
+	private Map<String,String> mutable() {
+		if (compact != null) {
+			Compact c = compact;
+			compact = null;
+			map = new LinkedHashMap<String,String>();
+			for (int i = 0; i < c.keys.length; i++) {
+				map.put(c.keys[i], c.values[i]);
+				if (c.types != null && c.types[i] != null) {
+					if (types == null)
+						types = new LinkedHashMap<String,Type>();
+					types.put(c.keys[i], c.types[i]);
+				}
+			}
+		} else if (map == null)
+			map = new LinkedHashMap<String,String>();
+		return map;
 	}
 
 	public void putAllTyped(Map<String,Object> attrs) {
@@ -211,10 +321,13 @@ public class Attrs implements Map<String,String> {
 	}
 
 	public void clear() {
-		map.clear();
+		mutable().clear();
 	}
 
 	public boolean containsKey(String name) {
+		if (compact != null)
+			return compact.indexOf(name) >= 0;
+
 		if (map == null)
 			return false;
 
@@ -225,13 +338,18 @@ public class Attrs implements Map<String,String> {
 	@Deprecated
 	public boolean containsKey(Object name) {
 		assert name instanceof String;
-		if (map == null)
-			return false;
-
-		return map.containsKey((String) name);
+		return containsKey((String) name);
 	}
 
 	public boolean containsValue(String value) {
+		if (compact != null) {
+			for (String v : compact.values) {
+				if (v == null ? value == null : v.equals(value))
+					return true;
+			}
+			return false;
+		}
+
 		if (map == null)
 			return false;
 
@@ -242,13 +360,13 @@ public class Attrs implements Map<String,String> {
 	@Deprecated
 	public boolean containsValue(Object value) {
 		assert value instanceof String;
-		if (map == null)
-			return false;
-
-		return map.containsValue((String) value);
+		return containsValue((String) value);
 	}
 
 	public Set<java.util.Map.Entry<String,String>> entrySet() {
+		if (compact != null)
+			return new View<java.util.Map.Entry<String,String>>(ENTRIES);
+
 		if (map == null)
 			return EMPTY.entrySet();
 
@@ -259,13 +377,15 @@ public class Attrs implements Map<String,String> {
 	@Deprecated
 	public String get(Object key) {
 		assert key instanceof String;
-		if (map == null)
-			return null;
-
-		return map.get((String) key);
+		return get((String) key);
 	}
 
 	public String get(String key) {
+		if (compact != null) {
+			int i = compact.indexOf(key);
+			return i < 0 ? null : compact.values[i];
+		}
+
 		if (map == null)
 			return null;
 
@@ -280,10 +400,16 @@ public class Attrs implements Map<String,String> {
 	}
 
 	public boolean isEmpty() {
+		if (compact != null)
+			return compact.keys.length == 0;
+
 		return map == null || map.isEmpty();
 	}
 
 	public Set<String> keySet() {
+		if (compact != null)
+			return new View<String>(KEYS);
+
 		if (map == null)
 			return EMPTY.keySet();
 
@@ -294,8 +420,15 @@ public class Attrs implements Map<String,String> {
 		if (key == null)
 			return null;
 
-		if (map == null)
-			map = new LinkedHashMap<String,String>();
+		mutable();
+
+		//
+		// A typed key has a type after the colon, most keys are
+		// plain attributes or directives
+		//
+		int colon = key.indexOf(':');
+		if (colon < 0 || colon == key.length() - 1)
+			return map.put(key, value);
 
 		Matcher m = TYPED.matcher(key);
 		if (m.matches()) {
@@ -334,14 +467,28 @@ public class Attrs implements Map<String,String> {
 	}
 
 	public Type getType(String key) {
-		if (types == null)
-			return Type.STRING;
-		Type t = types.get(key);
+		Type t = type(key);
 		if (t == null)
 			return Type.STRING;
 		return t;
 	}
 
+	/*
+	 * The explicit type of the key or null
+	 */
+	private Type type(String key) {
+		if (compact != null) {
+			if (compact.types == null)
+				return null;
+			int i = compact.indexOf(key);
+			return i < 0 ? null : compact.types[i];
+		}
+
+		if (types == null)
+			return null;
+		return types.get(key);
+	}
+
 	public void putAll(Map< ? extends String, ? extends String> map) {
 		for (Map.Entry< ? extends String, ? extends String> e : map.entrySet())
 			put(e.getKey(), e.getValue());
@@ -351,31 +498,125 @@ public class Attrs implements Map<String,String> {
 	@Deprecated
 	public String remove(Object var0) {
 		assert var0 instanceof String;
-		if (map == null)
-			return null;
-
-		return map.remove((String) var0);
+		return remove((String) var0);
 	}
 
 	public String remove(String var0) {
+		if (compact != null) {
+			if (compact.indexOf(var0) < 0)
+				return null;
+			mutable();
+		}
+
 		if (map == null)
 			return null;
 		return map.remove(var0);
 	}
 
 	public int size() {
+		if (compact != null)
+			return compact.keys.length;
+
 		if (map == null)
 			return 0;
 		return map.size();
 	}
 
 	public Collection<String> values() {
+		if (compact != null)
+			return new AbstractCollection<String>() {
+				@Override
+				public Iterator<String> iterator() {
+					return Attrs.this.iterator(VALUES);
+				}
+
+				@Override
+				public int size() {
+					return Attrs.this.size();
+				}
+			};
+
 		if (map == null)
 			return EMPTY.values();
 
 		return map.values();
 	}
 
+	/*
+	 * The views on the compact form stay valid when the attributes become
+	 * mutable, a removal through a view makes them mutable.
+	 */
+	private class View<T> extends AbstractSet<T> {
+		final int	kind;
+
+		View(int kind) {
+			this.kind = kind;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return Attrs.this.iterator(kind);
+		}
+
+		@Override
+		public int size() {
+			return Attrs.this.size();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Iterator<T> iterator(final int kind) {
+		if (compact == null) {
+			Map<String,String> m = map == null ? EMPTY : map;
+			switch (kind) {
+				case KEYS :
+					return (Iterator<T>) m.keySet().iterator();
+				case VALUES :
+					return (Iterator<T>) m.values().iterator();
+				default :
+					return (Iterator<T>) m.entrySet().iterator();
+			}
+		}
+
+		final Compact c = compact;
+		return new Iterator<T>() {
+			int	next;
+
+			public boolean hasNext() {
+				return next < c.keys.length;
+			}
+
+			public T next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				int i = next++;
+				switch (kind) {
+					case KEYS :
+						return (T) c.keys[i];
+					case VALUES :
+						return (T) c.values[i];
+					default :
+						return (T) new AbstractMap.SimpleEntry<String,String>(c.keys[i], c.values[i]) {
+							private static final long	serialVersionUID	= 1L;
+
+							@Override
+							public String setValue(String value) {
+								put(getKey(), value);
+								return super.setValue(value);
+							}
+						};
+				}
+			}
+
+			public void remove() {
+				if (next == 0)
+					throw new IllegalStateException();
+				Attrs.this.remove(c.keys[next - 1]);
+			}
+		};
+	}
+
 	public String getVersion() {
 		return get("version");
 	}
@@ -394,11 +635,9 @@ public class Attrs implements Map<String,String> {
 				sb.append(del);
 				sb.append(e.getKey());
 
-				if (types != null) {
-					Type type = types.get(e.getKey());
-					if (type != null) {
-						sb.append(":").append(type);
-					}
+				Type type = type(e.getKey());
+				if (type != null) {
+					sb.append(":").append(type);
 				}
 				sb.append("=");
 				Processor.quote(sb, e.getValue());
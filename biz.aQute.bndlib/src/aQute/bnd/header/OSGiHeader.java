@@ -7,6 +7,25 @@ import aQute.libg.qtokens.*;
 import aQute.service.reporter.*;
 
 public class OSGiHeader {
+	final static int						MAX_CACHED	= 1000;
+
+	/*
+	 * The same headers are parsed over and over, e.g. the Import-Package of a
+	 * bundle by the analyzer, the verifier and the resolver. A header that
+	 * parses without any warning or error is cached, callers get a copy since
+	 * Parameters and Attrs are mutable.
+	 */
+	final static Map<String,Parameters>	cache		= Collections
+																.synchronizedMap(new LinkedHashMap<String,Parameters>(
+																		16, 0.75f, true) {
+																	private static final long	serialVersionUID	= 1L;
+
+																	@Override
+																	protected boolean removeEldestEntry(
+																			Map.Entry<String,Parameters> eldest) {
+																		return size() > MAX_CACHED;
+																	}
+																});
 
 	static public Parameters parseHeader(String value) {
 		return parseHeader(value, null);
@@ -30,6 +49,53 @@ public class OSGiHeader {
 		if (value == null || value.trim().length() == 0)
 			return result;
 
+		//
+		// Duplicate names depend on what is already in the result
+		// so we can only use the cache for an empty result
+		//
+
+		if (!result.isEmpty()) {
+			parse(value, logger, result);
+			return result;
+		}
+
+		Parameters cached = cache.get(value);
+		if (cached != null) {
+			copy(cached, result);
+			return result;
+		}
+
+		if (parse(value, logger, result)) {
+			cached = new Parameters();
+			copy(result, cached);
+			cache.put(value, cached);
+		}
+		return result;
+	}
+
+	/*
+	 * Copy the clauses, aliases (a;b;version=1) share their attributes
+	 */
+	private static void copy(Parameters from, Parameters to) {
+		Map<Attrs,Attrs> copies = new IdentityHashMap<Attrs,Attrs>();
+		for (Map.Entry<String,Attrs> entry : from.entrySet()) {
+			Attrs attrs = copies.get(entry.getValue());
+			if (attrs == null) {
+				attrs = new Attrs(entry.getValue());
+				copies.put(entry.getValue(), attrs);
+			}
+			to.put(entry.getKey(), attrs);
+		}
+	}
+
+	/**
+	 * Parse the header into the result.
+	 *
+	 * @return true if the header was parsed without any warning or error, even
+	 *         in pedantic mode
+	 */
+	private static boolean parse(String value, Reporter logger, Parameters result) {
+		boolean clean = true;
 		QuotedTokenizer qt = new QuotedTokenizer(value, ";=,");
 		char del = 0;
 		do {
@@ -40,6 +106,7 @@ public class OSGiHeader {
 
 			del = qt.getSeparator();
 			if (name == null || name.length() == 0) {
+				clean = false;
 				if (logger != null && logger.isPedantic()) {
 					logger.warning("Empty clause, usually caused by repeating a comma without any name field or by having spaces after the backslash of a property file: "
 							+ value);
@@ -53,22 +120,26 @@ public class OSGiHeader {
 				while (del == ';') {
 					String adname = qt.nextToken();
 					if ((del = qt.getSeparator()) != '=') {
-						if (hadAttribute)
+						if (hadAttribute) {
+							clean = false;
 							if (logger != null) {
 								logger.error("Header contains name field after attribute or directive: " + adname
 										+ " from " + value
 										+ ". Name fields must be consecutive, separated by a ';' like a;b;c;x=3;y=4");
 							}
+						}
 						if (adname != null && adname.length() > 0)
 							aliases.add(adname.trim());
 					} else {
 						String advalue = qt.nextToken();
 						if (clause.containsKey(adname)) {
+							clean = false;
 							if (logger != null && logger.isPedantic())
 								logger.warning("Duplicate attribute/directive name " + adname + " in " + value
 										+ ". This attribute/directive will be ignored");
 						}
 						if (advalue == null) {
+							clean = false;
 							if (logger != null)
 								logger.error("No value after '=' sign for attribute " + adname);
 							advalue = "";
@@ -79,11 +150,14 @@ public class OSGiHeader {
 					}
 				}
 
+				clause.compact();
+
 				// Check for duplicate names. The aliases list contains
 				// the list of nams, for each check if it exists. If so,
 				// add a number of "~" to make it unique.
 				for (String clauseName : aliases) {
 					if (result.containsKey(clauseName)) {
+						clean = false;
 						if (logger != null && logger.isPedantic())
 							logger.warning("Duplicate name "
 									+ clauseName
@@ -97,7 +171,7 @@ public class OSGiHeader {
 				}
 			}
 		} while (del == ',');
-		return result;
+		return clean;
 	}
 
 	public static Attrs parseProperties(String input) {
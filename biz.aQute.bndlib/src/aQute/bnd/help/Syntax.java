@@ -401,6 +401,14 @@ public class Syntax implements Constants {
 					INCLUDERESOURCE,
 					"Include resources from the file system. You can specify a directory, or file. All files are copied to the root, unless a destination directory is indicated.",
 					INCLUDERESOURCE + ": lib=jar", null, null),
+			new Syntax(
+					INCREMENTAL,
+					"Reuse the bundle of the previous project build when its content, instructions and classpath did not change. The previous analysis is kept in a snapshot file next to the bundle.",
+					INCREMENTAL + "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
+			new Syntax(
+					STALEDIGEST,
+					"Use the content digests of the inputs of a project, recorded at its last build, instead of time stamps to decide if the project must be built again.",
+					STALEDIGEST + "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
 
 			new Syntax(
 					MAKE,
@@ -415,12 +423,25 @@ public class Syntax implements Constants {
 			new Syntax(NOEXTRAHEADERS, "Do not generate housekeeping headers.", NOEXTRAHEADERS + "=true", "true,false",
 					Verifier.TRUEORFALSEPATTERN),
 
+			new Syntax(NOCLAZZCACHE,
+					"Do not keep the analysis of classes in the workspace cache, every class is parsed on every build.",
+					NOCLAZZCACHE + "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
+
 			new Syntax(NOUSES, "Do not calculate the " + USES_DIRECTIVE + " directive on exports.", NOUSES + "=true",
 					"true,false", Verifier.TRUEORFALSEPATTERN),
 
 			new Syntax(NOEE,
 					"Do not calculate the osgi.ee name space Execution Environment from the class file version", NOEE
 							+ "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
+			new Syntax(PARALLEL_ANALYSIS, "Parse the classes of a JAR in parallel. The result is identical to the sequential analysis.",
+					PARALLEL_ANALYSIS + "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
+
+			new Syntax(PARALLEL_THREADS, "The number of threads used for work that runs in parallel, defaults to the number of processors.",
+					PARALLEL_THREADS + "=8", null, Verifier.NUMBERPATTERN),
+
+			new Syntax(PARALLEL_WRITE, "Deflate the entries of the generated JARs in parallel when they are written.",
+					PARALLEL_WRITE + "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
+
 			new Syntax(PEDANTIC, "Warn about things that are not really wrong but still not right.",
 					PEDANTIC + "=true", "true,false", Verifier.TRUEORFALSEPATTERN),
 
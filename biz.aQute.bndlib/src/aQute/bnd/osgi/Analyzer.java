@@ -23,9 +23,11 @@ import static aQute.libg.generics.Create.*;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
 import java.text.*;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import java.util.jar.Attributes.Name;
 import java.util.regex.*;
@@ -73,7 +75,7 @@ public class Analyzer extends Processor {
 																					true);
 	private final Contracts							contracts				= new Contracts(this);
 	private final Packages							classpathExports		= new Packages();
-	private final Descriptors						descriptors				= new Descriptors();
+	private volatile Descriptors					descriptors;
 	private final List<Jar>							classpath				= list();
 	private final Map<TypeRef,Clazz>				classspace				= map();
 	private final Map<TypeRef,Clazz>				importedClassesCache	= map();
@@ -1101,6 +1103,18 @@ public class Analyzer extends Processor {
 		return imports;
 	}
 
+	/**
+	 * Use the outcome of an earlier analysis of the same content instead of
+	 * analyzing the JAR.
+	 */
+	protected void setAnalysis(Packages exports, Packages imports, Packages contained) {
+		this.exports = exports;
+		this.imports = imports;
+		this.contained.clear();
+		this.contained.putAll(contained);
+		analyzed = true;
+	}
+
 	public Set<PackageRef> getPrivates() {
 		HashSet<PackageRef> privates = new HashSet<PackageRef>(contained.keySet());
 		privates.removeAll(exports.keySet());
@@ -2169,6 +2183,16 @@ public class Analyzer extends Processor {
 	private boolean analyzeJar(Jar jar, String prefix, boolean okToIncludeDirs) throws Exception {
 		Map<String,Clazz> mismatched = new HashMap<String,Clazz>();
 
+		//
+		// When parallel analysis is enabled the classes are parsed
+		// up front, the results are then merged in the same order
+		// as the sequential analysis so the output is identical.
+		//
+		ClazzCache cache = getPlugin(ClazzCache.class);
+		Map<String,Object> parsed = null;
+		if (isTrue(getProperty(PARALLEL_ANALYSIS)))
+			parsed = parseClasses(jar, prefix, getParallelThreads(), cache);
+
 		next: for (String path : jar.getResources().keySet()) {
 			if (path.startsWith(prefix)) {
 
@@ -2190,14 +2214,13 @@ public class Analyzer extends Processor {
 					Clazz clazz;
 
 					try {
-						InputStream in = resource.openInputStream();
-						clazz = new Clazz(this, path, resource);
-						try {
-							clazz.parseClassFile();
-						}
-						finally {
-							in.close();
-						}
+						if (parsed != null) {
+							Object result = parsed.get(path);
+							if (result instanceof Throwable)
+								throw (Throwable) result;
+							clazz = (Clazz) result;
+						} else
+							clazz = parseClass(path, resource, cache);
 					}
 					catch (Throwable e) {
 						error("Invalid class file %s (%s)", e, relativePath, e);
@@ -2233,6 +2256,9 @@ public class Analyzer extends Processor {
 			}
 		}
 
+		if (cache != null)
+			cache.flush();
+
 		if (mismatched.size() > 0) {
 			error("Classes found in the wrong directory: %s", mismatched);
 			return false;
@@ -2240,6 +2266,70 @@ public class Analyzer extends Processor {
 		return true;
 	}
 
+	/**
+	 * Parse a class resource. If there is a {@link ClazzCache} the analysis is
+	 * looked up with the digest of the class bytes before the class is parsed.
+	 */
+	private Clazz parseClass(String path, Resource resource, ClazzCache cache) throws Exception {
+		Clazz clazz = new Clazz(this, path, resource);
+		if (cache == null) {
+			clazz.parseClassFile();
+			return clazz;
+		}
+
+		byte[] data = IO.read(resource.openInputStream());
+		SHA1 digest = SHA1.digest(data);
+		if (!cache.load(digest, clazz)) {
+			clazz.parseClassFile(ByteBuffer.wrap(data), null);
+			cache.store(digest, clazz);
+		}
+		return clazz;
+	}
+
+	/**
+	 * Parse the classes in the jar concurrently. The classes are divided over a
+	 * number of tasks on the shared executor, the Descriptors caches are safe
+	 * for concurrent use.
+	 * 
+	 * @return a map from path to the parsed Clazz or to the Throwable thrown
+	 *         while parsing
+	 */
+	private Map<String,Object> parseClasses(Jar jar, String prefix, final int threads, final ClazzCache cache)
+			throws Exception {
+		final List<String> paths = new ArrayList<String>();
+		final List<Resource> resources = new ArrayList<Resource>();
+		for (Map.Entry<String,Resource> entry : jar.getResources().entrySet()) {
+			String path = entry.getKey();
+			if (path.startsWith(prefix) && path.endsWith(".class")) {
+				paths.add(path);
+				resources.add(entry.getValue());
+			}
+		}
+
+		final Map<String,Object> parsed = new ConcurrentHashMap<String,Object>();
+		List<Future< ? >> tasks = new ArrayList<Future< ? >>();
+		for (int t = 0; t < threads; t++) {
+			final int start = t;
+			tasks.add(executor.submit(new Runnable() {
+				public void run() {
+					for (int i = start; i < paths.size(); i += threads) {
+						String path = paths.get(i);
+						try {
+							parsed.put(path, parseClass(path, resources.get(i), cache));
+						}
+						catch (Throwable e) {
+							parsed.put(path, e);
+						}
+					}
+				}
+			}));
+		}
+		for (Future< ? > task : tasks)
+			task.get();
+
+		return parsed;
+	}
+
 	/**
 	 * Clean up version parameters. Other builders use more fuzzy definitions of
 	 * the version syntax. This method cleans up such a version to match an OSGi
@@ -2493,8 +2583,7 @@ public class Analyzer extends Processor {
 				r = new URLResource(url);
 		}
 		if (r != null) {
-			c = new Clazz(this, typeRef.getPath(), r);
-			c.parseClassFile();
+			c = parseClass(typeRef.getPath(), r, getPlugin(ClazzCache.class));
 			importedClassesCache.put(typeRef, c);
 		}
 		return c;
@@ -2523,7 +2612,7 @@ public class Analyzer extends Processor {
 	}
 
 	public void referToByBinaryName(String binaryClassName) {
-		TypeRef ref = descriptors.getTypeRef(binaryClassName);
+		TypeRef ref = getDescriptors().getTypeRef(binaryClassName);
 		referTo(ref);
 	}
 
@@ -2594,24 +2683,48 @@ public class Analyzer extends Processor {
 		return Base64.encodeBase64(digester.digest().digest());
 	}
 
+	/**
+	 * Answer the descriptors that intern the refs of this analyzer. A
+	 * {@link Descriptors} plugin of a parent, e.g. the one of the workspace, is
+	 * shared so that the analyzers of a workspace use the same refs. Our own
+	 * plugins are not used, they might not be set up yet.
+	 */
+	Descriptors getDescriptors() {
+		Descriptors d = descriptors;
+		if (d == null) {
+			synchronized (this) {
+				d = descriptors;
+				if (d == null) {
+					Processor parent = getParent();
+					if (parent != null)
+						d = parent.getPlugin(Descriptors.class);
+					if (d == null)
+						d = new Descriptors();
+					descriptors = d;
+				}
+			}
+		}
+		return d;
+	}
+
 	public Descriptor getDescriptor(String descriptor) {
-		return descriptors.getDescriptor(descriptor);
+		return getDescriptors().getDescriptor(descriptor);
 	}
 
 	public TypeRef getTypeRef(String binaryClassName) {
-		return descriptors.getTypeRef(binaryClassName);
+		return getDescriptors().getTypeRef(binaryClassName);
 	}
 
 	public PackageRef getPackageRef(String binaryName) {
-		return descriptors.getPackageRef(binaryName);
+		return getDescriptors().getPackageRef(binaryName);
 	}
 
 	public TypeRef getTypeRefFromFQN(String fqn) {
-		return descriptors.getTypeRefFromFQN(fqn);
+		return getDescriptors().getTypeRefFromFQN(fqn);
 	}
 
 	public TypeRef getTypeRefFromPath(String path) {
-		return descriptors.getTypeRefFromPath(path);
+		return getDescriptors().getTypeRefFromPath(path);
 	}
 
 	public boolean isImported(PackageRef packageRef) {
@@ -2657,30 +2770,39 @@ public class Analyzer extends Processor {
 		if (nomatch == null)
 			nomatch = Create.set();
 
-		for (Instruction instruction : filters) {
-			boolean match = false;
+		//
+		// A package can only match the first instruction that matches it, the
+		// packages are merged in the order of the instructions
+		//
 
-			for (Iterator<PackageRef> i = refs.iterator(); i.hasNext();) {
-				PackageRef packageRef = i.next();
+		Map<Instruction,List<PackageRef>> matched = new HashMap<Instruction,List<PackageRef>>();
+		for (PackageRef packageRef : refs) {
+			if (packageRef.isMetaData())
+				continue;
 
-				if (packageRef.isMetaData()) {
-					i.remove(); // no use checking it again
-					continue;
+			Instruction instruction = instructions.matcher(packageRef.getFQN());
+			if (instruction != null) {
+				List<PackageRef> list = matched.get(instruction);
+				if (list == null) {
+					list = new ArrayList<PackageRef>();
+					matched.put(instruction, list);
 				}
+				list.add(packageRef);
+			}
+		}
 
-				String packageName = packageRef.getFQN();
-
-				if (instruction.matches(packageName)) {
-					match = true;
-					if (!instruction.isNegated()) {
-						result.merge(packageRef, instruction.isDuplicate(), source.get(packageRef),
-								instructions.get(instruction));
-					}
-					i.remove(); // Can never match again for another pattern
-				}
+		for (Instruction instruction : filters) {
+			List<PackageRef> list = matched.get(instruction);
+			if (list == null) {
+				if (!instruction.isAny())
+					nomatch.add(instruction);
+				continue;
+			}
+			if (!instruction.isNegated()) {
+				for (PackageRef packageRef : list)
+					result.merge(packageRef, instruction.isDuplicate(), source.get(packageRef),
+							instructions.get(instruction));
 			}
-			if (!match && !instruction.isAny())
-				nomatch.add(instruction);
 		}
 
 		/*
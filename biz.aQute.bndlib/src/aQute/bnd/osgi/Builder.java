@@ -61,6 +61,8 @@ public class Builder extends Analyzer {
 			error("Specified " + CONDUIT + " but calls build() instead of builds() (might be a programmer error");
 
 		Jar dot = new Jar("dot");
+		if (isTrue(getProperty(PARALLEL_WRITE)))
+			dot.setWriteThreads(getParallelThreads());
 		try {
 			long modified = Long.parseLong(getProperty("base.modified"));
 			dot.updateModified(modified, "Base modified");
@@ -74,6 +76,19 @@ public class Builder extends Analyzer {
 		doIncludeResources(dot);
 		doWab(dot);
 
+		// A subclass can know a previous build of the same
+		// content, then there is no need to analyze again.
+		// The outputs of the build are still made since they
+		// can be gone or stale, and the diff and the baseline
+		// compare with other JARs that can have changed since
+		Jar previous = doReuse(dot);
+		if (previous != null) {
+			setJar(previous);
+			dot.close();
+			doOutputs(previous);
+			return previous;
+		}
+
 		// Check if we override the calculation of the
 		// manifest. We still need to calculated it because
 		// we need to have analyzed the classpath.
@@ -134,6 +149,14 @@ public class Builder extends Analyzer {
 		doDigests(dot);
 
 		sign(dot);
+		doOutputs(dot);
+		return dot;
+	}
+
+	/**
+	 * Save the manifest, diff, baseline and expand the built JAR.
+	 */
+	private void doOutputs(Jar dot) throws Exception {
 		doSaveManifest(dot);
 
 		doDiff(dot); // check if need to diff this bundle
@@ -145,7 +168,19 @@ public class Builder extends Analyzer {
 			out.mkdirs();
 			dot.expand(out);
 		}
-		return dot;
+	}
+
+	/**
+	 * Answer the result of a previous build of this bundle if nothing that goes
+	 * into the bundle was changed since. The default does not reuse builds.
+	 * 
+	 * @param dot
+	 *            the content collected for the bundle, not yet analyzed
+	 * @return a previously built JAR or null
+	 * @throws Exception
+	 */
+	protected Jar doReuse(@SuppressWarnings("unused") Jar dot) throws Exception {
+		return null;
 	}
 
 	/**
@@ -0,0 +1,154 @@
+package aQute.bnd.osgi;
+
+import java.io.*;
+import java.nio.channels.*;
+
+/**
+ * Reads the central directory of a ZIP file record by record. The end of
+ * central directory record is used to find the central directory. The name of
+ * a record is only read when it is asked for, the rest of the record is
+ * skipped when the next record is read.
+ * <p>
+ * ZIP64 archives are not supported, {@link #open(RandomAccessFile)} returns
+ * null for them.
+ */
+class CentralDirectory {
+	final static int				LOCAL_HEADER	= 0x04034b50;
+	final static int				CENTRAL_HEADER	= 0x02014b50;
+	final static int				END_HEADER		= 0x06054b50;
+
+	final int						entries;
+	final DataInputStream			in;
+	final byte[]					header			= new byte[46];
+	int								index;
+	int								remaining;
+	boolean							corrupt;
+
+	private CentralDirectory(RandomAccessFile file, int entries, long offset) throws IOException {
+		this.entries = entries;
+		file.seek(offset);
+		this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+	}
+
+	/**
+	 * Find the central directory of a ZIP file.
+	 *
+	 * @return a reader positioned before the first record or null if there is
+	 *         no end of central directory record or the file is a ZIP64 file
+	 */
+	static CentralDirectory open(RandomAccessFile file) throws IOException {
+		long length = file.length();
+		int tail = (int) Math.min(length, 22 + 0xFFFF);
+		byte[] buffer = new byte[tail];
+		file.seek(length - tail);
+		file.readFully(buffer);
+
+		int end = tail - 22;
+		while (end >= 0 && getInt(buffer, end) != END_HEADER)
+			end--;
+		if (end < 0)
+			return null;
+
+		int entries = getShort(buffer, end + 10);
+		long offset = getInt(buffer, end + 16) & 0xFFFFFFFFL;
+		if (entries == 0xFFFF || offset == 0xFFFFFFFFL || offset >= length)
+			return null;
+
+		return new CentralDirectory(file, entries, offset);
+	}
+
+	/**
+	 * Read the next record.
+	 *
+	 * @return false when there are no more records or the record is not a
+	 *         central directory record, {@link #corrupt} is then set
+	 */
+	boolean next() throws IOException {
+		if (index == entries)
+			return false;
+
+		skip(remaining);
+		in.readFully(header);
+		if (getInt(header, 0) != CENTRAL_HEADER) {
+			corrupt = true;
+			return false;
+		}
+		remaining = getNameLength() + getShort(header, 30) + getShort(header, 32);
+		index++;
+		return true;
+	}
+
+	int getNameLength() {
+		return getShort(header, 28);
+	}
+
+	/**
+	 * Read the name of the current record. Can only be called once per record.
+	 */
+	byte[] getName() throws IOException {
+		byte[] name = new byte[getNameLength()];
+		in.readFully(name);
+		remaining -= name.length;
+		return name;
+	}
+
+	boolean isEncrypted() {
+		return (getShort(header, 8) & 1) != 0;
+	}
+
+	int getMethod() {
+		return getShort(header, 10);
+	}
+
+	long getCompressedSize() {
+		return getInt(header, 20) & 0xFFFFFFFFL;
+	}
+
+	long getSize() {
+		return getInt(header, 24) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return the offset of the local header or 0xFFFFFFFF if it is in a
+	 *         ZIP64 extra field
+	 */
+	long getOffset() {
+		return getInt(header, 42) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Find the start of the data of an entry from its local header.
+	 *
+	 * @return the offset of the data or -1 if there is no local header at the
+	 *         given offset
+	 */
+	static long getDataOffset(RandomAccessFile file, long offset) throws IOException {
+		if (offset + 30 > file.length())
+			return -1;
+
+		byte[] local = new byte[30];
+		file.seek(offset);
+		file.readFully(local);
+		if (getInt(local, 0) != LOCAL_HEADER)
+			return -1;
+
+		return offset + 30 + getShort(local, 26) + getShort(local, 28);
+	}
+
+	private void skip(int n) throws IOException {
+		while (n > 0) {
+			int skipped = in.skipBytes(n);
+			if (skipped <= 0)
+				throw new EOFException();
+			n -= skipped;
+		}
+	}
+
+	static int getShort(byte[] b, int n) {
+		return (b[n] & 0xFF) | ((b[n + 1] & 0xFF) << 8);
+	}
+
+	static int getInt(byte[] b, int n) {
+		return (b[n] & 0xFF) | ((b[n + 1] & 0xFF) << 8) | ((b[n + 2] & 0xFF) << 16) | ((b[n + 3] & 0xFF) << 24);
+	}
+}
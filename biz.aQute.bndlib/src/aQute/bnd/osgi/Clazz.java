@@ -5,11 +5,13 @@ import java.lang.annotation.*;
 import java.lang.reflect.*;
 import java.nio.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import aQute.bnd.osgi.Descriptors.Descriptor;
 import aQute.bnd.osgi.Descriptors.PackageRef;
 import aQute.bnd.osgi.Descriptors.TypeRef;
+import aQute.lib.io.*;
 import aQute.lib.utf8properties.*;
 import aQute.libg.generics.*;
 
@@ -17,6 +19,21 @@ public class Clazz {
 
 	static Pattern	METHOD_DESCRIPTOR	= Pattern.compile("(.*)\\)(.+)");
 
+	/*
+	 * The deprecated protected methods that subclasses could override to see
+	 * the constant pool, see hasPoolHooks
+	 */
+	final static Set<String>				POOL_HOOKS	= new HashSet<String>(Arrays.asList("pool", "nameAndType",
+																"constantClass", "constantDouble", "constantLong",
+																"constantUtf8"));
+	final static Map<Class< ? >,Boolean>	poolHooks	= new ConcurrentHashMap<Class< ? >,Boolean>();
+
+	/**
+	 * @deprecated The constant pool only holds ClassConstant objects when it
+	 *             is decoded through the pool hooks, see
+	 *             {@link Clazz#pool(Object[], int[])}
+	 */
+	@Deprecated
 	public class ClassConstant {
 		int				cname;
 		public boolean	referred;
@@ -26,7 +43,7 @@ public class Clazz {
 		}
 
 		public String getName() {
-			return (String) pool[cname];
+			return utf8(cname);
 		}
 
 		public String toString() {
@@ -131,6 +148,112 @@ public class Clazz {
 
 	}
 
+	/**
+	 * A DataInput over a ByteBuffer. The class file is parsed from memory so
+	 * there is no need for the synchronization and copying of the stream
+	 * classes. Reading past the end throws an {@link EOFException}, like the
+	 * {@link DataInputStream} does.
+	 */
+	static class ByteBufferDataInput implements DataInput {
+		final ByteBuffer	bb;
+
+		ByteBufferDataInput(ByteBuffer bb) {
+			this.bb = bb;
+		}
+
+		public void readFully(byte[] b) throws IOException {
+			readFully(b, 0, b.length);
+		}
+
+		public void readFully(byte[] b, int off, int len) throws IOException {
+			require(len);
+			bb.get(b, off, len);
+		}
+
+		public int skipBytes(int n) {
+			if (n <= 0)
+				return 0;
+			n = Math.min(n, bb.remaining());
+			bb.position(bb.position() + n);
+			return n;
+		}
+
+		public boolean readBoolean() throws IOException {
+			return readByte() != 0;
+		}
+
+		public byte readByte() throws IOException {
+			require(1);
+			return bb.get();
+		}
+
+		public int readUnsignedByte() throws IOException {
+			return 0xFF & readByte();
+		}
+
+		public short readShort() throws IOException {
+			require(2);
+			return bb.getShort();
+		}
+
+		public int readUnsignedShort() throws IOException {
+			return 0xFFFF & readShort();
+		}
+
+		public char readChar() throws IOException {
+			require(2);
+			return bb.getChar();
+		}
+
+		public int readInt() throws IOException {
+			require(4);
+			return bb.getInt();
+		}
+
+		public long readLong() throws IOException {
+			require(8);
+			return bb.getLong();
+		}
+
+		public float readFloat() throws IOException {
+			require(4);
+			return bb.getFloat();
+		}
+
+		public double readDouble() throws IOException {
+			require(8);
+			return bb.getDouble();
+		}
+
+		public String readLine() {
+			if (!bb.hasRemaining())
+				return null;
+
+			StringBuilder sb = new StringBuilder();
+			while (bb.hasRemaining()) {
+				char c = (char) (0xFF & bb.get());
+				if (c == '\n')
+					break;
+				if (c == '\r') {
+					if (bb.hasRemaining() && bb.get(bb.position()) == '\n')
+						bb.get();
+					break;
+				}
+				sb.append(c);
+			}
+			return sb.toString();
+		}
+
+		public String readUTF() throws IOException {
+			return DataInputStream.readUTF(this);
+		}
+
+		private void require(int n) throws EOFException {
+			if (bb.remaining() < n)
+				throw new EOFException();
+		}
+	}
+
 	public final static EnumSet<QUERY>	HAS_ARGUMENT	= EnumSet.of(QUERY.IMPLEMENTS, QUERY.EXTENDS, QUERY.IMPORTS,
 																QUERY.NAMED, QUERY.VERSION, QUERY.ANNOTATED);
 
@@ -177,6 +300,12 @@ public class Clazz {
 	final static int					ACC_ANNOTATION	= 0x2000;
 	final static int					ACC_ENUM		= 0x4000;
 
+	/**
+	 * @deprecated The constant pool only holds Assoc objects when it is
+	 *             decoded through the pool hooks, see
+	 *             {@link Clazz#pool(Object[], int[])}
+	 */
+	@Deprecated
 	static protected class Assoc {
 		Assoc(byte tag, int a, int b) {
 			this.tag = tag;
@@ -442,8 +571,20 @@ public class Clazz {
 	boolean									hasDefaultConstructor;
 
 	TypeRef									className;
+
+	/*
+	 * The constant pool is not decoded up front. We only record the tag and
+	 * the offset of each entry in the class bytes and decode the entries
+	 * (utf8 strings, numeric constants) into pool when they are asked for.
+	 * The intPool holds the indexes of class and string constants and the
+	 * values of integer constants since these are cheap to read.
+	 */
+	ByteBuffer								data;
+	byte									poolTag[];
+	int										poolOffset[];
 	Object									pool[];
 	int										intPool[];
+	boolean									referred[];
 	Set<PackageRef>							imports			= Create.set();
 	String									path;
 	int										minor			= 0;
@@ -492,18 +633,27 @@ public class Clazz {
 	}
 
 	public Set<TypeRef> parseClassFile(InputStream in, ClassDataCollector cd) throws Exception {
-		DataInputStream din = new DataInputStream(in);
+		return parseClassFile(ByteBuffer.wrap(IO.read(in)), cd);
+	}
+
+	/**
+	 * Parse the class file in the given buffer. The buffer is read from its
+	 * current position, it is not modified.
+	 */
+	public Set<TypeRef> parseClassFile(ByteBuffer data, ClassDataCollector cd) throws Exception {
 		try {
 			this.cd = cd;
-			return parseClassFile(din);
+			return parseClassFile(data.slice());
 		}
 		finally {
-			cd = null;
-			din.close();
+			this.cd = null;
 		}
 	}
 
-	Set<TypeRef> parseClassFile(DataInputStream in) throws Exception {
+	Set<TypeRef> parseClassFile(ByteBuffer data) throws Exception {
+		this.data = data;
+		data.order(ByteOrder.BIG_ENDIAN);
+		DataInput in = new ByteBufferDataInput(data);
 		xref = new HashSet<TypeRef>();
 
 		boolean crawl = cd != null; // Crawl the byte code if we have a
@@ -517,56 +667,40 @@ public class Clazz {
 		if (cd != null)
 			cd.version(minor, major);
 		int count = in.readUnsignedShort();
+		poolTag = new byte[count];
+		poolOffset = new int[count];
 		pool = new Object[count];
 		intPool = new int[count];
+		referred = new boolean[count];
 
 		process: for (int poolIndex = 1; poolIndex < count; poolIndex++) {
 			byte tag = in.readByte();
+			poolTag[poolIndex] = tag;
+			poolOffset[poolIndex] = data.position();
 			switch (tag) {
 				case 0 :
 					break process;
 				case 1 :
-					constantUtf8(in, poolIndex);
+					// CONSTANT_Utf8, decoded on demand
+					in.skipBytes(in.readUnsignedShort());
 					break;
 
 				case 3 :
-					constantInteger(in, poolIndex);
-					break;
-
-				case 4 :
-					constantFloat(in, poolIndex);
+					intPool[poolIndex] = in.readInt();
 					break;
 
 				// For some insane optimization reason are
 				// the long and the double two entries in the
 				// constant pool. See 4.4.5
 				case 5 :
-					constantLong(in, poolIndex);
-					poolIndex++;
-					break;
-
 				case 6 :
-					constantDouble(in, poolIndex);
+					in.skipBytes(8);
 					poolIndex++;
 					break;
 
-				case 7 :
-					constantClass(in, poolIndex);
-					break;
-
-				case 8 :
-					constantString(in, poolIndex);
-					break;
-
-				case 9 : // Field ref
-				case 10 : // Method ref
-				case 11 : // Interface Method ref
-					ref(in, poolIndex);
-					break;
-
-				// Name and Type
-				case 12 :
-					nameAndType(in, poolIndex, tag);
+				case 7 : // Class, holds the class name index
+				case 8 : // String, holds the string index
+					intPool[poolIndex] = in.readUnsignedShort();
 					break;
 
 				case 18 : // TODO Invoke dynamic
@@ -582,30 +716,25 @@ public class Clazz {
 			}
 		}
 
-		pool(pool, intPool);
+		if (count > 1 && hasPoolHooks(getClass())) {
+			decodePool(count);
+			pool(pool, intPool);
+		}
 
 		// All name& type and class constant records contain descriptors we must
 		// treat
 		// as references, though not API
-		int index = -1;
-		for (Object o : pool) {
-			index++;
-			if (o == null)
-				continue;
+		for (int index = 1; index < count; index++) {
+			switch (poolTag[index]) {
+				case 9 :
+				case 10 :
+				case 11 :
+					classConstRef(u2(poolOffset[index]));
+					break;
 
-			if (o instanceof Assoc) {
-				Assoc assoc = (Assoc) o;
-				switch (assoc.tag) {
-					case 9 :
-					case 10 :
-					case 11 :
-						classConstRef(assoc.a);
-						break;
-
-					case 12 :
-						referTo(assoc.b, 0); // Descriptor
-						break;
-				}
+				case 12 :
+					referTo(u2(poolOffset[index] + 2), 0); // Descriptor
+					break;
 			}
 		}
 
@@ -615,14 +744,9 @@ public class Clazz {
 		// is not referenced by fieldrefs, method refs, or other
 		// refs then we need to crawl the byte code.
 		//
-		index = -1;
-		for (Object o : pool) {
-			index++;
-			if (o instanceof ClassConstant) {
-				ClassConstant cc = (ClassConstant) o;
-				if (cc.referred == false)
-					detectLdc = true;
-			}
+		for (int index = 1; index < count; index++) {
+			if (poolTag[index] == 7 && !referred[index])
+				detectLdc = true;
 		}
 
 		/*
@@ -635,7 +759,7 @@ public class Clazz {
 			api = new HashSet<PackageRef>();
 
 		int this_class = in.readUnsignedShort();
-		className = analyzer.getTypeRef((String) pool[intPool[this_class]]);
+		className = analyzer.getTypeRef(classConstantName(this_class));
 		referTo(className, Modifier.PUBLIC);
 
 		try {
@@ -646,7 +770,7 @@ public class Clazz {
 			}
 
 			int super_class = in.readUnsignedShort();
-			String superName = (String) pool[intPool[super_class]];
+			String superName = classConstantName(super_class);
 			if (superName != null) {
 				zuper = analyzer.getTypeRef(superName);
 			}
@@ -661,7 +785,7 @@ public class Clazz {
 			if (interfacesCount > 0) {
 				interfaces = new TypeRef[interfacesCount];
 				for (int i = 0; i < interfacesCount; i++) {
-					interfaces[i] = analyzer.getTypeRef((String) pool[intPool[in.readUnsignedShort()]]);
+					interfaces[i] = analyzer.getTypeRef(classConstantName(in.readUnsignedShort()));
 					referTo(interfaces[i], accessx);
 				}
 				if (cd != null)
@@ -684,12 +808,12 @@ public class Clazz {
 				// class name for the field type, so bnd
 				// would not see a reference. We detect
 				// this case and add an artificial descriptor
-				String name = pool[name_index].toString(); // name_index
+				String name = utf8(name_index); // name_index
 				if (name.startsWith("class$") || name.startsWith("$class$")) {
 					crawl = true;
 				}
 				if (cd != null)
-					cd.field(last = new FieldDef(access_flags, name, pool[descriptor_index].toString()));
+					cd.field(last = new FieldDef(access_flags, name, utf8(descriptor_index)));
 
 				referTo(descriptor_index, access_flags);
 				doAttributes(in, ElementType.FIELD, false, access_flags);
@@ -730,8 +854,8 @@ public class Clazz {
 				int access_flags = in.readUnsignedShort();
 				int name_index = in.readUnsignedShort();
 				int descriptor_index = in.readUnsignedShort();
-				String name = pool[name_index].toString();
-				String descriptor = pool[descriptor_index].toString();
+				String name = utf8(name_index);
+				String descriptor = utf8(descriptor_index);
 				MethodDef mdef = null;
 				if (cd != null) {
 					mdef = new MethodDef(access_flags, name, descriptor);
@@ -769,27 +893,21 @@ public class Clazz {
 		}
 	}
 
-	private void constantFloat(DataInputStream in, int poolIndex) throws IOException {
-		if (cd != null)
-			pool[poolIndex] = in.readFloat(); // ALU
-		else
-			in.skipBytes(4);
-	}
-
-	private void constantInteger(DataInputStream in, int poolIndex) throws IOException {
-		intPool[poolIndex] = in.readInt();
-		if (cd != null)
-			pool[poolIndex] = intPool[poolIndex];
-	}
-
+	/**
+	 * Called after the constant pool is scanned. Only called for subclasses
+	 * that override one of the pool hooks, the pool is then decoded up front
+	 * through the hooks.
+	 * 
+	 * @deprecated The pool entries are decoded when they are first asked for,
+	 *             overriding the pool hooks disables this.
+	 */
+	@Deprecated
 	protected void pool(@SuppressWarnings("unused") Object[] pool, @SuppressWarnings("unused") int[] intPool) {}
 
 	/**
-	 * @param in
-	 * @param poolIndex
-	 * @param tag
-	 * @throws IOException
+	 * @deprecated See {@link #pool(Object[], int[])}
 	 */
+	@Deprecated
 	protected void nameAndType(DataInputStream in, int poolIndex, byte tag) throws IOException {
 		int name_index = in.readUnsignedShort();
 		int descriptor_index = in.readUnsignedShort();
@@ -797,32 +915,9 @@ public class Clazz {
 	}
 
 	/**
-	 * @param in
-	 * @param poolIndex
-	 * @param tag
-	 * @throws IOException
-	 */
-	private void ref(DataInputStream in, int poolIndex) throws IOException {
-		int class_index = in.readUnsignedShort();
-		int name_and_type_index = in.readUnsignedShort();
-		pool[poolIndex] = new Assoc((byte) 10, class_index, name_and_type_index);
-	}
-
-	/**
-	 * @param in
-	 * @param poolIndex
-	 * @throws IOException
-	 */
-	private void constantString(DataInputStream in, int poolIndex) throws IOException {
-		int string_index = in.readUnsignedShort();
-		intPool[poolIndex] = string_index;
-	}
-
-	/**
-	 * @param in
-	 * @param poolIndex
-	 * @throws IOException
+	 * @deprecated See {@link #pool(Object[], int[])}
 	 */
+	@Deprecated
 	protected void constantClass(DataInputStream in, int poolIndex) throws IOException {
 		int class_index = in.readUnsignedShort();
 		intPool[poolIndex] = class_index;
@@ -831,9 +926,9 @@ public class Clazz {
 	}
 
 	/**
-	 * @param in
-	 * @throws IOException
+	 * @deprecated See {@link #pool(Object[], int[])}
 	 */
+	@Deprecated
 	protected void constantDouble(DataInputStream in, int poolIndex) throws IOException {
 		if (cd != null)
 			pool[poolIndex] = in.readDouble();
@@ -842,9 +937,9 @@ public class Clazz {
 	}
 
 	/**
-	 * @param in
-	 * @throws IOException
+	 * @deprecated See {@link #pool(Object[], int[])}
 	 */
+	@Deprecated
 	protected void constantLong(DataInputStream in, int poolIndex) throws IOException {
 		if (cd != null) {
 			pool[poolIndex] = in.readLong();
@@ -853,10 +948,9 @@ public class Clazz {
 	}
 
 	/**
-	 * @param in
-	 * @param poolIndex
-	 * @throws IOException
+	 * @deprecated See {@link #pool(Object[], int[])}
 	 */
+	@Deprecated
 	protected void constantUtf8(DataInputStream in, int poolIndex) throws IOException {
 		// CONSTANT_Utf8
 
@@ -864,6 +958,202 @@ public class Clazz {
 		pool[poolIndex] = name;
 	}
 
+	/**
+	 * Decode the whole constant pool through the deprecated hooks, in the
+	 * same way as the pool was decoded before it was parsed lazily.
+	 */
+	@SuppressWarnings("deprecation")
+	private void decodePool(int count) throws IOException {
+		int start = poolOffset[1] - 1;
+		byte[] bytes = new byte[data.position() - start];
+		ByteBuffer bb = data.duplicate();
+		bb.position(start);
+		bb.get(bytes);
+
+		for (int poolIndex = 1; poolIndex < count; poolIndex++) {
+			byte tag = poolTag[poolIndex];
+			int offset = poolOffset[poolIndex];
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, offset - start, bytes.length));
+			switch (tag) {
+				case 1 :
+					constantUtf8(in, poolIndex);
+					break;
+
+				case 3 :
+					if (cd != null)
+						pool[poolIndex] = intPool[poolIndex];
+					break;
+
+				case 4 :
+					if (cd != null)
+						pool[poolIndex] = data.getFloat(offset);
+					break;
+
+				case 5 :
+					constantLong(in, poolIndex);
+					break;
+
+				case 6 :
+					constantDouble(in, poolIndex);
+					break;
+
+				case 7 :
+					constantClass(in, poolIndex);
+					break;
+
+				case 9 : // Field ref
+				case 10 : // Method ref
+				case 11 : // Interface Method ref
+					pool[poolIndex] = new Assoc((byte) 10, u2(offset), u2(offset + 2));
+					break;
+
+				case 12 :
+					nameAndType(in, poolIndex, tag);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Answer if the class overrides one of the deprecated pool hooks. The
+	 * answer is cached per class.
+	 */
+	static boolean hasPoolHooks(Class< ? > c) {
+		Boolean hooks = poolHooks.get(c);
+		if (hooks == null) {
+			hooks = false;
+			for (Class< ? > type = c; !hooks && type != Clazz.class; type = type.getSuperclass()) {
+				for (Method m : type.getDeclaredMethods()) {
+					if (POOL_HOOKS.contains(m.getName()) && !Modifier.isStatic(m.getModifiers()))
+						hooks = true;
+				}
+			}
+			poolHooks.put(c, hooks);
+		}
+		return hooks;
+	}
+
+	/**
+	 * Read an unsigned short from the class bytes at the given offset.
+	 */
+	private int u2(int offset) {
+		return 0xFFFF & data.getShort(offset);
+	}
+
+	/**
+	 * Answer if the pool entry is a field, method, or interface method ref.
+	 * These all have a class index and a name and type index.
+	 */
+	private boolean isRef(int poolIndex) {
+		byte tag = poolTag[poolIndex];
+		return tag == 9 || tag == 10 || tag == 11;
+	}
+
+	/**
+	 * Answer the CONSTANT_Utf8 at the given pool index. The string is decoded
+	 * from the class bytes the first time it is asked for.
+	 * 
+	 * @param poolIndex
+	 * @return the string or null if the entry is not a CONSTANT_Utf8
+	 */
+	String utf8(int poolIndex) {
+		if (poolTag[poolIndex] != 1)
+			return null;
+
+		String s = (String) pool[poolIndex];
+		if (s == null)
+			pool[poolIndex] = s = decodeUtf8(poolOffset[poolIndex]);
+		return s;
+	}
+
+	/**
+	 * Answer the binary name of the CONSTANT_Class at the given pool index.
+	 */
+	String classConstantName(int poolIndex) {
+		return utf8(intPool[poolIndex]);
+	}
+
+	/**
+	 * Answer the value of a constant, used for constant values of fields and
+	 * annotation elements. CONSTANT_String entries are resolved to their
+	 * string.
+	 * 
+	 * @param poolIndex
+	 * @return the boxed value or null if the entry is not a constant
+	 */
+	Object constant(int poolIndex) {
+		byte tag = poolTag[poolIndex];
+		if (tag == 1)
+			return utf8(poolIndex);
+		if (tag == 8)
+			return utf8(intPool[poolIndex]);
+		if (tag < 3 || tag > 6)
+			return null;
+
+		Object o = pool[poolIndex];
+		if (o != null)
+			return o;
+
+		int offset = poolOffset[poolIndex];
+		switch (tag) {
+			case 3 :
+				o = intPool[poolIndex];
+				break;
+			case 4 :
+				o = data.getFloat(offset);
+				break;
+			case 5 :
+				o = data.getLong(offset);
+				break;
+			case 6 :
+				o = data.getDouble(offset);
+				break;
+			default :
+				return null;
+		}
+		return pool[poolIndex] = o;
+	}
+
+	/**
+	 * Decode a modified UTF-8 string as used in class files, see 4.4.7. The
+	 * offset points to the length of the string.
+	 */
+	private String decodeUtf8(int offset) {
+		int length = u2(offset);
+		char[] chars = new char[length];
+		int n = 0;
+		int rover = offset + 2;
+		int end = rover + length;
+		while (rover < end) {
+			int c = 0xFF & data.get(rover++);
+			switch (c >> 4) {
+				case 0 :
+				case 1 :
+				case 2 :
+				case 3 :
+				case 4 :
+				case 5 :
+				case 6 :
+				case 7 :
+					chars[n++] = (char) c;
+					break;
+
+				case 12 :
+				case 13 :
+					chars[n++] = (char) (((c & 0x1F) << 6) | (data.get(rover++) & 0x3F));
+					break;
+
+				case 14 :
+					chars[n++] = (char) (((c & 0x0F) << 12) | ((data.get(rover++) & 0x3F) << 6) | (data.get(rover++) & 0x3F));
+					break;
+
+				default :
+					throw new IllegalArgumentException("Invalid class file, malformed utf8 constant at " + offset);
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
 	/**
 	 * Find a method reference in the pool that points to the given class,
 	 * methodname and descriptor.
@@ -874,24 +1164,18 @@ public class Clazz {
 	 * @return index in constant pool
 	 */
 	private int findMethodReference(String clazz, String methodname, String descriptor) {
-		for (int i = 1; i < pool.length; i++) {
-			if (pool[i] instanceof Assoc) {
-				Assoc methodref = (Assoc) pool[i];
-				if (methodref.tag == 10) {
-					// Method ref
-					int class_index = methodref.a;
-					int class_name_index = intPool[class_index];
-					if (clazz.equals(pool[class_name_index])) {
-						int name_and_type_index = methodref.b;
-						Assoc name_and_type = (Assoc) pool[name_and_type_index];
-						if (name_and_type.tag == 12) {
-							// Name and Type
-							int name_index = name_and_type.a;
-							int type_index = name_and_type.b;
-							if (methodname.equals(pool[name_index])) {
-								if (descriptor.equals(pool[type_index])) {
-									return i;
-								}
+		for (int i = 1; i < poolTag.length; i++) {
+			if (isRef(i)) {
+				// Method ref
+				int offset = poolOffset[i];
+				if (clazz.equals(classConstantName(u2(offset)))) {
+					int name_and_type_index = u2(offset + 2);
+					if (poolTag[name_and_type_index] == 12) {
+						// Name and Type
+						int nameAndType = poolOffset[name_and_type_index];
+						if (methodname.equals(utf8(u2(nameAndType)))) {
+							if (descriptor.equals(utf8(u2(nameAndType + 2)))) {
+								return i;
 							}
 						}
 					}
@@ -909,7 +1193,7 @@ public class Clazz {
 	 * @param access_flags
 	 * @throws Exception
 	 */
-	private void doAttributes(DataInputStream in, ElementType member, boolean crawl, int access_flags) throws Exception {
+	private void doAttributes(DataInput in, ElementType member, boolean crawl, int access_flags) throws Exception {
 		int attributesCount = in.readUnsignedShort();
 		for (int j = 0; j < attributesCount; j++) {
 			// skip name CONSTANT_Utf8 pointer
@@ -925,9 +1209,9 @@ public class Clazz {
 	 * @param access_flags
 	 * @throws Exception
 	 */
-	private void doAttribute(DataInputStream in, ElementType member, boolean crawl, int access_flags) throws Exception {
+	private void doAttribute(DataInput in, ElementType member, boolean crawl, int access_flags) throws Exception {
 		int attribute_name_index = in.readUnsignedShort();
-		String attributeName = (String) pool[attribute_name_index];
+		String attributeName = utf8(attribute_name_index);
 		long attribute_length = in.readInt();
 		attribute_length &= 0xFFFFFFFF;
 		if ("Deprecated".equals(attributeName)) {
@@ -986,22 +1270,21 @@ public class Clazz {
 	 * @param in
 	 * @throws IOException
 	 */
-	private void doEnclosingMethod(DataInputStream in) throws IOException {
+	private void doEnclosingMethod(DataInput in) throws IOException {
 		int cIndex = in.readShort();
 		int mIndex = in.readShort();
 		classConstRef(cIndex);
 
 		if (cd != null) {
-			int nameIndex = intPool[cIndex];
-			TypeRef cName = analyzer.getTypeRef((String) pool[nameIndex]);
+			TypeRef cName = analyzer.getTypeRef(classConstantName(cIndex));
 
 			String mName = null;
 			String mDescriptor = null;
 
 			if (mIndex != 0) {
-				Assoc nameAndType = (Assoc) pool[mIndex];
-				mName = (String) pool[nameAndType.a];
-				mDescriptor = (String) pool[nameAndType.b];
+				int nameAndType = poolOffset[mIndex];
+				mName = utf8(u2(nameAndType));
+				mDescriptor = utf8(u2(nameAndType + 2));
 			}
 			cd.enclosingMethod(cName, mName, mDescriptor);
 		}
@@ -1024,7 +1307,7 @@ public class Clazz {
 	 * @param in
 	 * @throws Exception
 	 */
-	private void doInnerClasses(DataInputStream in) throws Exception {
+	private void doInnerClasses(DataInput in) throws Exception {
 		int number_of_classes = in.readShort();
 		for (int i = 0; i < number_of_classes; i++) {
 			int inner_class_info_index = in.readShort();
@@ -1038,17 +1321,15 @@ public class Clazz {
 				String innerName = null;
 
 				if (inner_class_info_index != 0) {
-					int nameIndex = intPool[inner_class_info_index];
-					innerClass = analyzer.getTypeRef((String) pool[nameIndex]);
+					innerClass = analyzer.getTypeRef(classConstantName(inner_class_info_index));
 				}
 
 				if (outer_class_info_index != 0) {
-					int nameIndex = intPool[outer_class_info_index];
-					outerClass = analyzer.getTypeRef((String) pool[nameIndex]);
+					outerClass = analyzer.getTypeRef(classConstantName(outer_class_info_index));
 				}
 
 				if (inner_name_index != 0)
-					innerName = (String) pool[inner_name_index];
+					innerName = utf8(inner_name_index);
 
 				cd.innerClass(innerClass, outerClass, innerName, inner_class_access_flags);
 			}
@@ -1070,9 +1351,9 @@ public class Clazz {
 	 * @param access_flags
 	 */
 
-	void doSignature(DataInputStream in, ElementType member, int access_flags) throws IOException {
+	void doSignature(DataInput in, ElementType member, int access_flags) throws IOException {
 		int signature_index = in.readUnsignedShort();
-		String signature = (String) pool[signature_index];
+		String signature = utf8(signature_index);
 		try {
 
 			parseDescriptor(signature, access_flags);
@@ -1094,25 +1375,21 @@ public class Clazz {
 	/**
 	 * Handle a constant value call the data collector with it
 	 */
-	void doConstantValue(DataInputStream in) throws IOException {
+	void doConstantValue(DataInput in) throws IOException {
 		int constantValue_index = in.readUnsignedShort();
 		if (cd == null)
 			return;
 
-		Object object = pool[constantValue_index];
-		if (object == null)
-			object = pool[intPool[constantValue_index]];
-
+		Object object = constant(constantValue_index);
 		last.constant = object;
 		cd.constant(object);
 	}
 
-	void doExceptions(DataInputStream in, int access_flags) throws IOException {
+	void doExceptions(DataInput in, int access_flags) throws IOException {
 		int exception_count = in.readUnsignedShort();
 		for (int i = 0; i < exception_count; i++) {
 			int index = in.readUnsignedShort();
-			ClassConstant cc = (ClassConstant) pool[index];
-			TypeRef clazz = analyzer.getTypeRef(cc.getName());
+			TypeRef clazz = analyzer.getTypeRef(classConstantName(index));
 			referTo(clazz, access_flags);
 		}
 	}
@@ -1141,12 +1418,15 @@ public class Clazz {
 	 * @param pool
 	 * @throws Exception
 	 */
-	private void doCode(DataInputStream in) throws Exception {
+	private void doCode(DataInput in) throws Exception {
 		/* int max_stack = */in.readUnsignedShort();
 		/* int max_locals = */in.readUnsignedShort();
 		int code_length = in.readInt();
-		byte code[] = new byte[code_length];
-		in.readFully(code);
+		if (code_length < 0 || code_length > data.remaining())
+			throw new EOFException();
+		ByteBuffer code = data.slice();
+		code.limit(code_length);
+		in.skipBytes(code_length);
 		crawl(code);
 		int exception_table_length = in.readUnsignedShort();
 		for (int i = 0; i < exception_table_length; i++) {
@@ -1165,7 +1445,10 @@ public class Clazz {
 	 * @param code
 	 */
 	protected void crawl(byte[] code) {
-		ByteBuffer bb = ByteBuffer.wrap(code);
+		crawl(ByteBuffer.wrap(code));
+	}
+
+	private void crawl(ByteBuffer bb) {
 		bb.order(ByteOrder.BIG_ENDIAN);
 		int lastReference = -1;
 
@@ -1229,8 +1512,8 @@ public class Clazz {
 						getMethodDef(0, methodref);
 
 					if ((methodref == forName || methodref == class$) && lastReference != -1
-							&& pool[intPool[lastReference]] instanceof String) {
-						String fqn = (String) pool[intPool[lastReference]];
+							&& (poolTag[lastReference] == 7 || poolTag[lastReference] == 8)) {
+						String fqn = utf8(intPool[lastReference]);
 						if (!fqn.equals("class") && fqn.indexOf('.') > 0) {
 							TypeRef clazz = analyzer.getTypeRefFromFQN(fqn);
 							referTo(clazz, 0);
@@ -1289,12 +1572,12 @@ public class Clazz {
 		}
 	}
 
-	private void doSourceFile(DataInputStream in) throws IOException {
+	private void doSourceFile(DataInput in) throws IOException {
 		int sourcefile_index = in.readUnsignedShort();
-		this.sourceFile = pool[sourcefile_index].toString();
+		this.sourceFile = utf8(sourcefile_index);
 	}
 
-	private void doParameterAnnotations(DataInputStream in, ElementType member, RetentionPolicy policy, int access_flags)
+	private void doParameterAnnotations(DataInput in, ElementType member, RetentionPolicy policy, int access_flags)
 			throws Exception {
 		int num_parameters = in.readUnsignedByte();
 		for (int p = 0; p < num_parameters; p++) {
@@ -1304,7 +1587,7 @@ public class Clazz {
 		}
 	}
 
-	private void doTypeAnnotations(DataInputStream in, ElementType member, RetentionPolicy policy, int access_flags)
+	private void doTypeAnnotations(DataInput in, ElementType member, RetentionPolicy policy, int access_flags)
 			throws Exception {
 		int num_annotations = in.readUnsignedShort();
 		for (int p = 0; p < num_annotations; p++) {
@@ -1460,7 +1743,7 @@ public class Clazz {
 		}
 	}
 
-	private void doAnnotations(DataInputStream in, ElementType member, RetentionPolicy policy, int access_flags)
+	private void doAnnotations(DataInput in, ElementType member, RetentionPolicy policy, int access_flags)
 			throws Exception {
 		int num_annotations = in.readUnsignedShort(); // # of annotations
 		for (int a = 0; a < num_annotations; a++) {
@@ -1482,16 +1765,16 @@ public class Clazz {
 	// element_value_pairs[num_element_value_pairs];
 	// }
 
-	private Annotation doAnnotation(DataInputStream in, ElementType member, RetentionPolicy policy, boolean collect,
+	private Annotation doAnnotation(DataInput in, ElementType member, RetentionPolicy policy, boolean collect,
 			int access_flags) throws IOException {
 		int type_index = in.readUnsignedShort();
 		if (annotations == null)
 			annotations = new HashSet<TypeRef>();
 
-		TypeRef tr = analyzer.getTypeRef(pool[type_index].toString());
+		TypeRef tr = analyzer.getTypeRef(utf8(type_index));
 		annotations.add(tr);
 
-		TypeRef name = analyzer.getTypeRef((String) pool[type_index]);
+		TypeRef name = analyzer.getTypeRef(utf8(type_index));
 		if (policy == RetentionPolicy.RUNTIME) {
 			referTo(type_index, 0);
 			hasRuntimeAnnotations = true;
@@ -1504,7 +1787,7 @@ public class Clazz {
 		Map<String,Object> elements = null;
 		for (int v = 0; v < num_element_value_pairs; v++) {
 			int element_name_index = in.readUnsignedShort();
-			String element = (String) pool[element_name_index];
+			String element = utf8(element_name_index);
 			Object value = doElementValue(in, member, policy, collect, access_flags);
 			if (collect) {
 				if (elements == null)
@@ -1517,7 +1800,7 @@ public class Clazz {
 		return null;
 	}
 
-	private Object doElementValue(DataInputStream in, ElementType member, RetentionPolicy policy, boolean collect,
+	private Object doElementValue(DataInput in, ElementType member, RetentionPolicy policy, boolean collect,
 			int access_flags) throws IOException {
 		char tag = (char) in.readUnsignedByte();
 		switch (tag) {
@@ -1533,34 +1816,34 @@ public class Clazz {
 			case 's' : // String
 			case 'J' : // Long
 				const_value_index = in.readUnsignedShort();
-				return pool[const_value_index];
+				return constant(const_value_index);
 
 			case 'Z' : // Boolean
 				const_value_index = in.readUnsignedShort();
-				return pool[const_value_index] == null || pool[const_value_index].equals(0) ? false : true;
+				return intPool[const_value_index] != 0;
 
 			case 'e' : // enum constant
 				int type_name_index = in.readUnsignedShort();
 				if (policy == RetentionPolicy.RUNTIME) {
 					referTo(type_name_index, 0);
 					if (api != null && (Modifier.isPublic(access_flags) || Modifier.isProtected(access_flags))) {
-						TypeRef name = analyzer.getTypeRef((String) pool[type_name_index]);
+						TypeRef name = analyzer.getTypeRef(utf8(type_name_index));
 						api.add(name.getPackageRef());
 					}
 				}
 				int const_name_index = in.readUnsignedShort();
-				return pool[const_name_index];
+				return utf8(const_name_index);
 
 			case 'c' : // Class
 				int class_info_index = in.readUnsignedShort();
 				if (policy == RetentionPolicy.RUNTIME) {
 					referTo(class_info_index, 0);
 					if (api != null && (Modifier.isPublic(access_flags) || Modifier.isProtected(access_flags))) {
-						TypeRef name = analyzer.getTypeRef((String) pool[class_info_index]);
+						TypeRef name = analyzer.getTypeRef(utf8(class_info_index));
 						api.add(name.getPackageRef());
 					}
 				}
-				return pool[class_info_index];
+				return utf8(class_info_index);
 
 			case '@' : // Annotation type
 				return doAnnotation(in, member, policy, collect, access_flags);
@@ -1605,7 +1888,7 @@ public class Clazz {
 	}
 
 	void referTo(int index, int modifiers) {
-		String descriptor = (String) pool[index];
+		String descriptor = utf8(index);
 		parseDescriptor(descriptor, modifiers);
 	}
 
@@ -1778,11 +2061,105 @@ public class Clazz {
 	 */
 
 	public void reset() {
+		data = null;
+		poolTag = null;
+		poolOffset = null;
 		pool = null;
 		intPool = null;
+		referred = null;
 		xref = null;
 	}
 
+	/**
+	 * Write the result of parsing this class, this is the state that
+	 * parseClassFile() calculates without a collector. Used by the
+	 * {@link ClazzCache}.
+	 */
+	void writeAnalysis(DataOutput out) throws IOException {
+		out.writeUTF(className.getBinary());
+		out.writeShort(major);
+		out.writeShort(minor);
+		out.writeShort(accessx);
+		out.writeBoolean(hasRuntimeAnnotations);
+		out.writeBoolean(hasClassAnnotations);
+		out.writeBoolean(hasDefaultConstructor);
+		writeString(out, zuper == null ? null : zuper.getBinary());
+		writeString(out, sourceFile);
+		writeString(out, classSignature);
+
+		out.writeShort(interfaces == null ? 0 : interfaces.length);
+		if (interfaces != null)
+			for (TypeRef ref : interfaces)
+				out.writeUTF(ref.getBinary());
+
+		out.writeInt(imports.size());
+		for (PackageRef ref : imports)
+			out.writeUTF(ref.getBinary());
+
+		out.writeInt(api == null ? -1 : api.size());
+		if (api != null)
+			for (PackageRef ref : api)
+				out.writeUTF(ref.getBinary());
+
+		out.writeInt(annotations == null ? -1 : annotations.size());
+		if (annotations != null)
+			for (TypeRef ref : annotations)
+				out.writeUTF(ref.getBinary());
+	}
+
+	/**
+	 * Restore the state written by {@link #writeAnalysis(DataOutput)} instead
+	 * of parsing the class file.
+	 */
+	void readAnalysis(DataInput in) throws IOException {
+		className = analyzer.getTypeRef(in.readUTF());
+		major = in.readUnsignedShort();
+		minor = in.readUnsignedShort();
+		accessx = in.readUnsignedShort();
+		hasRuntimeAnnotations = in.readBoolean();
+		hasClassAnnotations = in.readBoolean();
+		hasDefaultConstructor = in.readBoolean();
+		String superName = readString(in);
+		zuper = superName == null ? null : analyzer.getTypeRef(superName);
+		sourceFile = readString(in);
+		classSignature = readString(in);
+
+		int n = in.readUnsignedShort();
+		if (n > 0) {
+			interfaces = new TypeRef[n];
+			for (int i = 0; i < n; i++)
+				interfaces[i] = analyzer.getTypeRef(in.readUTF());
+		}
+
+		n = in.readInt();
+		for (int i = 0; i < n; i++)
+			imports.add(analyzer.getPackageRef(in.readUTF()));
+
+		n = in.readInt();
+		if (n >= 0) {
+			api = new HashSet<PackageRef>();
+			for (int i = 0; i < n; i++)
+				api.add(analyzer.getPackageRef(in.readUTF()));
+		}
+
+		n = in.readInt();
+		if (n >= 0) {
+			annotations = new HashSet<TypeRef>();
+			for (int i = 0; i < n; i++)
+				annotations.add(analyzer.getTypeRef(in.readUTF()));
+		}
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			out.writeUTF(s);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
 	public boolean is(QUERY query, Instruction instr, Analyzer analyzer) throws Exception {
 		switch (query) {
 			case ANY :
@@ -1871,27 +2248,19 @@ public class Clazz {
 		if (methodRefPoolIndex == 0)
 			return;
 
-		Object o = pool[methodRefPoolIndex];
-		if (o != null && o instanceof Assoc) {
-			Assoc assoc = (Assoc) o;
-			if (assoc.tag == 10) {
-				int string_index = intPool[assoc.a];
-				TypeRef className = analyzer.getTypeRef((String) pool[string_index]);
-				int name_and_type_index = assoc.b;
-				Assoc name_and_type = (Assoc) pool[name_and_type_index];
-				if (name_and_type.tag == 12) {
-					// Name and Type
-					int name_index = name_and_type.a;
-					int type_index = name_and_type.b;
-					String method = (String) pool[name_index];
-					String descriptor = (String) pool[type_index];
-					cd.referenceMethod(access, className, method, descriptor);
-				} else
-					throw new IllegalArgumentException(
-							"Invalid class file (or parsing is wrong), assoc is not type + name (12)");
+		if (isRef(methodRefPoolIndex)) {
+			int offset = poolOffset[methodRefPoolIndex];
+			TypeRef className = analyzer.getTypeRef(classConstantName(u2(offset)));
+			int name_and_type_index = u2(offset + 2);
+			if (poolTag[name_and_type_index] == 12) {
+				// Name and Type
+				int nameAndType = poolOffset[name_and_type_index];
+				String method = utf8(u2(nameAndType));
+				String descriptor = utf8(u2(nameAndType + 2));
+				cd.referenceMethod(access, className, method, descriptor);
 			} else
 				throw new IllegalArgumentException(
-						"Invalid class file (or parsing is wrong), Assoc is not method ref! (10)");
+						"Invalid class file (or parsing is wrong), assoc is not type + name (12)");
 		} else
 			throw new IllegalArgumentException("Invalid class file (or parsing is wrong), Not an assoc at a method ref");
 	}
@@ -2060,22 +2429,15 @@ public class Clazz {
 	}
 
 	private void classConstRef(int lastReference) {
-		Object o = pool[lastReference];
-		if (o == null)
+		if (poolTag[lastReference] != 7 || referred[lastReference])
 			return;
 
-		if (o instanceof ClassConstant) {
-			ClassConstant cc = (ClassConstant) o;
-			if (cc.referred)
-				return;
-			cc.referred = true;
-			String name = cc.getName();
-			if (name != null) {
-				TypeRef tr = analyzer.getTypeRef(name);
-				referTo(tr, 0);
-			}
+		referred[lastReference] = true;
+		String name = classConstantName(lastReference);
+		if (name != null) {
+			TypeRef tr = analyzer.getTypeRef(name);
+			referTo(tr, 0);
 		}
-
 	}
 
 	public String getClassSignature() {
@@ -0,0 +1,260 @@
+package aQute.bnd.osgi;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import aQute.libg.cryptography.*;
+
+/**
+ * A persistent cache of the analysis of class files. The result of parsing a
+ * class (referred packages, API uses, annotations, super class, interfaces,
+ * access flags) is stored under the SHA-1 digest of the class bytes, so an
+ * unchanged class never has to be parsed again, regardless of the JAR or
+ * project it comes from.
+ * <p>
+ * The cache is a single file. It is read on first use and new entries are
+ * appended to it when the cache is flushed. A corrupt or truncated tail, for
+ * example from a killed build, is cut off before the next append. When the
+ * file would grow beyond its maximum size it is rewritten with only the
+ * entries used since the cache was opened, the other entries are then also
+ * dropped from memory.
+ */
+public class ClazzCache implements Closeable {
+	/*
+	 * Must be changed when the parser or the format of the entries changes
+	 */
+	final static int					VERSION		= 1;
+	final static int					MAGIC		= 0xBDCC0000 + VERSION;
+	final static int					MAX_ENTRY	= 0x100000;
+	final static long					MAX_SIZE	= 32 * 1024 * 1024;
+	final static int					HEADER		= 4;
+	final static int					RECORD		= 20 + 4;
+
+	final File							file;
+	final long							maxSize;
+	final ConcurrentMap<SHA1,byte[]>	entries	= new ConcurrentHashMap<SHA1,byte[]>();
+	final Set<SHA1>						used	= Collections.newSetFromMap(new ConcurrentHashMap<SHA1,Boolean>());
+	final Map<SHA1,byte[]>				added	= new LinkedHashMap<SHA1,byte[]>();
+	boolean								loaded;
+
+	/*
+	 * The end of the last valid record when the file was last read or
+	 * written, 0 if the file has no valid header
+	 */
+	long								length;
+
+	public ClazzCache(File file) {
+		this(file, MAX_SIZE);
+	}
+
+	/**
+	 * @param file
+	 *            the cache file
+	 * @param maxSize
+	 *            the size of the file above which it is compacted
+	 */
+	public ClazzCache(File file, long maxSize) {
+		this.file = file;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Fill the given Clazz from the cache.
+	 * 
+	 * @param digest
+	 *            the SHA-1 of the class bytes
+	 * @param clazz
+	 *            the clazz to fill
+	 * @return true if the cache had an entry for the digest
+	 */
+	public boolean load(SHA1 digest, Clazz clazz) throws Exception {
+		load();
+		byte[] data = entries.get(digest);
+		if (data == null)
+			return false;
+
+		used.add(digest);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		clazz.readAnalysis(in);
+		return true;
+	}
+
+	/**
+	 * Store the analysis of a parsed Clazz. The entry is written to disk on
+	 * the next flush.
+	 */
+	public void store(SHA1 digest, Clazz clazz) throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		clazz.writeAnalysis(out);
+		out.flush();
+
+		byte[] data = bout.toByteArray();
+		used.add(digest);
+		if (entries.putIfAbsent(digest, data) == null) {
+			synchronized (added) {
+				added.put(digest, data);
+			}
+		}
+	}
+
+	/**
+	 * Append the entries that were added since the last flush to the cache
+	 * file.
+	 */
+	public synchronized void flush() throws IOException {
+		Map<SHA1,byte[]> toWrite;
+		synchronized (added) {
+			if (added.isEmpty())
+				return;
+			toWrite = new LinkedHashMap<SHA1,byte[]>(added);
+			added.clear();
+		}
+
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create directory for class cache " + dir);
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		for (Map.Entry<SHA1,byte[]> e : toWrite.entrySet())
+			writeRecord(out, e.getKey(), e.getValue());
+		out.flush();
+
+		//
+		// Other processes can share the cache, the lock makes sure
+		// the header and the records are not interleaved
+		//
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileLock lock = raf.getChannel().lock();
+			try {
+				if (raf.length() != length) {
+					//
+					// Another process appended to or compacted the file, or
+					// the last record is incomplete. Find the end of the
+					// valid records again.
+					//
+					raf.seek(0);
+					length = read(Channels.newInputStream(raf.getChannel()));
+				}
+
+				if (length + bout.size() > maxSize) {
+					compact(raf);
+				} else {
+					raf.setLength(length);
+					raf.seek(length);
+					if (length == 0) {
+						raf.writeInt(MAGIC);
+						length = HEADER;
+					}
+					raf.write(bout.toByteArray());
+					length += bout.size();
+				}
+			}
+			finally {
+				lock.release();
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	public void close() throws IOException {
+		flush();
+	}
+
+	/*
+	 * Rewrite the file with the entries used since the cache was opened, up
+	 * to half the maximum size so the next builds can append again. Entries
+	 * that are not used are dropped from memory.
+	 */
+	private void compact(RandomAccessFile raf) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		out.writeInt(MAGIC);
+		for (SHA1 digest : used) {
+			byte[] data = entries.get(digest);
+			if (data == null)
+				continue;
+			if (bout.size() + RECORD + data.length > maxSize / 2)
+				break;
+			writeRecord(out, digest, data);
+		}
+		out.flush();
+
+		raf.setLength(0);
+		raf.seek(0);
+		raf.write(bout.toByteArray());
+		length = bout.size();
+
+		entries.keySet().retainAll(used);
+	}
+
+	synchronized void load() {
+		if (loaded)
+			return;
+		loaded = true;
+
+		if (!file.isFile())
+			return;
+
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				length = read(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			// corrupt cache, we just parse again
+		}
+	}
+
+	/*
+	 * Read the records of the cache file into the entries. Returns the end of
+	 * the last complete record, a corrupt or truncated record ends the file.
+	 * Returns 0 if the file was written by another version.
+	 */
+	private long read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		long offset = 0;
+		try {
+			if (in.readInt() != MAGIC)
+				return 0;
+
+			offset = HEADER;
+			byte[] digest = new byte[20];
+			while (true) {
+				in.readFully(digest);
+				int size = in.readInt();
+				if (size < 0 || size > MAX_ENTRY)
+					return offset;
+				byte[] data = new byte[size];
+				in.readFully(data);
+				entries.putIfAbsent(new SHA1(digest.clone()), data);
+				offset += RECORD + size;
+			}
+		}
+		catch (EOFException e) {
+			// end of the cache, or a truncated last entry
+			return offset;
+		}
+	}
+
+	private static void writeRecord(DataOutputStream out, SHA1 digest, byte[] data) throws IOException {
+		out.write(digest.digest());
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	@Override
+	public String toString() {
+		return "ClazzCache[" + file + "]";
+	}
+}
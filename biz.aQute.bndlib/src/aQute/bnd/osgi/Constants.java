@@ -129,6 +129,9 @@ public interface Constants {
 	String							SAVEMANIFEST								= "-savemanifest";
 	String							NAMESECTION									= "-namesection";
 	String							NOBUILDINCACHE								= "-nobuildincache";
+	String							NOCLAZZCACHE								= "-noclazzcache";
+	String							INCREMENTAL									= "-incremental";
+	String							STALEDIGEST									= "-staledigest";
 	String							NODEFAULTVERSION							= "-nodefaultversion";
 	String							NOEXTRAHEADERS								= "-noextraheaders";
 	String							NOJUNIT										= "-nojunit";
@@ -142,6 +145,9 @@ public interface Constants {
 	String							OUTPUTMASK									= "-outputmask";																																					// default
 																																																													// ${@bsn}.jar
 	String							PACKAGE										= "-package";
+	String							PARALLEL_ANALYSIS							= "-parallel-analysis";
+	String							PARALLEL_THREADS							= "-parallel-threads";
+	String							PARALLEL_WRITE								= "-parallel-write";
 	String							PACKAGE_JPM									= "jpm";
 	String							PEDANTIC									= "-pedantic";
 	String							PLUGIN										= "-plugin";
@@ -218,9 +224,10 @@ public interface Constants {
 			UNDERTEST, TESTPATH, TESTPACKAGES, NOMANIFEST, DEPLOYREPO, RELEASEREPO, SAVEMANIFEST, RUNVM,
 			RUNPROGRAMARGS, WAB, WABLIB, RUNFRAMEWORK, RUNFW, RUNTRACE, RUNBLACKLIST, TESTCONTINUOUS, SNAPSHOT,
 			NAMESECTION, DIGESTS, DSANNOTATIONS, BASELINE, BASELINEREPO, PROFILE, PACKAGE, RUNNOREFERENCES, JAVAAGENT,
-			STRICT, DIFFIGNORE, CONTRACT, NOBUILDINCACHE, EXTENSION, NOJUNIT, NOJUNITOSGI, PREPROCESSMATCHERS, UPTO,
+			STRICT, DIFFIGNORE, CONTRACT, NOBUILDINCACHE, NOCLAZZCACHE, INCREMENTAL, STALEDIGEST, EXTENSION, NOJUNIT, NOJUNITOSGI, PREPROCESSMATCHERS, UPTO,
 			INVALIDFILENAMES, FIXUPMESSAGES, PRIVATEPACKAGE, CONDITIONALPACKAGE, NOEE, OUTPUTMASK, TESTUNRESOLVED,
-			RUNJDB, RUNENV, RUNEE, EEPROFILE, RUNREQUIRES, EXPORT, GESTALT, BNDDRIVER
+			RUNJDB, RUNENV, RUNEE, EEPROFILE, RUNREQUIRES, EXPORT, GESTALT, BNDDRIVER, PARALLEL_ANALYSIS,
+			PARALLEL_THREADS, PARALLEL_WRITE
 																				};
 
 	// Ignore bundle specific headers. These bundles do not make
@@ -1,13 +1,77 @@
 package aQute.bnd.osgi;
 
+import java.lang.ref.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import aQute.libg.generics.*;
 
+/**
+ * Interns the type refs, package refs and descriptors of an analysis. The refs
+ * are compared on identity so a ref must only be created once.
+ * <p>
+ * An instance can be shared by many analyzers, e.g. the workspace registers one
+ * as a plugin so that all the (sub) builders of its projects use the same refs.
+ * The caches are concurrent since classes can be parsed in parallel and they
+ * only hold their values weakly, a ref is kept as long as some analyzer still
+ * uses it. A ref that is in use can therefore never be replaced by another
+ * instance.
+ */
 public class Descriptors {
-	Map<String,TypeRef>		typeRefCache		= Create.map();
-	Map<String,Descriptor>	descriptorCache		= Create.map();
-	Map<String,PackageRef>	packageCache		= Create.map();
+	final Interner<TypeRef>		typeRefCache		= new Interner<TypeRef>();
+	final Interner<Descriptor>	descriptorCache		= new Interner<Descriptor>();
+	final Interner<PackageRef>	packageCache		= new Interner<PackageRef>();
+
+	/**
+	 * A concurrent map with weakly held values. Entries whose value was
+	 * garbage collected are removed when the map is used.
+	 */
+	static class Interner<V> {
+		final ConcurrentMap<String,Entry<V>>	map		= new ConcurrentHashMap<String,Entry<V>>();
+		final ReferenceQueue<V>					queue	= new ReferenceQueue<V>();
+
+		static class Entry<V> extends WeakReference<V> {
+			final String	key;
+
+			Entry(String key, V value, ReferenceQueue<V> queue) {
+				super(value, queue);
+				this.key = key;
+			}
+		}
+
+		V get(String key) {
+			Entry<V> entry = map.get(key);
+			return entry == null ? null : entry.get();
+		}
+
+		/**
+		 * Answer the value for the key, the given value is only added when
+		 * there is no value yet.
+		 */
+		V putIfAbsent(String key, V value) {
+			expunge();
+			Entry<V> entry = new Entry<V>(key, value, queue);
+			while (true) {
+				Entry<V> previous = map.putIfAbsent(key, entry);
+				if (previous == null)
+					return value;
+
+				V v = previous.get();
+				if (v != null)
+					return v;
+
+				if (map.replace(key, previous, entry))
+					return value;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void expunge() {
+			Entry<V> entry;
+			while ((entry = (Entry<V>) queue.poll()) != null)
+				map.remove(entry.key, entry);
+		}
+	}
 
 	// MUST BE BEFORE PRIMITIVES, THEY USE THE DEFAULT PACKAGE!!
 	final static PackageRef	DEFAULT_PACKAGE		= new PackageRef();
@@ -34,7 +98,7 @@ public class Descriptors {
 	}
 
 	{
-		packageCache.put("", DEFAULT_PACKAGE);
+		packageCache.putIfAbsent("", DEFAULT_PACKAGE);
 	}
 
 	public interface TypeRef extends Comparable<TypeRef> {
@@ -379,8 +443,7 @@ public class Descriptors {
 			ref = new ConcreteRef(pref, binaryClassName);
 		}
 
-		typeRefCache.put(binaryClassName, ref);
-		return ref;
+		return typeRefCache.putIfAbsent(binaryClassName, ref);
 	}
 
 	public PackageRef getPackageRef(String binaryPackName) {
@@ -398,8 +461,7 @@ public class Descriptors {
 		//
 
 		ref = new PackageRef(binaryPackName);
-		packageCache.put(binaryPackName, ref);
-		return ref;
+		return packageCache.putIfAbsent(binaryPackName, ref);
 	}
 
 	public Descriptor getDescriptor(String descriptor) {
@@ -407,8 +469,7 @@ public class Descriptors {
 		if (d != null)
 			return d;
 		d = new Descriptor(descriptor);
-		descriptorCache.put(descriptor, d);
-		return d;
+		return descriptorCache.putIfAbsent(descriptor, d);
 	}
 
 	public class Descriptor {
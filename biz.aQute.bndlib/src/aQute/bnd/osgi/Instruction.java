@@ -52,6 +52,14 @@ public class Instruction {
 	final boolean		any;
 	final boolean	caseInsensitive;
 
+	/*
+	 * Set for a pattern like com.foo.* (packagePrefix) or com.foo* that only
+	 * has literal characters before the wildcard, these can be matched on the
+	 * prefix without a regular expression (see Instructions)
+	 */
+	String				prefix;
+	boolean				packagePrefix;
+
 	public Instruction(String input) {
 		this.input = input;
 
@@ -126,11 +134,32 @@ public class Instruction {
 			} else {
 				literal = false;
 				match = sb.toString();
+				if (!caseInsensitive) {
+					if (s.endsWith(".*") && isPlain(s, s.length() - 2)) {
+						prefix = s.substring(0, s.length() - 2);
+						packagePrefix = true;
+					} else if (s.endsWith("*") && isPlain(s, s.length() - 1)) {
+						prefix = s.substring(0, s.length() - 1);
+					}
+				}
 			}
 		}
 
 	}
 
+	/*
+	 * Answer if the first characters are matched literally by the regular
+	 * expression
+	 */
+	private static boolean isPlain(String s, int length) {
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (!Character.isLetterOrDigit(c) && "._$-/".indexOf(c) < 0)
+				return false;
+		}
+		return true;
+	}
+
 	public boolean matches(String value) {
 		if (any)
 			return true;
@@ -7,10 +7,136 @@ import aQute.bnd.header.*;
 import aQute.lib.io.*;
 
 public class Instructions implements Map<Instruction,Attrs> {
+	/*
+	 * Below this size the instructions are matched one by one
+	 */
+	final static int							COMPILE	= 4;
+
 	private LinkedHashMap<Instruction,Attrs>	map;
+	private volatile Compiled					compiled;
 	public static Instructions					ALWAYS	= new Instructions();
 	static Map<Instruction,Attrs>				EMPTY	= Collections.emptyMap();
 
+	/*
+	 * The instructions compiled for matching many values. Literals are looked
+	 * up in a map and prefix patterns like com.foo.* and com.foo* in a trie,
+	 * only the other patterns are matched one by one. Like the linear search
+	 * the first instruction that matches wins.
+	 */
+	static class Compiled {
+		final Instruction[]			instructions;
+		final Map<String,Integer>	literals	= new HashMap<String,Integer>();
+		final Node					root		= new Node();
+		final int[]					others;
+		int							any			= Integer.MAX_VALUE;
+
+		Compiled(Collection<Instruction> keys) {
+			instructions = keys.toArray(new Instruction[keys.size()]);
+			int[] others = new int[instructions.length];
+			int n = 0;
+			for (int i = 0; i < instructions.length; i++) {
+				Instruction instruction = instructions[i];
+				if (instruction.isAny()) {
+					if (any == Integer.MAX_VALUE)
+						any = i;
+				} else if (instruction.isLiteral()) {
+					if (!literals.containsKey(instruction.getLiteral()))
+						literals.put(instruction.getLiteral(), i);
+				} else if (instruction.prefix != null) {
+					root.add(instruction.prefix, instruction.packagePrefix, i);
+				} else
+					others[n++] = i;
+			}
+			this.others = Arrays.copyOf(others, n);
+		}
+
+		int size() {
+			return instructions.length;
+		}
+
+		Instruction matcher(String value) {
+			int best = any;
+
+			Integer literal = literals.get(value);
+			if (literal != null && literal < best)
+				best = literal;
+
+			best = root.match(value, best);
+
+			for (int i : others) {
+				if (i >= best)
+					break;
+				if (instructions[i].matches(value)) {
+					best = i;
+					break;
+				}
+			}
+			return best == Integer.MAX_VALUE ? null : instructions[best];
+		}
+	}
+
+	static class Node {
+		Map<Character,Node>	children;
+		int					star		= Integer.MAX_VALUE;
+		int					packageStar	= Integer.MAX_VALUE;
+
+		void add(String prefix, boolean packagePrefix, int index) {
+			Node node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				if (node.children == null)
+					node.children = new HashMap<Character,Node>();
+				Node next = node.children.get(prefix.charAt(i));
+				if (next == null) {
+					next = new Node();
+					node.children.put(prefix.charAt(i), next);
+				}
+				node = next;
+			}
+			if (packagePrefix)
+				node.packageStar = Math.min(node.packageStar, index);
+			else
+				node.star = Math.min(node.star, index);
+		}
+
+		/*
+		 * Answer the lowest index of a prefix of value that is lower than
+		 * best. The regular expression for the wildcard does not match a line
+		 * terminator, a prefix only matches when the rest of the value has
+		 * none.
+		 */
+		int match(String value, int best) {
+			int last = lastLineTerminator(value);
+			Node node = this;
+			for (int k = 0;; k++) {
+				if (last < k) {
+					if (node.star < best)
+						best = node.star;
+					if (node.packageStar < best && (k == value.length() || value.charAt(k) == '.'))
+						best = node.packageStar;
+				}
+				if (k == value.length() || node.children == null)
+					return best;
+				node = node.children.get(value.charAt(k));
+				if (node == null)
+					return best;
+			}
+		}
+
+		private static int lastLineTerminator(String value) {
+			for (int i = value.length() - 1; i >= 0; i--) {
+				switch (value.charAt(i)) {
+					case '\n' :
+					case '\r' :
+					case '\u0085' :
+					case '\u2028' :
+					case '\u2029' :
+						return i;
+				}
+			}
+			return -1;
+		}
+	}
+
 	public Instructions(Instructions other) {
 		if (other.map != null && !other.map.isEmpty()) {
 			map = new LinkedHashMap<Instruction,Attrs>(other.map);
@@ -35,6 +161,7 @@ public class Instructions implements Map<Instruction,Attrs> {
 	}
 
 	public void clear() {
+		compiled = null;
 		map.clear();
 	}
 
@@ -105,6 +232,7 @@ public class Instructions implements Map<Instruction,Attrs> {
 	}
 
 	public Attrs put(Instruction key, Attrs value) {
+		compiled = null;
 		if (map == null)
 			map = new LinkedHashMap<Instruction,Attrs>();
 
@@ -112,6 +240,7 @@ public class Instructions implements Map<Instruction,Attrs> {
 	}
 
 	public void putAll(Map< ? extends Instruction, ? extends Attrs> map) {
+		compiled = null;
 		if (this.map == null) {
 			if (map.isEmpty())
 				return;
@@ -126,12 +255,14 @@ public class Instructions implements Map<Instruction,Attrs> {
 		if (map == null)
 			return null;
 
+		compiled = null;
 		return map.remove(var0);
 	}
 
 	public Attrs remove(Instruction var0) {
 		if (map == null)
 			return null;
+		compiled = null;
 		return map.remove(var0);
 	}
 
@@ -168,22 +299,32 @@ public class Instructions implements Map<Instruction,Attrs> {
 		if (emptyIsAll && isEmpty())
 			return input;
 
-		List<T> result = new ArrayList<T>();
+		//
+		// An object is taken by the first instruction that matches it, the
+		// result is ordered on the instructions
+		//
 
-		for (Instruction instruction : keySet()) {
-			boolean used = false;
-			for (Iterator<T> o = input.iterator(); o.hasNext();) {
-				T oo = o.next();
-				String s = oo.toString();
-				if (instruction.matches(s)) {
-					if (!instruction.isNegated())
-						result.add(oo);
-					o.remove();
-					used = true;
+		Map<Instruction,List<T>> matched = new HashMap<Instruction,List<T>>();
+		for (T oo : input) {
+			Instruction instruction = matcher(oo.toString());
+			if (instruction != null) {
+				List<T> list = matched.get(instruction);
+				if (list == null) {
+					list = new ArrayList<T>();
+					matched.put(instruction, list);
 				}
+				list.add(oo);
 			}
-			if (!used && unused != null)
-				unused.add(instruction);
+		}
+
+		List<T> result = new ArrayList<T>();
+		for (Instruction instruction : keySet()) {
+			List<T> list = matched.get(instruction);
+			if (list == null) {
+				if (unused != null)
+					unused.add(instruction);
+			} else if (!instruction.isNegated())
+				result.addAll(list);
 		}
 		return result;
 	}
@@ -209,6 +350,10 @@ public class Instructions implements Map<Instruction,Attrs> {
 	}
 
 	public Instruction matcher(String value) {
+		Compiled c = compile();
+		if (c != null)
+			return c.matcher(value);
+
 		for (Instruction i : keySet()) {
 			if (i.matches(value)) {
 				return i;
@@ -217,6 +362,21 @@ public class Instructions implements Map<Instruction,Attrs> {
 		return null;
 	}
 
+	/*
+	 * Answer the compiled instructions or null when there are only a few. The
+	 * map can also shrink through its views so the size is checked.
+	 */
+	private Compiled compile() {
+		int size = size();
+		if (size < COMPILE)
+			return null;
+
+		Compiled c = compiled;
+		if (c == null || c.size() != size)
+			compiled = c = new Compiled(keySet());
+		return c;
+	}
+
 	public Instruction finder(String value) {
 		for (Instruction i : keySet()) {
 			if (i.finds(value)) {
@@ -268,15 +428,10 @@ public class Instructions implements Map<Instruction,Attrs> {
 		//
 
 		if (base != null) {
-			nextFile: for (File f : base.listFiles()) {
-				for (Entry<Instruction,Attrs> instr : entrySet()) {
-					String name = f.getName();
-					if (instr.getKey().matches(name)) {
-						if (!instr.getKey().isNegated())
-							result.put(f, instr.getValue());
-						continue nextFile;
-					}
-				}
+			for (File f : base.listFiles()) {
+				Instruction instruction = matcher(f.getName());
+				if (instruction != null && !instruction.isNegated())
+					result.put(f, get(instruction));
 			}
 		}
 		return result;
@@ -42,6 +42,8 @@ public class Jar implements Closeable {
 	Compression								compression	= Compression.DEFLATE;
 	boolean									closed;
 	String[]								algorithms;
+	int										writeThreads	= 1;
+	boolean									copyStored		= true;
 
 	public Jar(String name) {
 		this.name = name;
@@ -291,50 +293,111 @@ public class Jar implements Closeable {
 			return;
 		}
 
-		ZipOutputStream jout = nomanifest || doNotTouchManifest ? new ZipOutputStream(out) : new JarOutputStream(out);
-
-		switch (compression) {
-			case STORE :
-				jout.setMethod(ZipOutputStream.DEFLATED);
-				break;
-
-			default :
-				// default is DEFLATED
-		}
+		// Compression.STORE is written deflated like the other entries, the
+		// entries of a ZIP file are copied as they were deflated
+		JarWriter writer = new JarWriter(out, writeThreads > 1 ? Processor.getExecutor() : null, writeThreads,
+				!nomanifest && !doNotTouchManifest);
 
 		Set<String> done = new HashSet<String>();
-
 		Set<String> directories = new HashSet<String>();
-		if (doNotTouchManifest) {
-			Resource r = getResource(manifestName);
-			if (r != null) {
-				writeResource(jout, directories, manifestName, r);
-				done.add(manifestName);
-			}
-		} else
-			doManifest(done, jout);
+		Map<ZipFile,RandomAccessFile> stored = new HashMap<ZipFile,RandomAccessFile>();
+		try {
+			if (doNotTouchManifest) {
+				Resource r = getResource(manifestName);
+				if (r != null) {
+					writeResource(writer, directories, stored, manifestName, r);
+					done.add(manifestName);
+				}
+			} else
+				doManifest(done, writer);
 
-		for (Map.Entry<String,Resource> entry : getResources().entrySet()) {
-			// Skip metainf contents
-			if (!done.contains(entry.getKey()))
-				writeResource(jout, directories, entry.getKey(), entry.getValue());
+			for (Map.Entry<String,Resource> entry : getResources().entrySet()) {
+				// Skip metainf contents
+				if (!done.contains(entry.getKey()))
+					writeResource(writer, directories, stored, entry.getKey(), entry.getValue());
+			}
+			writer.finish();
+		}
+		finally {
+			for (RandomAccessFile file : stored.values())
+				IO.close(file);
 		}
-		jout.finish();
 	}
 
-	private void doManifest(Set<String> done, ZipOutputStream jout) throws Exception {
+	private void doManifest(Set<String> done, JarWriter writer) throws Exception {
 		check();
 		if (nomanifest)
 			return;
 
 		JarEntry ze = new JarEntry(manifestName);
-		ZipUtil.setModifiedTime(ze,lastModified);
-		jout.putNextEntry(ze);
-		writeManifest(jout);
-		jout.closeEntry();
+		ZipUtil.setModifiedTime(ze, lastModified);
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		writeManifest(bout);
+		writer.put(ze, bout.toByteArray());
 		done.add(ze.getName());
 	}
 
+	private void writeResource(JarWriter writer, Set<String> directories, Map<ZipFile,RandomAccessFile> stored,
+			String path, Resource resource) throws Exception {
+		if (resource == null)
+			return;
+		try {
+			createDirectories(directories, writer, path);
+			if (path.endsWith(Constants.EMPTY_HEADER))
+				return;
+			ZipEntry ze = new ZipEntry(path);
+			ze.setMethod(ZipEntry.DEFLATED);
+			long lastModified = resource.lastModified();
+			if (lastModified == 0L) {
+				lastModified = System.currentTimeMillis();
+			}
+			ZipUtil.setModifiedTime(ze, lastModified);
+			if (resource.getExtra() != null)
+				ze.setExtra(resource.getExtra().getBytes("UTF-8"));
+
+			// An entry from a ZIP file is copied as it is deflated,
+			// there is no need to inflate and deflate it again
+			if (resource instanceof ZipResource && copyStored) {
+				ZipResource zr = (ZipResource) resource;
+				byte[] data = zr.readDeflated(getStored(stored, zr.getZipFile()));
+				if (data != null) {
+					writer.putDeflated(ze, zr.getCrc(), zr.size(), data);
+					return;
+				}
+			}
+
+			// Resources are not guaranteed to be thread safe so they
+			// are read here, only the deflating happens in parallel
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			resource.write(bout);
+			writer.put(ze, bout.toByteArray());
+		}
+		catch (Exception e) {
+			throw new Exception("Problem writing resource " + path, e);
+		}
+	}
+
+	private void createDirectories(Set<String> directories, JarWriter writer, String name) throws Exception {
+		int index = name.lastIndexOf('/');
+		if (index > 0) {
+			String path = name.substring(0, index);
+			if (directories.contains(path))
+				return;
+			createDirectories(directories, writer, path);
+			writer.put(new ZipEntry(path + '/'), new byte[0]);
+			directories.add(path);
+		}
+	}
+
+	private RandomAccessFile getStored(Map<ZipFile,RandomAccessFile> stored, ZipFile zip) throws IOException {
+		RandomAccessFile file = stored.get(zip);
+		if (file == null) {
+			file = new RandomAccessFile(zip.getName(), "r");
+			stored.put(zip, file);
+		}
+		return file;
+	}
+
 	/**
 	 * Cleanup the manifest for writing. Cleaning up consists of adding a space
 	 * after any \n to prevent the manifest to see this newline as a delimiter.
@@ -539,46 +602,6 @@ public class Jar implements Closeable {
 			return s;
 	}
 
-	private void writeResource(ZipOutputStream jout, Set<String> directories, String path, Resource resource)
-			throws Exception {
-		if (resource == null)
-			return;
-		try {
-			createDirectories(directories, jout, path);
-			if (path.endsWith(Constants.EMPTY_HEADER))
-				return;
-			ZipEntry ze = new ZipEntry(path);
-			ze.setMethod(ZipEntry.DEFLATED);
-			long lastModified = resource.lastModified();
-			if (lastModified == 0L) {
-				lastModified = System.currentTimeMillis();
-			}
-			ZipUtil.setModifiedTime(ze,lastModified);
-			if (resource.getExtra() != null)
-				ze.setExtra(resource.getExtra().getBytes("UTF-8"));
-			jout.putNextEntry(ze);
-			resource.write(jout);
-			jout.closeEntry();
-		}
-		catch (Exception e) {
-			throw new Exception("Problem writing resource " + path, e);
-		}
-	}
-
-	void createDirectories(Set<String> directories, ZipOutputStream zip, String name) throws IOException {
-		int index = name.lastIndexOf('/');
-		if (index > 0) {
-			String path = name.substring(0, index);
-			if (directories.contains(path))
-				return;
-			createDirectories(directories, zip, path);
-			ZipEntry ze = new ZipEntry(path + '/');
-			zip.putNextEntry(ze);
-			zip.closeEntry();
-			directories.add(path);
-		}
-	}
-
 	public String getName() {
 		return name;
 	}
@@ -773,19 +796,7 @@ public class Jar implements Closeable {
 	 */
 	public String getBsn() throws Exception {
 		check();
-		Manifest m = getManifest();
-		if (m == null)
-			return null;
-
-		String s = m.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME);
-		if (s == null)
-			return null;
-
-		Matcher matcher = BSN.matcher(s);
-		if (matcher.matches()) {
-			return matcher.group(1);
-		}
-		return null;
+		return ManifestReader.getBsn(getManifest());
 	}
 
 	/**
@@ -800,15 +811,7 @@ public class Jar implements Closeable {
 	 */
 	public String getVersion() throws Exception {
 		check();
-		Manifest m = getManifest();
-		if (m == null)
-			return null;
-
-		String s = m.getMainAttributes().getValue(Constants.BUNDLE_VERSION);
-		if (s == null)
-			return null;
-
-		return s.trim();
+		return ManifestReader.getVersion(getManifest());
 	}
 
 	/**
@@ -863,6 +866,30 @@ public class Jar implements Closeable {
 		addDirectory(srce.getDirectories().get(path), overwrite);
 	}
 
+	/**
+	 * Set the number of threads that deflate the entries when the JAR is
+	 * written. With more than one thread the entries are deflated in parallel
+	 * on the {@link Processor#getExecutor() shared executor}, otherwise they
+	 * are deflated in the writing thread. The written bytes do not depend on
+	 * the number of threads.
+	 */
+	public void setWriteThreads(int threads) {
+		this.writeThreads = threads;
+	}
+
+	public int getWriteThreads() {
+		return writeThreads;
+	}
+
+	/**
+	 * When the JAR is written, deflated entries that come unmodified from a ZIP
+	 * file are copied in their compressed form. This is the default, it can be
+	 * disabled to always recompress.
+	 */
+	public void setCopyStored(boolean copyStored) {
+		this.copyStored = copyStored;
+	}
+
 	public void setCompression(Compression compression) {
 		this.compression = compression;
 	}
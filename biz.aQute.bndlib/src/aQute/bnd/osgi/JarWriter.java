@@ -0,0 +1,279 @@
+package aQute.bnd.osgi;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.*;
+import java.util.zip.*;
+
+/**
+ * Writes a ZIP stream while the entries are deflated on an executor. Each
+ * entry is written to a ZIP stream of its own by a {@link ZipOutputStream}, the
+ * local part and the central directory record of these streams are then
+ * joined in the order the entries were put. The result is the same stream as
+ * a single {@link ZipOutputStream} (or {@link JarOutputStream}) writes for the
+ * same entries. A limited number of entries is deflated ahead of the entry
+ * that is being written so the memory use stays bounded.
+ */
+class JarWriter {
+	final static int				DATA_DESCRIPTOR		= 0x08074b50;
+	final static int				ZIP64_END_HEADER	= 0x06064b50;
+	final static int				ZIP64_LOCATOR		= 0x07064b50;
+	final static int				END_HEADER			= 0x06054b50;
+	final static int				END_LENGTH			= 22;
+	final static int				ZIP64_EXTRA			= 0x0001;
+	final static long				ZIP64_MAGIC			= 0xFFFFFFFFL;
+	final static int				ZIP64_MAGIC_COUNT	= 0xFFFF;
+	final static boolean			inhibitZip64		= Boolean.getBoolean("jdk.util.zip.inhibitZip64");
+
+	final OutputStream				out;
+	final Executor					executor;
+	final int						ahead;
+	final LinkedList<Future<Entry>>	pending				= new LinkedList<Future<Entry>>();
+	final Set<String>				names				= new HashSet<String>();
+	final ByteArrayOutputStream		central				= new ByteArrayOutputStream();
+	boolean							magic;
+	long							offset;
+
+	/**
+	 * An entry as a {@link ZipOutputStream} writes it. The local part is
+	 * followed by the raw data and its data descriptor when the entry was
+	 * already deflated.
+	 */
+	static class Entry {
+		byte[]	local;
+		int		length;
+		byte[]	raw;
+		byte[]	descriptor;
+		byte[]	central;
+	}
+
+	/**
+	 * @param out
+	 *            the stream to write to
+	 * @param executor
+	 *            the executor for deflating entries or null to deflate them
+	 *            in the calling thread
+	 * @param threads
+	 *            the number of entries deflated in parallel
+	 * @param jar
+	 *            if the first entry should get the JAR magic extra field like
+	 *            the {@link JarOutputStream} does
+	 */
+	JarWriter(OutputStream out, Executor executor, int threads, boolean jar) {
+		this.out = out;
+		this.executor = executor;
+		this.ahead = Math.max(1, threads) * 2;
+		this.magic = jar;
+	}
+
+	/**
+	 * Add an entry with the given content. The entry must not be used
+	 * anymore by the caller, it is completed when it is written.
+	 */
+	void put(final ZipEntry ze, final byte[] data) throws Exception {
+		final boolean jar = first(ze);
+		submit(new Callable<Entry>() {
+			public Entry call() throws Exception {
+				return write(ze, jar, data);
+			}
+		});
+	}
+
+	/**
+	 * Add an entry that is already deflated, the data is copied as is. The
+	 * entry must have the {@link ZipEntry#DEFLATED} method.
+	 */
+	void putDeflated(final ZipEntry ze, final long crc, final long size, final byte[] data) throws Exception {
+		final boolean jar = first(ze);
+		submit(new Callable<Entry>() {
+			public Entry call() throws Exception {
+				Entry entry = write(ze, jar, new byte[0]);
+				entry.length = 30 + getShort(entry.local, 26) + getShort(entry.local, 28);
+				entry.raw = data;
+
+				ByteArrayOutputStream descriptor = new ByteArrayOutputStream(16);
+				writeInt(descriptor, DATA_DESCRIPTOR);
+				writeInt(descriptor, crc);
+				writeInt(descriptor, data.length);
+				writeInt(descriptor, size);
+				entry.descriptor = descriptor.toByteArray();
+
+				setInt(entry.central, 16, crc);
+				setInt(entry.central, 20, data.length);
+				setInt(entry.central, 24, size);
+				return entry;
+			}
+		});
+	}
+
+	/**
+	 * Write the remaining entries and the central directory. The underlying
+	 * stream is not closed.
+	 */
+	void finish() throws Exception {
+		while (!pending.isEmpty())
+			write(pending.removeFirst());
+
+		long start = offset;
+		long length = central.size();
+		central.writeTo(out);
+		offset += length;
+
+		ByteArrayOutputStream end = new ByteArrayOutputStream(98);
+		int count = names.size();
+		boolean zip64 = start >= ZIP64_MAGIC || length >= ZIP64_MAGIC
+				|| (count >= ZIP64_MAGIC_COUNT && !inhibitZip64);
+		if (zip64) {
+			writeInt(end, ZIP64_END_HEADER);
+			writeLong(end, 44);
+			writeShort(end, 45);
+			writeShort(end, 45);
+			writeInt(end, 0);
+			writeInt(end, 0);
+			writeLong(end, count);
+			writeLong(end, count);
+			writeLong(end, length);
+			writeLong(end, start);
+
+			writeInt(end, ZIP64_LOCATOR);
+			writeInt(end, 0);
+			writeLong(end, offset);
+			writeInt(end, 1);
+		}
+		writeInt(end, END_HEADER);
+		writeShort(end, 0);
+		writeShort(end, 0);
+		writeShort(end, zip64 ? Math.min(count, ZIP64_MAGIC_COUNT) : count);
+		writeShort(end, zip64 ? Math.min(count, ZIP64_MAGIC_COUNT) : count);
+		writeInt(end, Math.min(length, ZIP64_MAGIC));
+		writeInt(end, Math.min(start, ZIP64_MAGIC));
+		writeShort(end, 0);
+		end.writeTo(out);
+		out.flush();
+	}
+
+	private boolean first(ZipEntry ze) throws ZipException {
+		if (!names.add(ze.getName()))
+			throw new ZipException("duplicate entry: " + ze.getName());
+		boolean first = magic;
+		magic = false;
+		return first;
+	}
+
+	private void submit(Callable<Entry> callable) throws Exception {
+		FutureTask<Entry> task = new FutureTask<Entry>(callable);
+		if (executor == null)
+			task.run();
+		else
+			executor.execute(task);
+
+		pending.add(task);
+		while (pending.size() > ahead)
+			write(pending.removeFirst());
+	}
+
+	private void write(Future<Entry> future) throws Exception {
+		Entry entry;
+		try {
+			entry = future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+
+		long local = offset;
+		out.write(entry.local, 0, entry.length);
+		offset += entry.length;
+		if (entry.raw != null) {
+			out.write(entry.raw);
+			out.write(entry.descriptor);
+			offset += entry.raw.length + entry.descriptor.length;
+		}
+
+		if (local >= ZIP64_MAGIC)
+			central.write(zip64(entry.central, local));
+		else {
+			setInt(entry.central, 42, local);
+			central.write(entry.central);
+		}
+	}
+
+	/**
+	 * Write an entry to a ZIP stream of its own.
+	 *
+	 * @return the entry with the local part and the central directory record
+	 *         of the stream, the local header is at offset 0
+	 */
+	static Entry write(ZipEntry ze, boolean jar, byte[] data) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(data.length / 2 + 256);
+		ZipOutputStream zout = jar ? new JarOutputStream(bout) : new ZipOutputStream(bout);
+		int length;
+		try {
+			zout.putNextEntry(ze);
+			zout.write(data);
+			zout.closeEntry();
+			length = bout.size();
+		}
+		finally {
+			zout.close();
+		}
+
+		Entry entry = new Entry();
+		entry.local = bout.toByteArray();
+		entry.length = length;
+		entry.central = Arrays.copyOfRange(entry.local, entry.length, entry.local.length - END_LENGTH);
+		return entry;
+	}
+
+	/**
+	 * Move the offset of the local header to a ZIP64 extra field the same way
+	 * the {@link ZipOutputStream} does for an entry beyond 4Gb.
+	 */
+	static byte[] zip64(byte[] record, long offset) {
+		int n = 46 + getShort(record, 28);
+		byte[] result = new byte[record.length + 12];
+		System.arraycopy(record, 0, result, 0, n);
+		System.arraycopy(record, n, result, n + 12, record.length - n);
+		setShort(result, 4, 45);
+		setShort(result, 6, 45);
+		setShort(result, 30, getShort(record, 30) + 12);
+		setInt(result, 42, ZIP64_MAGIC);
+		setShort(result, n, ZIP64_EXTRA);
+		setShort(result, n + 2, 8);
+		setInt(result, n + 4, offset);
+		setInt(result, n + 8, offset >>> 32);
+		return result;
+	}
+
+	private static int getShort(byte[] b, int n) {
+		return (b[n] & 0xFF) | ((b[n + 1] & 0xFF) << 8);
+	}
+
+	private static void setShort(byte[] b, int n, int v) {
+		b[n] = (byte) v;
+		b[n + 1] = (byte) (v >>> 8);
+	}
+
+	private static void setInt(byte[] b, int n, long v) {
+		setShort(b, n, (int) v);
+		setShort(b, n + 2, (int) (v >>> 16));
+	}
+
+	private static void writeShort(OutputStream out, int v) throws IOException {
+		out.write(v & 0xFF);
+		out.write((v >>> 8) & 0xFF);
+	}
+
+	private static void writeInt(OutputStream out, long v) throws IOException {
+		writeShort(out, (int) v);
+		writeShort(out, (int) (v >>> 16));
+	}
+
+	private static void writeLong(OutputStream out, long v) throws IOException {
+		writeInt(out, v);
+		writeInt(out, v >>> 32);
+	}
+}
@@ -5,6 +5,7 @@ import java.lang.reflect.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
 import javax.script.*;
@@ -40,6 +41,39 @@ public class Macro {
 	StringWriter			stdout		= new StringWriter();
 	StringWriter			stderr		= new StringWriter();
 
+	/*
+	 * The compiled templates, the looked up command methods and the results
+	 * of the pure commands. A pure command only depends on its arguments so
+	 * its result can be reused for the same macro key.
+	 */
+	final static int								MAX_CACHED	= 2000;
+	final static Set<String>						PURE		= new HashSet<String>(Arrays.asList("uniq",
+																		"filter", "select", "filterout", "reject",
+																		"sort", "nsort", "join", "sjoin", "if",
+																		"replace", "toupper", "tolower", "trim",
+																		"startswith", "endswith", "extension",
+																		"stem", "substring", "length", "get",
+																		"sublist", "first", "last", "max", "min",
+																		"nmax", "nmin", "sum", "average",
+																		"reverse", "indexof", "lastindexof",
+																		"find", "findlast", "split", "compare",
+																		"ncompare", "matches", "subst", "isempty",
+																		"isnumber", "is"));
+	final Map<String,Template>						templates	= Collections
+																		.synchronizedMap(new Cache<String,Template>(
+																				MAX_CACHED));
+	final Map<String,String>						memo		= Collections
+																		.synchronizedMap(new Cache<String,String>(
+																				MAX_CACHED));
+	final Map<Class< ? >,Map<String,Method>>		methods		= new HashMap<Class< ? >,Map<String,Method>>();
+
+	/*
+	 * Counts the expansions that depended on more than the properties and the
+	 * pure commands, or that reported a problem. Their result must not be
+	 * cached.
+	 */
+	final AtomicInteger								impure		= new AtomicInteger();
+
 	public Macro(Processor domain, Object... targets) {
 		this.domain = domain;
 		this.targets = targets;
@@ -56,53 +90,128 @@ public class Macro {
 
 	String process(String line, Link link) {
 		StringBuilder sb = new StringBuilder();
-		process(line, 0, '\u0000', '\u0000', sb, link);
+		getTemplate(line).expand(this, link, sb);
 		return sb.toString();
 	}
 
-	int process(CharSequence org, int index, char begin, char end, StringBuilder result, Link link) {
-		StringBuilder line = new StringBuilder(org);
-		int nesting = 1;
-
-		StringBuilder variable = new StringBuilder();
-
-		outer: while (index < line.length()) {
-			char c1 = line.charAt(index++);
-			if (c1 == end) {
-				if (--nesting == 0) {
-					result.append(replace(variable.toString(), link));
-					return index;
-				}
-			} else if (c1 == begin)
-				nesting++;
-			else if (c1 == '\\' && index < line.length() - 1 && line.charAt(index) == '$') {
-				// remove the escape backslash and interpret the dollar
-				// as a
-				// literal
-				index++;
-				variable.append('$');
-				continue outer;
-			} else if (c1 == '$' && index < line.length() - 2) {
-				char c2 = line.charAt(index);
-				char terminator = getTerminator(c2);
-				if (terminator != 0) {
-					index = process(line, index + 1, c2, terminator, variable, link);
-					continue outer;
-				}
-			} else if (c1 == '.' && index < line.length() && line.charAt(index) == '/') {
-				// Found the sequence ./
-				if (index == 1 || Character.isWhitespace(line.charAt(index - 2))) {
-					// make sure it is preceded by whitespace or starts at begin
+	/**
+	 * A string compiled into its literal parts, its macro references and the
+	 * ./ sequences that are replaced with the base directory. A template is
+	 * independent of the properties so it is compiled once per string and then
+	 * expanded each time the string is processed.
+	 */
+	static class Template {
+		final static Object	BASE	= new Object();
+		final Object[]		parts;
+
+		Template(List<Object> parts) {
+			this.parts = parts.toArray();
+		}
+
+		/**
+		 * Compile a line. The scanning must exactly follow the original
+		 * interpreter, including its handling of escapes, nested brackets and
+		 * unterminated references.
+		 */
+		static Template compile(String line) {
+			List<Object> parts = new ArrayList<Object>();
+			if (compile(line, 0, '\u0000', '\u0000', parts) >= 0) {
+				// a 0 character terminates the line as if it was a macro
+				Template reference = new Template(parts);
+				parts.clear();
+				parts.add(reference);
+			}
+			return new Template(parts);
+		}
+
+		/**
+		 * @return the index after the end character, or -1 if the end of the
+		 *         line was reached without finding the end character
+		 */
+		private static int compile(String line, int index, char begin, char end, List<Object> parts) {
+			int nesting = 1;
+			StringBuilder literal = new StringBuilder();
+
+			outer: while (index < line.length()) {
+				char c1 = line.charAt(index++);
+				if (c1 == end) {
+					if (--nesting == 0) {
+						flush(literal, parts);
+						return index;
+					}
+				} else if (c1 == begin)
+					nesting++;
+				else if (c1 == '\\' && index < line.length() - 1 && line.charAt(index) == '$') {
+					// remove the escape backslash and interpret the dollar
+					// as a literal
 					index++;
-					variable.append(domain.getBase().getAbsolutePath());
-					variable.append('/');
+					literal.append('$');
 					continue outer;
+				} else if (c1 == '$' && index < line.length() - 2) {
+					char c2 = line.charAt(index);
+					char terminator = getTerminator(c2);
+					if (terminator != 0) {
+						flush(literal, parts);
+						List<Object> nested = new ArrayList<Object>();
+						int next = compile(line, index + 1, c2, terminator, nested);
+						if (next < 0) {
+							// not terminated, the content is kept without
+							// the ${
+							parts.addAll(nested);
+							index = line.length();
+						} else {
+							parts.add(new Template(nested));
+							index = next;
+						}
+						continue outer;
+					}
+				} else if (c1 == '.' && index < line.length() && line.charAt(index) == '/') {
+					// Found the sequence ./
+					if (index == 1 || Character.isWhitespace(line.charAt(index - 2))) {
+						// make sure it is preceded by whitespace or starts at
+						// begin
+						index++;
+						flush(literal, parts);
+						parts.add(BASE);
+						continue outer;
+					}
 				}
+				literal.append(c1);
+			}
+			flush(literal, parts);
+			return -1;
+		}
+
+		private static void flush(StringBuilder literal, List<Object> parts) {
+			if (literal.length() > 0) {
+				parts.add(literal.toString());
+				literal.setLength(0);
 			}
-			variable.append(c1);
 		}
-		result.append(variable);
-		return index;
+
+		void expand(Macro macro, Link link, StringBuilder result) {
+			for (Object part : parts) {
+				if (part instanceof String)
+					result.append((String) part);
+				else if (part == BASE) {
+					result.append(macro.domain.getBase().getAbsolutePath());
+					result.append('/');
+				} else {
+					StringBuilder key = new StringBuilder();
+					((Template) part).expand(macro, link, key);
+					result.append(macro.replace(key.toString(), link));
+				}
+			}
+		}
+	}
+
+	Template getTemplate(String line) {
+		Template template = templates.get(line);
+		if (template == null) {
+			template = Template.compile(line);
+			templates.put(line, template);
+		}
+		return template;
 	}
 
 	public static char getTerminator(char c) {
@@ -136,17 +245,14 @@ public class Macro {
 				if (key.indexOf(';') < 0) {
 					Instruction ins = new Instruction(key);
 					if (!ins.isLiteral()) {
-						SortedList<String> sortedList = SortedList.fromIterator(domain.iterator());
 						StringBuilder sb = new StringBuilder();
 						String del = "";
-						for (String k : sortedList) {
-							if (ins.matches(k)) {
-								String v = replace(k, new Link(source, link, key));
-								if (v != null) {
-									sb.append(del);
-									del = ",";
-									sb.append(v);
-								}
+						for (String k : domain.getMatchingKeys(ins)) {
+							String v = replace(k, new Link(source, link, key));
+							if (v != null) {
+								sb.append(del);
+								del = ",";
+								sb.append(v);
 							}
 						}
 						return sb.toString();
@@ -169,14 +275,17 @@ public class Macro {
 
 				if (key != null && key.trim().length() > 0) {
 					value = System.getProperty(key);
-					if (value != null)
+					if (value != null) {
+						impure.incrementAndGet();
 						return value;
+					}
 				}
 
 				if (key.indexOf(';') >= 0) {
 					String parts[] = key.split(";");
 					if (parts.length > 1) {
 						if (parts.length >= 16) {
+							impure.incrementAndGet();
 							domain.error("too many arguments for template: %s, max is 16", key);
 						}
 
@@ -201,9 +310,11 @@ public class Macro {
 					}
 				}
 			} else {
+				impure.incrementAndGet();
 				domain.warning("Found empty macro key");
 			}
 		} else {
+			impure.incrementAndGet();
 			domain.warning("Found null macro key");
 		}
 
@@ -224,6 +335,7 @@ public class Macro {
 		String value = getMacro(key, link);
 		if (value != null)
 			return value;
+		impure.incrementAndGet();
 		if (!flattening && !key.startsWith("@"))
 			domain.warning("No translation found for macro: %s, in %s", key, domain);
 		return "${" + key + "}";
@@ -250,28 +362,44 @@ public class Macro {
 		if (args[0].startsWith("^")) {
 			String varname = args[0].substring(1).trim();
 
+			impure.incrementAndGet();
 			Processor parent = source.start.getParent();
 			if (parent != null)
 				return parent.getProperty(varname);
 			return null;
 		}
 
+		String memoized = memo.get(key);
+		if (memoized != null)
+			return memoized;
+
 		Processor rover = domain;
 		while (rover != null) {
 			String result = doCommand(rover, args[0], args);
-			if (result != null)
+			if (result != null) {
+				impure.incrementAndGet();
 				return result;
+			}
 
 			rover = rover.getParent();
 		}
 
 		for (int i = 0; targets != null && i < targets.length; i++) {
 			String result = doCommand(targets[i], args[0], args);
-			if (result != null)
+			if (result != null) {
+				impure.incrementAndGet();
 				return result;
+			}
 		}
 
-		return doCommand(this, args[0], args);
+		String result = doCommand(this, args[0], args);
+		if (result != null) {
+			if (result != NULLVALUE && PURE.contains(args[0]))
+				memo.put(key, result);
+			else
+				impure.incrementAndGet();
+		}
+		return result;
 	}
 
 	private String doCommand(Object target, String method, String[] args) {
@@ -279,19 +407,17 @@ public class Macro {
 			; // System.err.println("Huh? Target should never be null " +
 		// domain);
 		else {
-			String cname = "_" + method.replaceAll("-", "_");
+			String cname = "_" + method.replace('-', '_');
 			try {
-				Method m = target.getClass().getMethod(cname, new Class[] {
-					String[].class
-				});
+				Method m = getMethod(target.getClass(), cname);
+				if (m == null)
+					return null;
+
 				Object result = m.invoke(target, new Object[] {
 					args
 				});
 				return result == null ? NULLVALUE : result.toString();
 			}
-			catch (NoSuchMethodException e) {
-				return null;
-			}
 			catch (InvocationTargetException e) {
 				if (e.getCause() instanceof IllegalArgumentException) {
 					domain.error("%s, for cmd: %s, arguments; %s", e.getCause().getMessage(), method,
@@ -311,6 +437,52 @@ public class Macro {
 		return null;
 	}
 
+	/**
+	 * Find a command method, the result (also when there is no such method) is
+	 * cached per class.
+	 */
+	private Method getMethod(Class< ? > c, String name) {
+		synchronized (methods) {
+			Map<String,Method> forClass = methods.get(c);
+			if (forClass == null) {
+				forClass = new HashMap<String,Method>();
+				methods.put(c, forClass);
+			}
+			if (forClass.containsKey(name))
+				return forClass.get(name);
+
+			Method m;
+			try {
+				m = c.getMethod(name, new Class[] {
+					String[].class
+				});
+			}
+			catch (NoSuchMethodException e) {
+				m = null;
+			}
+			forClass.put(name, m);
+			return m;
+		}
+	}
+
+	/**
+	 * A map that drops its least recently used entry when it gets too large
+	 */
+	static class Cache<K, V> extends LinkedHashMap<K,V> {
+		private static final long	serialVersionUID	= 1L;
+		final int					max;
+
+		Cache(int max) {
+			super(16, 0.75f, true);
+			this.max = max;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+			return size() > max;
+		}
+	}
+
 	/**
 	 * Return a unique list where the duplicates are removed.
 	 * 
@@ -0,0 +1,183 @@
+package aQute.bnd.osgi;
+
+import java.io.*;
+import java.util.jar.*;
+import java.util.regex.*;
+import java.util.zip.*;
+
+/**
+ * Reads the manifest of a JAR file without opening the whole archive. The end
+ * of central directory record is used to find the central directory, which is
+ * scanned until the manifest entry is found. Only that entry is read and
+ * inflated, the names of the other entries are never decoded.
+ * <p>
+ * Archives that cannot be read this way (e.g. ZIP64 or encrypted entries) are
+ * read with a {@link JarFile}.
+ */
+public class ManifestReader {
+	final static byte[]		MANIFEST;
+	/**
+	 * Returned by {@link #readManifest(RandomAccessFile)} when the archive
+	 * cannot be read this way, compared by identity
+	 */
+	private final static byte[]	FALLBACK		= new byte[0];
+	static {
+		try {
+			MANIFEST = Jar.DEFAULT_MANIFEST_NAME.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Read the manifest of a JAR file.
+	 *
+	 * @return the manifest or null if the file has no manifest
+	 */
+	public static Manifest read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = readManifest(raf);
+			if (data == null)
+				return null;
+			if (data != FALLBACK)
+				return new Manifest(new ByteArrayInputStream(data));
+		}
+		finally {
+			raf.close();
+		}
+
+		JarFile jar = new JarFile(file, false);
+		try {
+			return jar.getManifest();
+		}
+		finally {
+			jar.close();
+		}
+	}
+
+	/**
+	 * Answer the bundle symbolic name of a manifest without its directives.
+	 *
+	 * @return null when there is no manifest or no
+	 *         {@link Constants#BUNDLE_SYMBOLICNAME} header
+	 */
+	public static String getBsn(Manifest manifest) {
+		if (manifest == null)
+			return null;
+
+		String s = manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME);
+		if (s == null)
+			return null;
+
+		Matcher matcher = Jar.BSN.matcher(s);
+		if (matcher.matches()) {
+			return matcher.group(1);
+		}
+		return null;
+	}
+
+	/**
+	 * Answer the bundle version of a manifest.
+	 *
+	 * @return null when there is no manifest or no
+	 *         {@link Constants#BUNDLE_VERSION} header
+	 */
+	public static String getVersion(Manifest manifest) {
+		if (manifest == null)
+			return null;
+
+		String s = manifest.getMainAttributes().getValue(Constants.BUNDLE_VERSION);
+		if (s == null)
+			return null;
+
+		return s.trim();
+	}
+
+	/**
+	 * Find and read the manifest entry.
+	 *
+	 * @return the content of the manifest, null if there is no manifest or
+	 *         {@link #FALLBACK} if the archive cannot be read this way
+	 */
+	private static byte[] readManifest(RandomAccessFile raf) throws IOException {
+		CentralDirectory directory = CentralDirectory.open(raf);
+		if (directory == null)
+			return FALLBACK;
+
+		while (directory.next()) {
+			if (directory.getNameLength() != MANIFEST.length || !matches(directory.getName()))
+				continue;
+
+			if (directory.isEncrypted())
+				return FALLBACK;
+
+			long compressedSize = directory.getCompressedSize();
+			long size = directory.getSize();
+			if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE)
+				return FALLBACK;
+
+			long offset = CentralDirectory.getDataOffset(raf, directory.getOffset());
+			if (offset < 0)
+				return FALLBACK;
+
+			return readEntry(raf, offset, directory.getMethod(), (int) compressedSize, (int) size);
+		}
+		return directory.corrupt ? FALLBACK : null;
+	}
+
+	private static byte[] readEntry(RandomAccessFile raf, long offset, int method, int compressedSize, int size)
+			throws IOException {
+		raf.seek(offset);
+		byte[] stored = new byte[compressedSize];
+		raf.readFully(stored);
+
+		switch (method) {
+			case ZipEntry.STORED :
+				return stored;
+
+			case ZipEntry.DEFLATED :
+				// The inflater needs an extra byte at the end
+				// of the deflated data in nowrap mode
+				Inflater inflater = new Inflater(true);
+				try {
+					byte[] padded = new byte[compressedSize + 1];
+					System.arraycopy(stored, 0, padded, 0, compressedSize);
+					inflater.setInput(padded);
+					byte[] data = new byte[size];
+					int n = 0;
+					while (n < size && !inflater.finished()) {
+						int r = inflater.inflate(data, n, size - n);
+						if (r == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+							throw new ZipException("Truncated " + Jar.DEFAULT_MANIFEST_NAME);
+						n += r;
+					}
+					return data;
+				}
+				catch (DataFormatException e) {
+					throw new ZipException("Invalid " + Jar.DEFAULT_MANIFEST_NAME + ": " + e.getMessage());
+				}
+				finally {
+					inflater.end();
+				}
+
+			default :
+				return FALLBACK;
+		}
+	}
+
+	/*
+	 * The manifest name is ASCII, compare it case insensitive like the JarFile
+	 * does
+	 */
+	private static boolean matches(byte[] name) {
+		for (int i = 0; i < name.length; i++) {
+			int a = name[i];
+			int b = MANIFEST[i];
+			if (a != b && Character.toUpperCase(a) != b)
+				return false;
+		}
+		return true;
+	}
+}
@@ -6,6 +6,7 @@ import java.net.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.jar.*;
 import java.util.regex.*;
 
@@ -47,6 +48,7 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 	private File					base				= new File("").getAbsoluteFile();
 
 	Properties						properties;
+	private volatile Resolved		resolved;
 	String							profile;
 	private Macro					replacer;
 	private long					lastModified;
@@ -83,11 +85,11 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 	}
 
 	public Processor() {
-		properties = new UTF8Properties();
+		properties = new TrackedProperties();
 	}
 
 	public Processor(Properties parent) {
-		properties = new UTF8Properties(parent);
+		properties = new TrackedProperties(parent);
 	}
 
 	public Processor(Processor child) {
@@ -97,9 +99,100 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 
 	public void setParent(Processor processor) {
 		this.parent = processor;
-		Properties ext = new UTF8Properties(processor.properties);
+		Properties ext = new TrackedProperties(processor.properties);
 		ext.putAll(this.properties);
 		this.properties = ext;
+		resolved = null;
+	}
+
+	/**
+	 * Properties that remember when they were last modified. Each modification
+	 * gets a new generation from a global counter, so the highest generation
+	 * in a chain of properties changes whenever any of them changes.
+	 */
+	static class TrackedProperties extends UTF8Properties {
+		private static final long	serialVersionUID	= 1L;
+		final static AtomicLong		generations			= new AtomicLong();
+		volatile long				modified			= generations.incrementAndGet();
+
+		TrackedProperties() {}
+
+		TrackedProperties(Properties defaults) {
+			super(defaults);
+		}
+
+		/*
+		 * The generation is set after the modification, a reader that still
+		 * sees the old generation afterwards can therefore not have missed the
+		 * modification.
+		 */
+		@Override
+		public synchronized Object put(Object key, Object value) {
+			try {
+				return super.put(key, value);
+			}
+			finally {
+				modified = generations.incrementAndGet();
+			}
+		}
+
+		@Override
+		public synchronized void putAll(Map< ? , ? > t) {
+			try {
+				super.putAll(t);
+			}
+			finally {
+				modified = generations.incrementAndGet();
+			}
+		}
+
+		@Override
+		public synchronized Object remove(Object key) {
+			try {
+				return super.remove(key);
+			}
+			finally {
+				modified = generations.incrementAndGet();
+			}
+		}
+
+		@Override
+		public synchronized void clear() {
+			try {
+				super.clear();
+			}
+			finally {
+				modified = generations.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @return the highest generation of these properties and their
+		 *         defaults, or -1 if the defaults are not tracked
+		 */
+		long getGeneration() {
+			long generation = modified;
+			if (defaults == null)
+				return generation;
+			if (!(defaults instanceof TrackedProperties))
+				return -1;
+			long d = ((TrackedProperties) defaults).getGeneration();
+			return d < 0 ? -1 : Math.max(generation, d);
+		}
+	}
+
+	/**
+	 * The resolved property values and the matching keys of wildcard keys for
+	 * one generation of the properties in our parent chain.
+	 */
+	static class Resolved {
+		final long								generation;
+		final ConcurrentMap<String,String>		values	= new ConcurrentHashMap<String,String>();
+		final ConcurrentMap<String,List<String>>	keys	= new ConcurrentHashMap<String,List<String>>();
+
+		Resolved(long generation) {
+			this.generation = generation;
+		}
 	}
 
 	public Processor getParent() {
@@ -716,6 +809,7 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 
 	public void setBase(File base) {
 		this.base = base;
+		resolved = null;
 	}
 
 	public void clear() {
@@ -1135,7 +1229,84 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 		return getProperty(key, deflt, ",");
 	}
 
+	/**
+	 * Get a property. The resolved value is cached until any of the properties
+	 * in the parent chain change, unless the macro processing used something
+	 * else than properties and pure macros, e.g. the ${now} macro or a system
+	 * property.
+	 */
 	public String getProperty(String key, String deflt, String separator) {
+		long generation = getGeneration();
+		if (generation < 0)
+			return resolveProperty(key, deflt, separator);
+
+		Resolved r = getResolved(generation);
+		String cacheKey = deflt == null ? key + '\u0000' + separator : key + '\u0000' + separator + '\u0000'
+				+ deflt;
+		String value = r.values.get(cacheKey);
+		if (value != null)
+			return value == Macro.NULLVALUE ? null : value;
+
+		AtomicInteger impure = getReplacer().impure;
+		int before = impure.get();
+		value = resolveProperty(key, deflt, separator);
+		if (before == impure.get() && generation == getGeneration())
+			r.values.put(cacheKey, value == null ? Macro.NULLVALUE : value);
+		return value;
+	}
+
+	/**
+	 * Answer the highest generation of the properties in the parent chain, it
+	 * changes whenever any of these properties change.
+	 *
+	 * @return the generation or -1 if the properties cannot be tracked
+	 */
+	long getGeneration() {
+		long generation = 0;
+		for (Processor p = this; p != null; p = p.getParent()) {
+			Properties properties = p.getProperties();
+			if (!(properties instanceof TrackedProperties))
+				return -1;
+			long g = ((TrackedProperties) properties).getGeneration();
+			if (g < 0)
+				return -1;
+			generation = Math.max(generation, g);
+		}
+		return generation;
+	}
+
+	private Resolved getResolved(long generation) {
+		Resolved r = resolved;
+		if (r == null || r.generation != generation)
+			resolved = r = new Resolved(generation);
+		return r;
+	}
+
+	/**
+	 * Answer the sorted property keys, including the inherited keys, that
+	 * match the instruction.
+	 */
+	List<String> getMatchingKeys(Instruction ins) {
+		long generation = getGeneration();
+		Resolved r = generation < 0 ? null : getResolved(generation);
+		if (r != null) {
+			List<String> keys = r.keys.get(ins.getInput());
+			if (keys != null)
+				return keys;
+		}
+
+		List<String> keys = new ArrayList<String>();
+		for (String k : SortedList.fromIterator(iterator())) {
+			if (ins.matches(k))
+				keys.add(k);
+		}
+		keys = Collections.unmodifiableList(keys);
+		if (r != null && generation == getGeneration())
+			r.keys.put(ins.getInput(), keys);
+		return keys;
+	}
+
+	private String resolveProperty(String key, String deflt, String separator) {
 
 		String value = null;
 
@@ -1143,17 +1314,14 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 		if (!ins.isLiteral()) {
 			// Handle a wildcard key, make sure they're sorted
 			// for consistency
-			SortedList<String> sortedList = SortedList.fromIterator(iterator());
 			StringBuilder sb = new StringBuilder();
 			String del = "";
-			for (String k : sortedList) {
-				if (ins.matches(k)) {
-					String v = getProperty(k, null);
-					if (v != null) {
-						sb.append(del);
-						del = separator;
-						sb.append(v);
-					}
+			for (String k : getMatchingKeys(ins)) {
+				String v = getProperty(k, null);
+				if (v != null) {
+					sb.append(del);
+					del = separator;
+					sb.append(v);
 				}
 			}
 			if (sb.length() == 0)
@@ -1807,6 +1975,7 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 
 	public void setForceLocal(Collection<String> local) {
 		filter = local;
+		resolved = null;
 	}
 
 	/**
@@ -2148,6 +2317,27 @@ public class Processor extends Domain implements Reporter, Registry, Constants,
 		return executor;
 	}
 
+	/**
+	 * Answer the number of threads to use for work that can run in parallel.
+	 * This is set with the {@link Constants#PARALLEL_THREADS} instruction and
+	 * defaults to the number of available processors.
+	 */
+	public int getParallelThreads() {
+		String threads = getProperty(PARALLEL_THREADS);
+		if (threads != null) {
+			try {
+				int n = Integer.parseInt(threads.trim());
+				if (n > 0)
+					return n;
+			}
+			catch (NumberFormatException e) {
+				// ignore, use the default
+			}
+			warning("%s must be a positive number: %s", PARALLEL_THREADS, threads);
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
 	/**
 	 * These plugins are added to the total list of plugins. The separation is
 	 * necessary because the list of plugins is refreshed now and then so we
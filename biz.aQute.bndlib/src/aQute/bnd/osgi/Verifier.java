@@ -190,9 +190,10 @@ public class Verifier extends Processor {
 			"x86-64",
 																};
 
-	final Analyzer				analyzer;
-	private Instructions		dynamicImports;
-	private boolean				frombuilder;
+	final Analyzer							analyzer;
+	private Instructions					dynamicImports;
+	private final Map<String,Parameters>	headers	= new HashMap<String,Parameters>();
+	private boolean							frombuilder;
 
 	public Verifier(Jar jar) throws Exception {
 		this.analyzer = new Analyzer(this);
@@ -213,6 +214,19 @@ public class Verifier extends Processor {
 		this.main = Domain.domain(manifest);
 	}
 
+	/**
+	 * Answer the parsed header of the manifest. A header is parsed once, the
+	 * checks share the result so they must not modify it.
+	 */
+	private Parameters getManifestParameters(String header) {
+		Parameters parameters = headers.get(header);
+		if (parameters == null) {
+			parameters = parseHeader(manifest.getMainAttributes().getValue(header));
+			headers.put(header, parameters);
+		}
+		return parameters;
+	}
+
 	private void verifyHeaders() {
 		for (String h : main) {
 			if (!HEADER_PATTERN.matcher(h).matches())
@@ -376,7 +390,7 @@ public class Verifier extends Processor {
 	private void verifyComponent() {
 		String serviceComponent = main.get(Constants.SERVICE_COMPONENT);
 		if (serviceComponent != null) {
-			Parameters map = parseHeader(serviceComponent);
+			Parameters map = getManifestParameters(Constants.SERVICE_COMPONENT);
 			for (String component : map.keySet()) {
 				if (component.indexOf("*") < 0 && !dot.exists(component)) {
 					error(Constants.SERVICE_COMPONENT + " entry can not be located in JAR: " + component);
@@ -410,10 +424,12 @@ public class Verifier extends Processor {
 		}
 
 		Domain domain = Domain.domain(m);
+		Parameters imports = m == manifest ? getManifestParameters(Constants.IMPORT_PACKAGE) : domain.getImportPackage();
+		Parameters requires = m == manifest ? getManifestParameters(Constants.REQUIRE_BUNDLE) : domain.getRequireBundle();
 		
 		Set<PackageRef> unresolvedReferences = new TreeSet<PackageRef>(analyzer.getReferred().keySet());
 		unresolvedReferences.removeAll(analyzer.getContained().keySet());
-		for ( String pname : domain.getImportPackage().keySet()) {
+		for ( String pname : imports.keySet()) {
 			PackageRef pref = analyzer.getPackageRef(pname);
 			unresolvedReferences.remove(pref);
 		}
@@ -435,7 +451,7 @@ public class Verifier extends Processor {
 		// we cannot verify anything
 		//
 
-		if (domain.getRequireBundle().isEmpty() && domain.get("ExtensionBundle-Activator") == null
+		if (requires.isEmpty() && domain.get("ExtensionBundle-Activator") == null
 				&& (domain.getFragmentHost()== null || domain.getFragmentHost().getKey().equals("system.bundle"))) {
 
 			if (!unresolvedReferences.isEmpty()) {
@@ -465,7 +481,7 @@ public class Verifier extends Processor {
 	 */
 	private boolean isDynamicImport(PackageRef pack) {
 		if (dynamicImports == null)
-			dynamicImports = new Instructions(main.getDynamicImportPackage());
+			dynamicImports = new Instructions(getManifestParameters(Constants.DYNAMICIMPORT_PACKAGE));
 
 		if (dynamicImports.isEmpty())
 			return false;
@@ -547,11 +563,25 @@ public class Verifier extends Processor {
 			}
 		}
 
+		//
+		// The directory segments are checked once per directory
+		// instead of once per resource
+		//
 		Set<String> segments = new HashSet<String>();
-		for (String path : dot.getResources().keySet()) {
-			String parts[] = path.split("/");
-			for (String part : parts) {
-				if (segments.add(part) && pattern.matcher(part).matches()) {
+		for (Entry<String,Map<String,Resource>> entry : dot.getDirectories().entrySet()) {
+			Map<String,Resource> resources = entry.getValue();
+			if (resources == null || resources.isEmpty())
+				continue;
+
+			String first = resources.keySet().iterator().next();
+			for (String part : entry.getKey().split("/")) {
+				if (part.length() != 0 && segments.add(part) && pattern.matcher(part).matches()) {
+					invalidPaths.add(first);
+				}
+			}
+			for (String path : resources.keySet()) {
+				String name = path.substring(path.lastIndexOf('/') + 1);
+				if (segments.add(name) && pattern.matcher(name).matches()) {
 					invalidPaths.add(path);
 				}
 			}
@@ -569,7 +599,7 @@ public class Verifier extends Processor {
 	 */
 	private void verifyImports() {
 		if (isStrict()) {
-			Parameters map = parseHeader(manifest.getMainAttributes().getValue(Constants.IMPORT_PACKAGE));
+			Parameters map = getManifestParameters(Constants.IMPORT_PACKAGE);
 			Set<String> noimports = new HashSet<String>();
 			Set<String> toobroadimports = new HashSet<String>();
 
@@ -630,7 +660,7 @@ public class Verifier extends Processor {
 	 */
 	private void verifyExports() {
 		if (isStrict()) {
-			Parameters map = parseHeader(manifest.getMainAttributes().getValue(Constants.EXPORT_PACKAGE));
+			Parameters map = getManifestParameters(Constants.EXPORT_PACKAGE);
 			Set<String> noexports = new HashSet<String>();
 
 			for (Entry<String,Attrs> e : map.entrySet()) {
@@ -683,7 +713,7 @@ public class Verifier extends Processor {
 	}
 
 	private void verifyRequirements() {
-		Parameters map = parseHeader(manifest.getMainAttributes().getValue(Constants.REQUIRE_CAPABILITY));
+		Parameters map = getManifestParameters(Constants.REQUIRE_CAPABILITY);
 		for (String key : map.keySet()) {
 			Attrs attrs = map.get(key);
 			verify(attrs, "filter:", FILTERPATTERN, false, "Requirement %s filter not correct", key);
@@ -741,7 +771,7 @@ public class Verifier extends Processor {
 	}
 
 	private void verifyCapabilities() {
-		Parameters map = parseHeader(manifest.getMainAttributes().getValue(Constants.PROVIDE_CAPABILITY));
+		Parameters map = getManifestParameters(Constants.PROVIDE_CAPABILITY);
 		for (String key : map.keySet()) {
 			Attrs attrs = map.get(key);
 			verify(attrs, "cardinality:", CARDINALITY_PATTERN, false, "Requirement %s cardinality not correct", key);
@@ -805,7 +835,7 @@ public class Verifier extends Processor {
 	 */
 	private void verifyDirectives(String header, String directives, Pattern namePattern, String type) {
 		Pattern pattern = Pattern.compile(directives);
-		Parameters map = parseHeader(manifest.getMainAttributes().getValue(header));
+		Parameters map = getManifestParameters(header);
 		for (Entry<String,Attrs> entry : map.entrySet()) {
 			String pname = removeDuplicateMarker(entry.getKey());
 
@@ -876,7 +906,7 @@ public class Verifier extends Processor {
 	}
 
 	public void verifyBundleClasspath() {
-		Parameters bcp = main.getBundleClassPath();
+		Parameters bcp = getManifestParameters(Constants.BUNDLE_CLASSPATH);
 		if (bcp.isEmpty() || bcp.containsKey("."))
 			return;
 
@@ -916,7 +946,7 @@ public class Verifier extends Processor {
 		if (dynamicImportPackage == null)
 			return;
 
-		Parameters map = main.getDynamicImportPackage();
+		Parameters map = getManifestParameters(Constants.DYNAMICIMPORT_PACKAGE);
 		for (String name : map.keySet()) {
 			name = name.trim();
 			if (!verify(name, WILDCARDPACKAGE))
@@ -937,7 +967,7 @@ public class Verifier extends Processor {
 	}
 
 	private void verifySymbolicName() {
-		Parameters bsn = parseHeader(main.get(Analyzer.BUNDLE_SYMBOLICNAME));
+		Parameters bsn = getManifestParameters(Constants.BUNDLE_SYMBOLICNAME);
 		if (!bsn.isEmpty()) {
 			if (bsn.size() > 1)
 				error("More than one BSN specified " + bsn);
@@ -1106,7 +1136,7 @@ public class Verifier extends Processor {
 		if (value == null)
 			return false;
 
-		Parameters map = parseHeader(value);
+		Parameters map = getManifestParameters(name);
 		for (String header : map.keySet()) {
 			if (!regex.matcher(header).matches()) {
 				String msg = "Invalid value for " + name + ", " + value + " does not match " + regex.pattern();
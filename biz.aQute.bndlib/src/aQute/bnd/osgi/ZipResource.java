@@ -89,4 +89,75 @@ public class ZipResource implements Resource {
 	public long size() {
 		return entry.getSize();
 	}
+
+	/**
+	 * The offsets of the local headers of the entries of a ZIP file, read from
+	 * its central directory
+	 */
+	final static Map<ZipFile,Map<String,Long>>	localHeaders	= new WeakHashMap<ZipFile,Map<String,Long>>();
+
+	/**
+	 * Read the content of this entry as it is deflated in the ZIP file, i.e.
+	 * without inflating it. This allows the entry to be copied to another ZIP
+	 * file with its CRC and sizes without an inflate and deflate cycle.
+	 * 
+	 * @param file
+	 *            an open file for {@link #getZipFile()}
+	 * @return the deflated content or null if it is not deflated or cannot be
+	 *         read as is
+	 */
+	byte[] readDeflated(RandomAccessFile file) throws IOException {
+		if (entry.getMethod() != ZipEntry.DEFLATED || entry.getCrc() == -1 || entry.getCompressedSize() < 0)
+			return null;
+
+		Long offset = getLocalHeaders(zip, file).get(entry.getName());
+		if (offset == null)
+			return null;
+
+		long start = CentralDirectory.getDataOffset(file, offset);
+		if (start < 0)
+			return null;
+
+		byte[] data = new byte[(int) entry.getCompressedSize()];
+		file.seek(start);
+		file.readFully(data);
+		return data;
+	}
+
+	public ZipFile getZipFile() {
+		return zip;
+	}
+
+	long getCrc() {
+		return entry.getCrc();
+	}
+
+	private static Map<String,Long> getLocalHeaders(ZipFile zip, RandomAccessFile file) throws IOException {
+		synchronized (localHeaders) {
+			Map<String,Long> offsets = localHeaders.get(zip);
+			if (offsets == null) {
+				offsets = readCentralDirectory(file);
+				localHeaders.put(zip, offsets);
+			}
+			return offsets;
+		}
+	}
+
+	/**
+	 * Read the names and local header offsets of all entries. Encrypted and
+	 * ZIP64 entries are skipped, they are not copied raw.
+	 */
+	private static Map<String,Long> readCentralDirectory(RandomAccessFile file) throws IOException {
+		Map<String,Long> offsets = new HashMap<String,Long>();
+		CentralDirectory directory = CentralDirectory.open(file);
+		if (directory == null)
+			return offsets;
+
+		while (directory.next()) {
+			long offset = directory.getOffset();
+			if (offset != 0xFFFFFFFFL && !directory.isEncrypted())
+				offsets.put(new String(directory.getName(), "UTF-8"), offset);
+		}
+		return offsets;
+	}
 }
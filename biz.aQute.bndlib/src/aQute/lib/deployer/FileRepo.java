@@ -358,72 +358,64 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 	protected File putArtifact(File tmpFile, PutOptions options, byte[] digest) throws Exception {
 		assert (tmpFile != null);
 
-		Jar tmpJar = new Jar(tmpFile);
-		try {
-			String bsn = null;
-			if (options != null && options.bsn != null) {
-				bsn = options.bsn;
-			} else {
-				bsn = tmpJar.getBsn();
-			}
+		Manifest manifest = ManifestReader.read(tmpFile);
+		String bsn = null;
+		if (options != null && options.bsn != null) {
+			bsn = options.bsn;
+		} else {
+			bsn = ManifestReader.getBsn(manifest);
+		}
 
-			if (bsn == null)
-				throw new IllegalArgumentException("No bsn set in jar: " + tmpFile);
+		if (bsn == null)
+			throw new IllegalArgumentException("No bsn set in jar: " + tmpFile);
 
-			Version version = null;
-			if (options != null && options.version != null) {
-				version = options.version;
-			} else {
-				try {
-					version = new Version(tmpJar.getVersion());
-				}
-				catch (Exception e) {
-					throw new IllegalArgumentException("Incorrect version in : " + tmpFile + " " + tmpJar.getVersion());
-				}
+		Version version = null;
+		if (options != null && options.version != null) {
+			version = options.version;
+		} else {
+			try {
+				version = new Version(ManifestReader.getVersion(manifest));
 			}
-
-			if (version == null) {
-				/* should not happen because bsn != null, which mean that the
-				 * jar is valid and it has a manifest. just to be safe though */
-				version = Version.LOWEST;
+			catch (Exception e) {
+				throw new IllegalArgumentException("Incorrect version in : " + tmpFile + " " + ManifestReader.getVersion(manifest));
 			}
+		}
 
-			reporter.trace("bsn=%s version=%s", bsn, version);
+		if (version == null) {
+			/* should not happen because bsn != null, which mean that the
+			 * jar is valid and it has a manifest. just to be safe though */
+			version = Version.LOWEST;
+		}
 
-			File dir = new File(root, bsn);
-			dir.mkdirs();
-			if (!dir.isDirectory())
-				throw new IOException("Could not create directory " + dir);
+		reporter.trace("bsn=%s version=%s", bsn, version);
 
-			String fName = bsn + "-" + version.getWithoutQualifier() + ".jar";
-			File file = new File(dir, fName);
+		File dir = new File(root, bsn);
+		dir.mkdirs();
+		if (!dir.isDirectory())
+			throw new IOException("Could not create directory " + dir);
 
-			reporter.trace("updating %s ", file.getAbsolutePath());
+		String fName = bsn + "-" + version.getWithoutQualifier() + ".jar";
+		File file = new File(dir, fName);
 
-			if (hasIndex)
-				index.put(bsn + "-" + version, buildDescriptor(tmpFile, tmpJar, digest, bsn, version));
+		reporter.trace("updating %s ", file.getAbsolutePath());
 
-			// An open jar on file will fail rename on windows
-			tmpJar.close();
+		if (hasIndex)
+			index.put(bsn + "-" + version, buildDescriptor(tmpFile, manifest, digest, bsn, version));
 
-			dirty = true;
-			IO.rename(tmpFile, file);
+		dirty = true;
+		IO.rename(tmpFile, file);
 
-			fireBundleAdded(file);
-			afterPut(file, bsn, version, Hex.toHexString(digest));
+		fireBundleAdded(file);
+		afterPut(file, bsn, version, Hex.toHexString(digest));
 
-			if (createLatest) {
-				File latest = new File(dir, bsn + LATEST_POSTFIX);
-				IO.copy(file, latest);
-			}
+		if (createLatest) {
+			File latest = new File(dir, bsn + LATEST_POSTFIX);
+			IO.copy(file, latest);
+		}
 
-			reporter.trace("updated %s", file.getAbsolutePath());
+		reporter.trace("updated %s", file.getAbsolutePath());
 
-			return file;
-		}
-		finally {
-			tmpJar.close();
-		}
+		return file;
 	}
 
 	/*
@@ -1012,28 +1004,21 @@ public class FileRepo implements Plugin, RepositoryPlugin, Refreshable, Registry
 		dirty = false;
 	}
 
-	private ResourceDescriptor buildDescriptor(File f, Jar jar, byte[] digest, String bsn, Version version)
+	private ResourceDescriptor buildDescriptor(File f, Manifest m, byte[] digest, String bsn, Version version)
 			throws NoSuchAlgorithmException, Exception {
 		init();
-		Jar tmpjar = jar;
-		if (jar == null)
-			tmpjar = new Jar(f);
-		try {
-			Manifest m = tmpjar.getManifest();
-			ResourceDescriptor rd = new ResourceDescriptor();
-			rd.bsn = bsn;
-			rd.version = version;
-			rd.description = m.getMainAttributes().getValue(Constants.BUNDLE_DESCRIPTION);
-			rd.id = digest;
-			if (rd.id == null)
-				rd.id = SHA1.digest(f).digest();
-			rd.sha256 = SHA256.digest(f).digest();
-			rd.url = f.toURI();
-			return rd;
-		}
-		finally {
-			if (tmpjar != null)
-				tmpjar.close();
-		}
+		if (m == null)
+			m = ManifestReader.read(f);
+
+		ResourceDescriptor rd = new ResourceDescriptor();
+		rd.bsn = bsn;
+		rd.version = version;
+		rd.description = m == null ? null : m.getMainAttributes().getValue(Constants.BUNDLE_DESCRIPTION);
+		rd.id = digest;
+		if (rd.id == null)
+			rd.id = SHA1.digest(f).digest();
+		rd.sha256 = SHA256.digest(f).digest();
+		rd.url = f.toURI();
+		return rd;
 	}
 }
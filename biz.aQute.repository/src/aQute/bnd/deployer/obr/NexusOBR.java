@@ -4,6 +4,7 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.jar.*;
 
 import aQute.bnd.deployer.repository.*;
 import aQute.bnd.osgi.*;
@@ -209,24 +210,20 @@ public class NexusOBR extends AbstractIndexedRepo {
 
 		Version version;
 		String bsn;
-		Jar jar = new Jar(tmpFile);
-		try {
-			bsn = jar.getBsn();
-			if (bsn == null || !Verifier.isBsn(bsn))
-				throw new IllegalArgumentException(
-						"Jar does not have a " + Constants.BUNDLE_SYMBOLICNAME + " manifest header");
-
-			String versionString = jar.getVersion();
-			if (versionString == null)
-				versionString = "0";
-			else if (!Verifier.isVersion(versionString))
-				throw new IllegalArgumentException("Invalid version "
-						+ versionString + " in file " + tmpFile);
-
-			version = Version.parseVersion(versionString);
-		} finally {
-			jar.close();
-		}
+		Manifest manifest = ManifestReader.read(tmpFile);
+		bsn = ManifestReader.getBsn(manifest);
+		if (bsn == null || !Verifier.isBsn(bsn))
+			throw new IllegalArgumentException(
+					"Jar does not have a " + Constants.BUNDLE_SYMBOLICNAME + " manifest header");
+
+		String versionString = ManifestReader.getVersion(manifest);
+		if (versionString == null)
+			versionString = "0";
+		else if (!Verifier.isVersion(versionString))
+			throw new IllegalArgumentException("Invalid version "
+					+ versionString + " in file " + tmpFile);
+
+		version = Version.parseVersion(versionString);
 		URL url = put(tmpFile, bsn, version);
 		reset();
 		return url;
@@ -196,8 +196,7 @@ public abstract class AbstractIndexedRepo implements RegistryPlugin, Plugin, Rem
 					}
 					indexHandle.setReporter(reporter);
 					File indexFile = indexHandle.request();
-					InputStream indexStream = GZipUtils.detectCompression(new FileInputStream(indexFile));
-					readIndex(indexFile.getName(), indexLocation, indexStream, allContentProviders.values(), processor, logService);
+					loadIndex(indexHandle, indexFile, indexLocation, processor);
 				}
 				catch (Exception e) {
 					error("Unable to read index at URL '%s': %s", indexLocation, e);
@@ -208,6 +207,59 @@ public abstract class AbstractIndexedRepo implements RegistryPlugin, Plugin, Rem
 		}
 	}
 
+	/**
+	 * Read the resources of an index. Parsing a large index is slow so the
+	 * resources are taken from the snapshot in the cache directory when the
+	 * index has not changed since it was last parsed. Otherwise the index is
+	 * parsed and a new snapshot is written. Indexes with referrals are always
+	 * parsed.
+	 */
+	private void loadIndex(CachingUriResourceHandle indexHandle, File indexFile, URI indexLocation,
+			final IRepositoryIndexProcessor processor) throws Exception {
+		File cacheDir = getCacheDirectory();
+		IndexSnapshot snapshot = null;
+		String sha = null;
+		if (cacheDir != null) {
+			snapshot = new IndexSnapshot(cacheDir, indexLocation, allContentProviders.keySet());
+			sha = indexHandle.cachedFile != null ? indexHandle.getCachedSHA() : CachingUriResourceHandle
+					.calculateSHA(indexFile);
+			List<Resource> resources = snapshot.read(sha);
+			if (resources != null) {
+				for (Resource resource : resources)
+					processor.processResource(resource);
+				return;
+			}
+		}
+
+		final List<Resource> resources = new ArrayList<Resource>();
+		final boolean[] referrals = new boolean[1];
+		InputStream indexStream = GZipUtils.detectCompression(new FileInputStream(indexFile));
+		readIndex(indexFile.getName(), indexLocation, indexStream, allContentProviders.values(),
+				new IRepositoryIndexProcessor() {
+
+					public void processResource(Resource resource) {
+						resources.add(resource);
+						processor.processResource(resource);
+					}
+
+					public void processReferral(URI parentUri, Referral referral, int maxDepth, int currentDepth) {
+						referrals[0] = true;
+						processor.processReferral(parentUri, referral, maxDepth, currentDepth);
+					}
+
+				}, logService);
+
+		if (snapshot != null && sha != null && !referrals[0]) {
+			try {
+				snapshot.write(sha, resources);
+			}
+			catch (Exception e) {
+				logService.log(LogService.LOG_INFO,
+						String.format("Unable to write snapshot of index at URL '%s': %s", indexLocation, e));
+			}
+		}
+	}
+
 	public final List<URI> getIndexLocations() throws Exception {
 		init();
 		return Collections.unmodifiableList(indexLocations);
@@ -1,17 +1,116 @@
 package aQute.bnd.deployer.repository;
 
+import java.lang.reflect.*;
 import java.util.*;
 
 import org.osgi.framework.*;
 import org.osgi.resource.*;
 
-
+/**
+ * Finds the capabilities that match a requirement. The capabilities of a
+ * namespace are indexed on the value of the primary attribute of the
+ * namespace, e.g. the package name for osgi.wiring.package or the bsn for
+ * osgi.identity. When the filter of a requirement demands a value for this
+ * attribute, like (&(osgi.wiring.package=com.foo)(version>=1.0)), only the
+ * capabilities with that value are matched against the filter. Other filters
+ * are matched against all the capabilities of the namespace.
+ * <p>
+ * The matching capabilities are returned in the order they were added.
+ */
 public class CapabilityIndex {
+	final static int					MAX_FILTERS		= 1000;
+
+	private final Map<String,Bucket>	capabilityMap	= new HashMap<String,Bucket>();
+	private final Map<String,Filter>	filters			= Collections
+																.synchronizedMap(new LinkedHashMap<String,Filter>(16,
+																		0.75f, true) {
+																	private static final long	serialVersionUID	= 1L;
+
+																	@Override
+																	protected boolean removeEldestEntry(
+																			Map.Entry<String,Filter> eldest) {
+																		return size() > MAX_FILTERS;
+																	}
+																});
+	private int							sequence;
+
+	/*
+	 * A capability with the order in which it was added
+	 */
+	private static class Entry {
+		final int			order;
+		final Capability	capability;
+
+		Entry(int order, Capability capability) {
+			this.order = order;
+			this.capability = capability;
+		}
+	}
 
-	private final Map<String,List<Capability>>	capabilityMap	= new HashMap<String,List<Capability>>();
+	/*
+	 * The capabilities of a namespace. Capabilities without a string value
+	 * for the primary attribute are not indexed, they are always matched.
+	 */
+	private static class Bucket {
+		final String					attribute;
+		final List<Entry>				all			= new ArrayList<Entry>();
+		final List<Entry>				unindexed	= new ArrayList<Entry>();
+		final Map<String,List<Entry>>	index		= new HashMap<String,List<Entry>>();
+
+		Bucket(String namespace) {
+			this.attribute = getPrimaryAttribute(namespace);
+		}
+
+		void add(Entry entry) {
+			all.add(entry);
+
+			Collection<String> values = getValues(entry.capability.getAttributes().get(attribute));
+			if (values == null) {
+				unindexed.add(entry);
+				return;
+			}
+
+			for (String value : values) {
+				List<Entry> list = index.get(value);
+				if (list == null) {
+					list = new ArrayList<Entry>(1);
+					index.put(value, list);
+				}
+				if (list.isEmpty() || list.get(list.size() - 1) != entry)
+					list.add(entry);
+			}
+		}
+
+		/*
+		 * The capabilities that can match the filter in the order they were
+		 * added
+		 */
+		List<Entry> candidates(String filter) {
+			String value = getIndexValue(filter, attribute);
+			if (value == null)
+				return all;
+
+			List<Entry> indexed = index.get(value);
+			if (indexed == null)
+				return unindexed;
+			if (unindexed.isEmpty())
+				return indexed;
+
+			List<Entry> result = new ArrayList<Entry>(indexed.size() + unindexed.size());
+			int i = 0, u = 0;
+			while (i < indexed.size() || u < unindexed.size()) {
+				if (u == unindexed.size() || i < indexed.size() && indexed.get(i).order < unindexed.get(u).order)
+					result.add(indexed.get(i++));
+				else
+					result.add(unindexed.get(u++));
+			}
+			return result;
+		}
+	}
 
 	public void clear() {
 		capabilityMap.clear();
+		filters.clear();
 	}
 
 	public void addResource(Resource resource) {
@@ -23,34 +122,33 @@ public class CapabilityIndex {
 			addCapability(cap);
 		}
 	}
-	
+
 	public void addCapability(Capability cap) {
-		List<Capability> list = capabilityMap.get(cap.getNamespace());
-		if (list == null) {
-			list = new LinkedList<Capability>();
-			capabilityMap.put(cap.getNamespace(), list);
+		Bucket bucket = capabilityMap.get(cap.getNamespace());
+		if (bucket == null) {
+			bucket = new Bucket(cap.getNamespace());
+			capabilityMap.put(cap.getNamespace(), bucket);
 		}
-		list.add(cap);
+		bucket.add(new Entry(sequence++, cap));
 	}
 
 	public void appendMatchingCapabilities(Requirement requirement, Collection< ? super Capability> capabilities) {
-		List<Capability> caps = capabilityMap.get(requirement.getNamespace());
-		if (caps == null || caps.isEmpty())
+		Bucket bucket = capabilityMap.get(requirement.getNamespace());
+		if (bucket == null || bucket.all.isEmpty())
 			return;
 
 		try {
 			String filterStr = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
-			Filter filter = filterStr != null ? FrameworkUtil.createFilter(filterStr) : null;
-
-			for (Capability cap : caps) {
-				boolean match;
-				if (filter == null)
-					match = true;
-				else
-					match = filter.match(new MapToDictionaryAdapter(cap.getAttributes()));
+			if (filterStr == null) {
+				for (Entry entry : bucket.all)
+					capabilities.add(entry.capability);
+				return;
+			}
 
-				if (match)
-					capabilities.add(cap);
+			Filter filter = getFilter(filterStr);
+			for (Entry entry : bucket.candidates(filterStr)) {
+				if (filter.match(new MapToDictionaryAdapter(entry.capability.getAttributes())))
+					capabilities.add(entry.capability);
 			}
 		}
 		catch (InvalidSyntaxException e) {
@@ -58,4 +156,109 @@ public class CapabilityIndex {
 		}
 	}
 
+	/*
+	 * The same filters are used over and over during a resolve, compiling
+	 * them is not cheap
+	 */
+	private Filter getFilter(String filterStr) throws InvalidSyntaxException {
+		Filter filter = filters.get(filterStr);
+		if (filter == null) {
+			filter = FrameworkUtil.createFilter(filterStr);
+			filters.put(filterStr, filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * The attribute that identifies a capability in its namespace. By
+	 * convention this is the attribute with the name of the namespace, e.g.
+	 * osgi.wiring.package, except for services.
+	 */
+	static String getPrimaryAttribute(String namespace) {
+		if ("osgi.service".equals(namespace))
+			return Constants.OBJECTCLASS;
+		return namespace;
+	}
+
+	/*
+	 * The string values of an attribute, or null if it has a value that is
+	 * not a string and so does not have to be equal to match
+	 */
+	static Collection<String> getValues(Object value) {
+		if (value instanceof String)
+			return Collections.singleton((String) value);
+
+		if (value != null && value.getClass().isArray()) {
+			List<Object> list = new ArrayList<Object>();
+			for (int i = 0; i < Array.getLength(value); i++)
+				list.add(Array.get(value, i));
+			value = list;
+		}
+
+		if (!(value instanceof Collection))
+			return null;
+
+		List<String> result = new ArrayList<String>();
+		for (Object member : (Collection< ? >) value) {
+			if (!(member instanceof String))
+				return null;
+			result.add((String) member);
+		}
+		return result;
+	}
+
+	/**
+	 * Answer the value the filter demands for the attribute. This is the
+	 * value of an equality like (osgi.wiring.package=com.foo) that is the
+	 * filter or one of the operands of a top level and. Null is returned when
+	 * there is no such value, for example for a wildcard or a value with
+	 * escapes.
+	 */
+	static String getIndexValue(String filter, String attribute) {
+		String s = filter.trim();
+		if (!s.startsWith("(&"))
+			return getEqualValue(s, attribute);
+
+		int depth = 0;
+		int start = -1;
+		for (int i = 2; i < s.length() - 1; i++) {
+			char c = s.charAt(i);
+			if (c == '\\') {
+				i++;
+				continue;
+			}
+
+			if (c == '(') {
+				if (depth++ == 0)
+					start = i;
+			} else if (c == ')') {
+				if (--depth == 0) {
+					String value = getEqualValue(s.substring(start, i + 1), attribute);
+					if (value != null)
+						return value;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String getEqualValue(String simple, String attribute) {
+		if (!simple.startsWith("(") || !simple.endsWith(")"))
+			return null;
+
+		int eq = simple.indexOf('=');
+		if (eq < 2 || "~<>".indexOf(simple.charAt(eq - 1)) >= 0)
+			return null;
+
+		String name = simple.substring(1, eq).trim();
+		if (!name.equalsIgnoreCase(attribute))
+			return null;
+
+		String value = simple.substring(eq + 1, simple.length() - 1);
+		for (int i = 0; i < value.length(); i++) {
+			if ("*\\()".indexOf(value.charAt(i)) >= 0)
+				return null;
+		}
+		return value;
+	}
 }
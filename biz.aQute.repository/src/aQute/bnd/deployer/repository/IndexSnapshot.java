@@ -0,0 +1,300 @@
+package aQute.bnd.deployer.repository;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.*;
+
+import aQute.bnd.osgi.resource.*;
+import aQute.libg.cryptography.*;
+
+/**
+ * A binary snapshot of the resources parsed from a repository index. Parsing a
+ * large XML index is slow, the snapshot is stored next to the cached indexes
+ * and read back when the index has not changed since, i.e. when the SHA-256
+ * of the index is still the same. The snapshot also records the location of
+ * the index, relative URLs in the index are resolved against it, and the
+ * content providers that were available to parse it.
+ * <p>
+ * Strings are stored once in a table so the resources share the instances of
+ * namespaces, attribute names and common values. Attribute values keep their
+ * type: String, Long, Double, Version, URI and lists of these. A snapshot
+ * that cannot be read, for example because it was written by another version,
+ * is deleted and the index is parsed again.
+ */
+class IndexSnapshot {
+	/*
+	 * Must be changed when the format of the file changes
+	 */
+	final static int	VERSION			= 1;
+	final static int	MAGIC			= 0xBD5A0000 + VERSION;
+
+	final static byte	TYPE_STRING		= 0;
+	final static byte	TYPE_LONG		= 1;
+	final static byte	TYPE_DOUBLE		= 2;
+	final static byte	TYPE_VERSION	= 3;
+	final static byte	TYPE_URI		= 4;
+	final static byte	TYPE_LIST		= 5;
+
+	final File			file;
+	final String		key;
+
+	/**
+	 * @param dir
+	 *            the cache directory
+	 * @param location
+	 *            the location of the index
+	 * @param providers
+	 *            the names of the content providers that can parse the index
+	 */
+	IndexSnapshot(File dir, URI location, Collection<String> providers) throws Exception {
+		this.key = location + " " + providers;
+		this.file = new File(new File(dir, ".snapshots"), SHA1.digest(key.getBytes("UTF-8")).asHex() + ".snapshot");
+	}
+
+	/**
+	 * Answer the resources of the index with the given SHA.
+	 *
+	 * @return the resources or null if there is no snapshot for this version
+	 *         of the index
+	 */
+	List<Resource> read(String sha) {
+		if (sha == null || !file.isFile())
+			return null;
+
+		try {
+			//
+			// The snapshot is read in one go, parsing from memory is much
+			// faster than from a file stream
+			//
+			byte[] data = new byte[(int) file.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				in.readFully(data);
+			}
+			finally {
+				in.close();
+			}
+
+			in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not an index snapshot " + file);
+
+			if (!key.equals(readUTF8(in)) || !sha.equalsIgnoreCase(readUTF8(in)))
+				return null;
+
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = readUTF8(in);
+
+			int n = in.readInt();
+			List<Resource> resources = new ArrayList<Resource>(n);
+			for (int i = 0; i < n; i++)
+				resources.add(readResource(in, strings));
+			return resources;
+		}
+		catch (Exception e) {
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store the resources of the index with the given SHA. The file is written
+	 * under a temporary name and then renamed so other processes never see a
+	 * partial snapshot.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if an attribute has a value that cannot be stored
+	 */
+	void write(String sha, List<Resource> resources) throws IOException {
+		//
+		// Collect the strings first, the table is read before the resources
+		//
+		Map<String,Integer> strings = new LinkedHashMap<String,Integer>();
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bout);
+		body.writeInt(resources.size());
+		for (Resource resource : resources)
+			writeResource(body, strings, resource);
+		body.close();
+
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create directory for index snapshots " + dir);
+
+		File tmp = File.createTempFile("snapshot", ".tmp", dir);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				writeUTF8(out, key);
+				writeUTF8(out, sha);
+				out.writeInt(strings.size());
+				for (String s : strings.keySet())
+					writeUTF8(out, s);
+				bout.writeTo(out);
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				tmp.renameTo(file);
+			}
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	private static Resource readResource(DataInputStream in, String[] strings) throws IOException {
+		ResourceBuilder builder = new ResourceBuilder();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++)
+			builder.addCapability(readCapReq(in, strings));
+		n = in.readInt();
+		for (int i = 0; i < n; i++)
+			builder.addRequirement(readCapReq(in, strings));
+		return builder.build();
+	}
+
+	private static void writeResource(DataOutputStream out, Map<String,Integer> strings, Resource resource)
+			throws IOException {
+		List<Capability> capabilities = resource.getCapabilities(null);
+		out.writeInt(capabilities.size());
+		for (Capability capability : capabilities)
+			writeCapReq(out, strings, capability.getNamespace(), capability.getAttributes(),
+					capability.getDirectives());
+
+		List<Requirement> requirements = resource.getRequirements(null);
+		out.writeInt(requirements.size());
+		for (Requirement requirement : requirements)
+			writeCapReq(out, strings, requirement.getNamespace(), requirement.getAttributes(),
+					requirement.getDirectives());
+	}
+
+	private static CapReqBuilder readCapReq(DataInputStream in, String[] strings) throws IOException {
+		CapReqBuilder builder = new CapReqBuilder(readString(in, strings));
+		int n = in.readInt();
+		for (int i = 0; i < n; i++)
+			builder.addAttribute(readString(in, strings), readValue(in, strings));
+		n = in.readInt();
+		for (int i = 0; i < n; i++)
+			builder.addDirective(readString(in, strings), readString(in, strings));
+		return builder;
+	}
+
+	private static void writeCapReq(DataOutputStream out, Map<String,Integer> strings, String namespace,
+			Map<String,Object> attributes, Map<String,String> directives) throws IOException {
+		writeString(out, strings, namespace);
+		out.writeInt(attributes.size());
+		for (Map.Entry<String,Object> entry : attributes.entrySet()) {
+			writeString(out, strings, entry.getKey());
+			writeValue(out, strings, entry.getValue());
+		}
+		out.writeInt(directives.size());
+		for (Map.Entry<String,String> entry : directives.entrySet()) {
+			writeString(out, strings, entry.getKey());
+			writeString(out, strings, entry.getValue());
+		}
+	}
+
+	private static Object readValue(DataInputStream in, String[] strings) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case TYPE_STRING :
+				return readString(in, strings);
+			case TYPE_LONG :
+				return in.readLong();
+			case TYPE_DOUBLE :
+				return in.readDouble();
+			case TYPE_VERSION :
+				return Version.parseVersion(readString(in, strings));
+			case TYPE_URI :
+				try {
+					return new URI(readString(in, strings));
+				}
+				catch (URISyntaxException e) {
+					throw new IOException("Invalid URI in index snapshot: " + e.getMessage());
+				}
+			case TYPE_LIST :
+				int n = in.readInt();
+				List<Object> list = new ArrayList<Object>(n);
+				for (int i = 0; i < n; i++)
+					list.add(readValue(in, strings));
+				return list;
+			default :
+				throw new IOException("Unknown value type in index snapshot " + type);
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, Map<String,Integer> strings, Object value)
+			throws IOException {
+		if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			writeString(out, strings, (String) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Version) {
+			out.writeByte(TYPE_VERSION);
+			writeString(out, strings, value.toString());
+		} else if (value instanceof URI) {
+			out.writeByte(TYPE_URI);
+			writeString(out, strings, value.toString());
+		} else if (value instanceof List) {
+			List< ? > list = (List< ? >) value;
+			out.writeByte(TYPE_LIST);
+			out.writeInt(list.size());
+			for (Object member : list)
+				writeValue(out, strings, member);
+		} else
+			throw new IllegalArgumentException("Cannot store a value of " + (value == null ? null : value.getClass())
+					+ " in an index snapshot");
+	}
+
+	private static String readString(DataInputStream in, String[] strings) throws IOException {
+		int index = in.readInt();
+		if (index < 0 || index >= strings.length)
+			throw new IOException("Invalid string index in index snapshot " + index);
+		return strings[index];
+	}
+
+	private static void writeString(DataOutputStream out, Map<String,Integer> strings, String s) throws IOException {
+		Integer index = strings.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.put(s, index);
+		}
+		out.writeInt(index);
+	}
+
+	/*
+	 * writeUTF is limited to 64k, a uses directive can be longer
+	 */
+	private static void writeUTF8(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readUTF8(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid string length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	@Override
+	public String toString() {
+		return "IndexSnapshot[" + file + "]";
+	}
+}
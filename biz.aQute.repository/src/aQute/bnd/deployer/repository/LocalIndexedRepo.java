@@ -4,6 +4,7 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.jar.*;
 
 import org.osgi.service.coordinator.*;
 import org.osgi.service.log.*;
@@ -18,6 +19,7 @@ import aQute.bnd.version.*;
 import aQute.lib.hex.*;
 import aQute.lib.io.*;
 import aQute.libg.cryptography.*;
+import aQute.libg.gzip.*;
 
 public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, Participant, Actionable {
 
@@ -112,6 +114,20 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 	}
 
 	synchronized void regenerateAllIndexes() {
+		updateAllIndexes(null, null);
+	}
+
+	/**
+	 * Update the indexes for added and removed files. Only the added files are
+	 * indexed when the content provider can update its index, otherwise the
+	 * index is generated from all the files in the repository.
+	 *
+	 * @param added the files that were added or replaced, or {@code null} to
+	 *            regenerate the indexes
+	 * @param removed the files that were removed, or {@code null} to
+	 *            regenerate the indexes
+	 */
+	synchronized void updateAllIndexes(Set<File> added, Set<File> removed) {
 		for (IRepositoryContentProvider provider : generatingProviders) {
 			if (!provider.supportsGeneration()) {
 				logService.log(LogService.LOG_WARNING,
@@ -120,6 +136,18 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 			}
 			File indexFile = getIndexFile(provider);
 			try {
+				if (added != null && removed != null && provider instanceof IRepositoryIndexUpdater
+						&& indexFile.isFile()) {
+					try {
+						updateIndex(indexFile, (IRepositoryIndexUpdater) provider, added, removed);
+						continue;
+					}
+					catch (Exception e) {
+						logService.log(LogService.LOG_WARNING, String.format(
+								"Unable to update index file '%s' for repository type %s, regenerating it", indexFile,
+								provider.getName()), e);
+					}
+				}
 				generateIndex(indexFile, provider);
 			}
 			catch (Exception e) {
@@ -130,6 +158,40 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 		}
 	}
 
+	private synchronized void updateIndex(File indexFile, IRepositoryIndexUpdater provider, Set<File> added,
+			Set<File> removed) throws Exception {
+		//
+		// The index is written next to the old one and then renamed so a
+		// failure leaves the old index intact
+		//
+		File tmp = IO.createTempFile(storageDir, "index", ".tmp");
+		try {
+			InputStream in = GZipUtils.detectCompression(new FileInputStream(indexFile));
+			try {
+				OutputStream out = new FileOutputStream(tmp);
+				try {
+					URI rootUri = storageDir.getCanonicalFile().toURI();
+					provider.updateIndex(in, added, removed, out, this.getName(), rootUri, pretty, registry, logService);
+				}
+				finally {
+					out.close();
+				}
+			}
+			finally {
+				in.close();
+			}
+
+			File shaFile = new File(indexFile.getPath() + REPO_INDEX_SHA_EXTENSION);
+			shaFile.delete();
+			IO.rename(tmp, indexFile);
+			writeSHAFile(indexFile, shaFile);
+		}
+		finally {
+			if (tmp.exists())
+				IO.delete(tmp);
+		}
+	}
+
 	private synchronized void generateIndex(File indexFile, IRepositoryContentProvider provider) throws Exception {
 		if (indexFile.exists() && !indexFile.isFile())
 			throw new IllegalArgumentException(String.format(
@@ -155,9 +217,14 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 			shaFile.delete();
 		}
 
+		writeSHAFile(indexFile, shaFile);
+	}
+
+	private static void writeSHAFile(File indexFile, File shaFile) throws Exception {
 		MessageDigest md = MessageDigest.getInstance(SHA256.ALGORITHM);
 		IO.copy(indexFile, md);
 
+		FileOutputStream out = null;
 		try {
 			out = new FileOutputStream(shaFile);
 			out.write(Hex.toHexString(md.digest()).toLowerCase().toString().getBytes());
@@ -192,12 +259,19 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 
 	private synchronized void finishPut() throws Exception {
 		reset();
-		regenerateAllIndexes();
 
-		List<URI> clone = new ArrayList<URI>(newFilesInCoordination);
+		List<URI> clone;
 		synchronized (newFilesInCoordination) {
+			clone = new ArrayList<URI>(newFilesInCoordination);
 			newFilesInCoordination.clear();
 		}
+
+		// Only the files put in this coordination need to be indexed
+		Set<File> added = new HashSet<File>();
+		for (URI entry : clone)
+			added.add(new File(entry));
+		updateAllIndexes(added, Collections.<File> emptySet());
+
 		for (URI entry : clone) {
 			File file = new File(entry);
 			fireBundleAdded(file);
@@ -230,52 +304,44 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 
 		init();
 
-		Jar jar = new Jar(tmpFile);
-		try {
-			String bsn = jar.getBsn();
-			if (bsn == null || !Verifier.isBsn(bsn))
-				throw new IllegalArgumentException("Jar does not have a symbolic name");
-
-			File dir = new File(storageDir, bsn);
-			if (dir.exists() && !dir.isDirectory())
-				throw new IllegalArgumentException("Path already exists but is not a directory: "
-						+ dir.getAbsolutePath());
-			if (!dir.exists() && !dir.mkdirs()) {
-				throw new IOException("Could not create directory " + dir);
-			}
-
-			String versionString = jar.getVersion();
-			if (versionString == null)
-				versionString = "0";
-			else if (!Verifier.isVersion(versionString))
-				throw new IllegalArgumentException("Invalid version " + versionString + " in file " + tmpFile);
+		Manifest manifest = ManifestReader.read(tmpFile);
+		String bsn = ManifestReader.getBsn(manifest);
+		if (bsn == null || !Verifier.isBsn(bsn))
+			throw new IllegalArgumentException("Jar does not have a symbolic name");
+
+		File dir = new File(storageDir, bsn);
+		if (dir.exists() && !dir.isDirectory())
+			throw new IllegalArgumentException("Path already exists but is not a directory: "
+					+ dir.getAbsolutePath());
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Could not create directory " + dir);
+		}
 
-			Version version = Version.parseVersion(versionString);
-			String fName = bsn + "-" + version.getWithoutQualifier() + ".jar";
-			File file = new File(dir, fName);
+		String versionString = ManifestReader.getVersion(manifest);
+		if (versionString == null)
+			versionString = "0";
+		else if (!Verifier.isVersion(versionString))
+			throw new IllegalArgumentException("Invalid version " + versionString + " in file " + tmpFile);
 
-			// check overwrite policy
-			if (!overwrite && file.exists())
-				return null;
+		Version version = Version.parseVersion(versionString);
+		String fName = bsn + "-" + version.getWithoutQualifier() + ".jar";
+		File file = new File(dir, fName);
 
-			// An open jar on file will fail rename on windows
-			jar.close();
-
-			IO.rename(tmpFile, file);
+		// check overwrite policy
+		if (!overwrite && file.exists())
+			return null;
 
-			synchronized (newFilesInCoordination) {
-				newFilesInCoordination.add(file.toURI());
-			}
+		IO.rename(tmpFile, file);
 
-			Coordinator coordinator = (registry != null) ? registry.getPlugin(Coordinator.class) : null;
-			if (!(coordinator != null && coordinator.addParticipant(this))) {
-				finishPut();
-			}
-			return file;
+		synchronized (newFilesInCoordination) {
+			newFilesInCoordination.add(file.toURI());
 		}
-		finally {
-			jar.close();
+
+		Coordinator coordinator = (registry != null) ? registry.getPlugin(Coordinator.class) : null;
+		if (!(coordinator != null && coordinator.addParticipant(this))) {
+			finishPut();
 		}
+		return file;
 	}
 
 	/* NOTE: this is a straight copy of FileRepo.put */
@@ -400,20 +466,25 @@ public class LocalIndexedRepo extends FixedIndexedRepo implements Refreshable, P
 				map.put("Delete", new Runnable() {
 
 					public void run() {
-						deleteEntry(f);						
-						regenerateAllIndexes();
+						Set<File> removed = deleteEntry(f);
+						updateAllIndexes(Collections.<File> emptySet(), removed);
 					}
 
-					private void deleteEntry(final File f) {
+					private Set<File> deleteEntry(final File f) {
+						Set<File> removed = new HashSet<File>();
 						File parent = f.getParentFile();
 						f.delete();
+						removed.add(f);
 						File[] listFiles = parent.listFiles();
-						if ( listFiles.length == 1 && listFiles[0].getName().endsWith("-latest.jar"))
+						if ( listFiles.length == 1 && listFiles[0].getName().endsWith("-latest.jar")) {
 							listFiles[0].delete();
+							removed.add(listFiles[0]);
+						}
 						
 						listFiles = parent.listFiles();
 						if ( listFiles.length == 0) 
 							IO.delete(parent);
+						return removed;
 					}
 					
 				});
@@ -0,0 +1,56 @@
+package aQute.bnd.deployer.repository.api;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.osgi.service.log.*;
+
+import aQute.bnd.service.*;
+
+/**
+ * A content provider that can update an index it generated without indexing
+ * all the files of the repository again.
+ */
+public interface IRepositoryIndexUpdater extends IRepositoryContentProvider {
+
+	/**
+	 * Update an existing repository index. Only the added files are indexed,
+	 * the other resources are copied from the existing index. Clients must not
+	 * call this method if the provider returns {@code false} from
+	 * {@link #supportsGeneration()}.
+	 *
+	 * @param input
+	 *            The existing index, as generated by
+	 *            {@link #generateIndex(Set, OutputStream, String, URI, boolean, Registry, LogService)}
+	 *            .
+	 * @param added
+	 *            The files to be indexed. A resource in the existing index for
+	 *            one of these files is replaced.
+	 * @param removed
+	 *            The files whose resources must be removed from the index.
+	 * @param output
+	 *            The output stream, on which the updated index should be
+	 *            written.
+	 * @param repoName
+	 *            The name of the repository, which may be entered into the
+	 *            generated index.
+	 * @param rootUri
+	 *            The URI of the repository.
+	 * @param pretty
+	 *            Hint to request "pretty printing", i.e. uncompressed, indented
+	 *            output.
+	 * @param registry
+	 *            The bnd workspace plug-in registry if available, or
+	 *            {@code null}.
+	 * @param log
+	 *            The OSGi log service if available, or {@code null}.
+	 * @throws Exception
+	 *             If the existing index cannot be read or any other error
+	 *             unrecoverable occurs. The index should then be generated
+	 *             again.
+	 */
+	void updateIndex(InputStream input, Set<File> added, Set<File> removed, OutputStream output, String repoName,
+			URI rootUri, boolean pretty, Registry registry, LogService log) throws Exception;
+
+}
@@ -7,7 +7,9 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
+import javax.xml.namespace.*;
 import javax.xml.stream.*;
+import javax.xml.stream.events.*;
 
 import org.osgi.framework.*;
 import org.osgi.resource.Resource;
@@ -20,7 +22,7 @@ import aQute.bnd.deployer.repository.api.*;
 import aQute.bnd.osgi.resource.*;
 import aQute.bnd.service.*;
 
-public class R5RepoContentProvider implements IRepositoryContentProvider {
+public class R5RepoContentProvider implements IRepositoryIndexUpdater {
 
 	public static final String	NAME					= "R5";
 
@@ -244,6 +246,160 @@ public class R5RepoContentProvider implements IRepositoryContentProvider {
 	}
 
 	public void generateIndex(Set<File> files, OutputStream output, String repoName, URI baseUri, boolean pretty, Registry registry, LogService log) throws Exception {
+		RepoIndex indexer = createIndexer(registry, log);
+		indexer.index(files, output, createConfig(repoName, baseUri, pretty));
+	}
+
+	/**
+	 * Update an index by copying the resources of the existing index and
+	 * indexing only the added files. The resources are recognized by their
+	 * osgi.content URL, resolved against the base URI.
+	 */
+	public void updateIndex(InputStream input, Set<File> added, Set<File> removed, OutputStream output, String repoName, URI baseUri, boolean pretty, Registry registry, LogService log) throws Exception {
+		Set<File> skip = new HashSet<File>();
+		for (File file : added)
+			skip.add(file.getCanonicalFile());
+		for (File file : removed)
+			skip.add(file.getCanonicalFile());
+
+		// Index the new files first, this is the part that takes time
+		StringWriter fragment = new StringWriter();
+		fragment.write("<" + TAG_REPOSITORY + " xmlns='" + NS_URI + "'>");
+		if (!added.isEmpty()) {
+			RepoIndex indexer = createIndexer(registry, log);
+			indexer.indexFragment(new TreeSet<File>(added), fragment, createConfig(repoName, baseUri, pretty));
+		}
+		fragment.write("</" + TAG_REPOSITORY + ">");
+
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		inputFactory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+		XMLEventReader reader = inputFactory.createXMLEventReader(input);
+		XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(output, "UTF-8");
+		try {
+			int depth = 0;
+			List<XMLEvent> resource = null;
+			String namespace = null;
+			File file = null;
+
+			// The indentation before a resource goes with the resource
+			XMLEvent indent = null;
+
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				switch (event.getEventType()) {
+					case START_DOCUMENT :
+						// The reader does not report the line break
+						writer.add(event);
+						writer.add(eventFactory.createCharacters("\n"));
+						continue;
+
+					case CHARACTERS :
+						if (depth == 1 && resource == null && event.asCharacters().isWhiteSpace()) {
+							if (indent != null)
+								writer.add(indent);
+							indent = event;
+							continue;
+						}
+						break;
+
+					case START_ELEMENT :
+						depth++;
+						StartElement start = event.asStartElement();
+						String localName = start.getName().getLocalPart();
+						if (depth == 1 && TAG_REPOSITORY.equals(localName)) {
+							event = updateIncrement(eventFactory, start);
+						} else if (depth == 2 && TAG_RESOURCE.equals(localName)) {
+							resource = new ArrayList<XMLEvent>();
+							if (indent != null)
+								resource.add(indent);
+							indent = null;
+							file = null;
+						} else if (resource != null && (TAG_CAPABILITY.equals(localName) || TAG_REQUIREMENT.equals(localName))) {
+							namespace = TAG_CAPABILITY.equals(localName) ? getAttributeValue(start, ATTR_NAMESPACE) : null;
+						} else if (resource != null && TAG_ATTRIBUTE.equals(localName)
+								&& ContentNamespace.CONTENT_NAMESPACE.equals(namespace)
+								&& ContentNamespace.CAPABILITY_URL_ATTRIBUTE.equals(getAttributeValue(start, ATTR_NAME))) {
+							URI uri = resolveUri(getAttributeValue(start, ATTR_VALUE), baseUri);
+							if ("file".equals(uri.getScheme()))
+								file = new File(uri);
+						}
+						break;
+
+					case END_ELEMENT :
+						depth--;
+						if (depth == 0) {
+							// Add the new resources at the end of the repository
+							copyResources(inputFactory.createXMLEventReader(new StringReader(fragment.toString())), writer);
+						} else if (depth == 1 && resource != null) {
+							resource.add(event);
+							if (file == null || !skip.contains(file))
+								for (XMLEvent e : resource)
+									writer.add(e);
+							resource = null;
+							continue;
+						}
+						break;
+				}
+
+				if (resource != null)
+					resource.add(event);
+				else {
+					if (indent != null)
+						writer.add(indent);
+					indent = null;
+					writer.add(event);
+				}
+			}
+			writer.flush();
+		}
+		finally {
+			reader.close();
+			writer.close();
+		}
+	}
+
+	private static StartElement updateIncrement(XMLEventFactory eventFactory, StartElement start) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		for (Iterator< ? > i = start.getAttributes(); i.hasNext();) {
+			Attribute attribute = (Attribute) i.next();
+			if (!Schema.ATTR_INCREMENT.equals(attribute.getName().getLocalPart()))
+				attributes.add(attribute);
+		}
+		attributes.add(eventFactory.createAttribute(Schema.ATTR_INCREMENT, Long.toString(System.currentTimeMillis())));
+		return eventFactory.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
+	}
+
+	private static String getAttributeValue(StartElement start, String name) {
+		Attribute attribute = start.getAttributeByName(new QName(name));
+		return attribute == null ? null : attribute.getValue();
+	}
+
+	/*
+	 * Copy the elements inside the root element
+	 */
+	private static void copyResources(XMLEventReader reader, XMLEventWriter writer) throws XMLStreamException {
+		try {
+			int depth = 0;
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isEndElement())
+					depth--;
+				if (depth > 0)
+					writer.add(event);
+				if (event.isStartElement())
+					depth++;
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static RepoIndex createIndexer(Registry registry, LogService log) throws InvalidSyntaxException {
 		RepoIndex indexer;
 		if (log != null)
 			indexer = new RepoIndex(log);
@@ -258,12 +414,14 @@ public class R5RepoContentProvider implements IRepositoryContentProvider {
 				indexer.addAnalyzer(analyzer, null);
 			}
 		}
+		return indexer;
+	}
 
+	private static Map<String,String> createConfig(String repoName, URI baseUri, boolean pretty) {
 		Map<String,String> config = new HashMap<String,String>();
 		config.put(ResourceIndexer.REPOSITORY_NAME, repoName);
 		config.put(ResourceIndexer.ROOT_URL, baseUri.toString());
 		config.put(ResourceIndexer.PRETTY, Boolean.toString(pretty));
-
-		indexer.index(files, output, config);
+		return config;
 	}
 }
@@ -0,0 +1,94 @@
+package aQute.bnd.deployer.repository;
+
+import java.util.*;
+
+import junit.framework.*;
+
+import org.osgi.framework.*;
+import org.osgi.resource.*;
+
+import aQute.bnd.osgi.resource.*;
+
+public class CapabilityIndexTest extends TestCase {
+
+	public static void testIndexValue() {
+		assertEquals("com.foo", CapabilityIndex.getIndexValue("(osgi.wiring.package=com.foo)", "osgi.wiring.package"));
+		assertEquals("com.foo", CapabilityIndex.getIndexValue(
+				"(&(version>=1.0)(!(version>=2.0))(osgi.wiring.package=com.foo))", "osgi.wiring.package"));
+		assertEquals("com.foo",
+				CapabilityIndex.getIndexValue("(&(|(a=1)(b=2))(OSGi.Wiring.Package=com.foo))", "osgi.wiring.package"));
+
+		assertNull(CapabilityIndex.getIndexValue("(osgi.wiring.package=com.*)", "osgi.wiring.package"));
+		assertNull(CapabilityIndex.getIndexValue("(osgi.wiring.package~=com.foo)", "osgi.wiring.package"));
+		assertNull(CapabilityIndex.getIndexValue("(osgi.wiring.package>=com.foo)", "osgi.wiring.package"));
+		assertNull(CapabilityIndex.getIndexValue("(osgi.wiring.package=com\\(foo)", "osgi.wiring.package"));
+		assertNull(CapabilityIndex.getIndexValue("(|(osgi.wiring.package=a)(osgi.wiring.package=b))",
+				"osgi.wiring.package"));
+		assertNull(CapabilityIndex.getIndexValue("(!(osgi.wiring.package=com.foo))", "osgi.wiring.package"));
+		assertNull(CapabilityIndex.getIndexValue("(&(!(osgi.wiring.package=com.foo)))", "osgi.wiring.package"));
+	}
+
+	/**
+	 * The index must find the same capabilities in the same order as matching
+	 * every capability of the namespace
+	 */
+	public static void testMatching() throws Exception {
+		CapabilityIndex index = new CapabilityIndex();
+		List<Capability> all = new ArrayList<Capability>();
+		for (int i = 0; i < 20; i++) {
+			Capability cap = new CapReqBuilder("osgi.wiring.package").addAttribute("osgi.wiring.package", "p" + i % 5)
+					.addAttribute("version", new Version(i, 0, 0)).buildSyntheticCapability();
+			all.add(cap);
+			index.addCapability(cap);
+			if (i == 7) {
+				// not a string, cannot be indexed
+				cap = new CapReqBuilder("osgi.wiring.package").addAttribute("osgi.wiring.package", new Version(1, 0, 0))
+						.buildSyntheticCapability();
+				all.add(cap);
+				index.addCapability(cap);
+			}
+		}
+		Capability service = new CapReqBuilder("osgi.service").addAttribute("objectClass",
+				Arrays.asList("com.foo.A", "com.foo.B")).buildSyntheticCapability();
+		index.addCapability(service);
+
+		String[] filters = {
+				"(osgi.wiring.package=p1)", "(&(osgi.wiring.package=p2)(version>=5.0.0))", "(osgi.wiring.package=p*)",
+				"(|(osgi.wiring.package=p1)(osgi.wiring.package=p3))", "(osgi.wiring.package=1.0.0)",
+				"(osgi.wiring.package=none)"
+		};
+		for (String filter : filters) {
+			List<Capability> expected = new ArrayList<Capability>();
+			Filter f = FrameworkUtil.createFilter(filter);
+			for (Capability cap : all)
+				if (f.match(new MapToDictionaryAdapter(cap.getAttributes())))
+					expected.add(cap);
+
+			List<Capability> found = new ArrayList<Capability>();
+			index.appendMatchingCapabilities(requirement("osgi.wiring.package", filter), found);
+			assertEquals(filter, expected, found);
+		}
+		assertEquals(3, find(index, "osgi.wiring.package", "(&(osgi.wiring.package=p1)(version>=6))").size());
+		assertEquals(1, find(index, "osgi.wiring.package", "(osgi.wiring.package=1.0.0)").size());
+
+		assertEquals(Arrays.asList(service), find(index, "osgi.service", "(objectClass=com.foo.B)"));
+		assertEquals(0, find(index, "osgi.service", "(objectClass=com.foo.C)").size());
+		assertEquals(21, find(index, "osgi.wiring.package", null).size());
+
+		index.clear();
+		assertEquals(0, find(index, "osgi.wiring.package", null).size());
+	}
+
+	private static List<Capability> find(CapabilityIndex index, String namespace, String filter) {
+		List<Capability> found = new ArrayList<Capability>();
+		index.appendMatchingCapabilities(requirement(namespace, filter), found);
+		return found;
+	}
+
+	private static Requirement requirement(String namespace, String filter) {
+		CapReqBuilder builder = new CapReqBuilder(namespace);
+		if (filter != null)
+			builder.addDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE, filter);
+		return builder.buildSyntheticRequirement();
+	}
+}
@@ -0,0 +1,152 @@
+package aQute.bnd.deployer.repository;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.*;
+
+import aQute.bnd.deployer.repository.api.*;
+import aQute.bnd.deployer.repository.providers.*;
+import aQute.bnd.osgi.resource.*;
+import aQute.lib.io.*;
+
+public class IndexSnapshotTest extends TestCase {
+
+	static File	tmp;
+
+	public void setUp() {
+		tmp = IO.getFile("tmp");
+		IO.delete(tmp);
+		tmp.mkdirs();
+	}
+
+	public void tearDown() {
+		IO.delete(tmp);
+	}
+
+	public static void testRoundTrip() throws Exception {
+		File index = IO.getFile("testdata/big_index.xml");
+		final List<Resource> resources = new ArrayList<Resource>();
+		RepoResourceUtils.readIndex(index.getName(), index.toURI(), new FileInputStream(index),
+				Collections.<IRepositoryContentProvider> singleton(new R5RepoContentProvider()),
+				new IRepositoryIndexProcessor() {
+					public void processResource(Resource resource) {
+						resources.add(resource);
+					}
+
+					public void processReferral(URI parentUri, Referral referral, int maxDepth, int currentDepth) {}
+				}, new NullLogService());
+		assertEquals(70, resources.size());
+
+		IndexSnapshot snapshot = new IndexSnapshot(tmp, index.toURI(), Arrays.asList("R5"));
+		snapshot.write("abcd", resources);
+
+		List<Resource> read = snapshot.read("ABCD");
+		assertNotNull(read);
+		assertEquals(resources.size(), read.size());
+		for (int i = 0; i < resources.size(); i++) {
+			Resource expected = resources.get(i);
+			Resource actual = read.get(i);
+			assertEquals(expected.getCapabilities(null).size(), actual.getCapabilities(null).size());
+			for (int c = 0; c < expected.getCapabilities(null).size(); c++) {
+				Capability e = expected.getCapabilities(null).get(c);
+				Capability a = actual.getCapabilities(null).get(c);
+				assertEquals(e.getNamespace(), a.getNamespace());
+				assertEquals(e.getAttributes(), a.getAttributes());
+				assertEquals(e.getDirectives(), a.getDirectives());
+				assertSame(actual, a.getResource());
+				for (String key : e.getAttributes().keySet())
+					assertEquals(e.getAttributes().get(key).getClass(), a.getAttributes().get(key).getClass());
+			}
+			assertEquals(expected.getRequirements(null).size(), actual.getRequirements(null).size());
+			for (int r = 0; r < expected.getRequirements(null).size(); r++) {
+				Requirement e = expected.getRequirements(null).get(r);
+				Requirement a = actual.getRequirements(null).get(r);
+				assertEquals(e.getNamespace(), a.getNamespace());
+				assertEquals(e.getAttributes(), a.getAttributes());
+				assertEquals(e.getDirectives(), a.getDirectives());
+			}
+		}
+
+		// Another version of the index or another location
+		assertNull(snapshot.read("abce"));
+		assertNull(new IndexSnapshot(tmp, new URI("file:/other.xml"), Arrays.asList("R5")).read("abcd"));
+		assertNull(new IndexSnapshot(tmp, index.toURI(), Arrays.asList("OBR", "R5")).read("abcd"));
+		assertTrue(snapshot.file.isFile());
+
+		// A corrupt snapshot is deleted
+		IO.store("garbage", snapshot.file);
+		assertNull(snapshot.read("abcd"));
+		assertFalse(snapshot.file.exists());
+	}
+
+	public static void testTypedValues() throws Exception {
+		ResourceBuilder builder = new ResourceBuilder();
+		builder.addCapability(new CapReqBuilder("test").addAttribute("s", "string")
+				.addAttribute("l", 42L)
+				.addAttribute("d", 4.2)
+				.addAttribute("v", new Version(1, 2, 3, "q"))
+				.addAttribute("u", new URI("http://example.com/a%20b.jar"))
+				.addAttribute("list", Arrays.asList(new Version(1, 0, 0), new Version(2, 0, 0)))
+				.addDirective("uses", "a,b"));
+		builder.addRequirement(new CapReqBuilder("test").addDirective("filter", "(s=string)"));
+
+		IndexSnapshot snapshot = new IndexSnapshot(tmp, new URI("file:/index.xml"), Arrays.asList("R5"));
+		snapshot.write("sha", Collections.singletonList(builder.build()));
+		Resource resource = snapshot.read("sha").get(0);
+
+		Map<String,Object> attrs = resource.getCapabilities("test").get(0).getAttributes();
+		assertEquals("string", attrs.get("s"));
+		assertEquals(42L, attrs.get("l"));
+		assertEquals(4.2, attrs.get("d"));
+		assertEquals(new Version(1, 2, 3, "q"), attrs.get("v"));
+		assertEquals(new URI("http://example.com/a%20b.jar"), attrs.get("u"));
+		assertEquals(Arrays.asList(new Version(1, 0, 0), new Version(2, 0, 0)), attrs.get("list"));
+		assertEquals("a,b", resource.getCapabilities("test").get(0).getDirectives().get("uses"));
+		assertEquals("(s=string)", resource.getRequirements("test").get(0).getDirectives().get("filter"));
+
+		try {
+			snapshot.write("sha", Collections.singletonList(new ResourceBuilder().addCapability(
+					new CapReqBuilder("test").addAttribute("o", new Object())).build()));
+			fail("an Object cannot be stored");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * The second time a repository is opened the resources must come from
+	 * the snapshot
+	 */
+	public static void testRepositoryUsesSnapshot() throws Exception {
+		File index = IO.getFile("testdata/index1.xml");
+		Map<String,String> props = new HashMap<String,String>();
+		props.put("name", "index1");
+		props.put("locations", index.toURI().toString());
+		props.put(FixedIndexedRepo.PROP_CACHE, tmp.getAbsolutePath());
+
+		FixedIndexedRepo repo = new FixedIndexedRepo();
+		repo.setProperties(props);
+		assertEquals(new HashSet<String>(Arrays.asList("org.example.c", "org.example.f")),
+				new HashSet<String>(repo.list(null)));
+
+		IndexSnapshot snapshot = new IndexSnapshot(tmp, index.toURI(), Arrays.asList("OBR", "R5"));
+		assertTrue(snapshot.file.isFile());
+
+		// Replace the snapshot with one that has a different resource
+		ResourceBuilder builder = new ResourceBuilder();
+		builder.addCapability(new CapReqBuilder("osgi.identity").addAttribute("osgi.identity", "from.snapshot")
+				.addAttribute("type", "osgi.bundle")
+				.addAttribute("version", new Version(1, 0, 0)));
+		snapshot.write(CachingUriResourceHandle.calculateSHA(index), Collections.singletonList(builder.build()));
+
+		repo = new FixedIndexedRepo();
+		repo.setProperties(props);
+		assertEquals(Arrays.asList("from.snapshot"), repo.list(null));
+	}
+}
@@ -88,6 +88,41 @@ public class TestLocalIndexGeneration extends TestCase {
 		assertNull(r.artifact);
 	}
 
+	/**
+	 * A put must only index the new bundle, the resources of the other
+	 * bundles are taken from the index
+	 */
+	public static void testIncrementalUpdate() throws Exception {
+		PutResult r = repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/name.njbartlett.osgi.emf.minimal-2.6.1.jar")), new RepositoryPlugin.PutOptions());
+
+		// Indexing this bundle again would fail
+		IO.store("garbage", new File(r.artifact));
+
+		repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/name.njbartlett.osgi.emf.xmi-2.5.0.jar")), new RepositoryPlugin.PutOptions());
+		r = repo.put(new BufferedInputStream(new FileInputStream("testdata/bundles/name.njbartlett.osgi.emf.xmi-2.7.0.jar")), new RepositoryPlugin.PutOptions());
+		File xmi = new File(r.artifact);
+
+		File indexFile = IO.getFile("generated/testoutput/index.xml.gz");
+		AbstractIndexedRepo repo2 = createRepoForIndex(indexFile);
+		assertEquals(1, repo2.get("name.njbartlett.osgi.emf.minimal", null).length);
+		assertEquals(2, repo2.get("name.njbartlett.osgi.emf.xmi", null).length);
+
+		// Deleting a bundle removes its resource
+		repo.actions(repo, "name.njbartlett.osgi.emf.xmi", "2.5.0").get("Delete").run();
+		repo2 = createRepoForIndex(indexFile);
+		assertEquals(1, repo2.get("name.njbartlett.osgi.emf.minimal", null).length);
+		File[] files = repo2.get("name.njbartlett.osgi.emf.xmi", null);
+		assertEquals(1, files.length);
+		assertEquals(xmi.getAbsoluteFile(), files[0]);
+
+		// Refresh indexes all bundles again
+		repo.refresh();
+		assertTrue(reporter.getWarnings().size() > 0);
+		reporter.clear();
+		repo2 = createRepoForIndex(indexFile);
+		assertEquals(Arrays.asList("name.njbartlett.osgi.emf.xmi"), repo2.list(null));
+	}
+
 	public static void testInvalidContentProvider() throws Exception {
 		LocalIndexedRepo repo = new LocalIndexedRepo();
 		Map<String,String> config = new HashMap<String,String>();
@@ -0,0 +1,126 @@
+package org.osgi.service.indexer.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.osgi.service.indexer.impl.util.Hex;
+
+/**
+ * An on-disk cache of the resource elements generated for files. An element
+ * is stored in its own file under the SHA-1 of a key that identifies the file
+ * (path, size and last modification time) and everything else that
+ * determines the element, like the analyzers and the root URL. Re-indexing an
+ * unchanged repository then only reads the cached elements.
+ * <p>
+ * Entries are never removed, the directory can be deleted at any time.
+ */
+class IndexCache {
+
+	/** Must be changed when the generated elements change */
+	private static final String VERSION = "1";
+
+	private final File dir;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dir
+	 *            the directory of the cache, created when needed
+	 */
+	public IndexCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * @param file
+	 *            the indexed file
+	 * @param context
+	 *            everything besides the file that determines the element
+	 * @return the key for the element of the file
+	 */
+	public static String getKey(File file, String context) throws IOException {
+		return VERSION + "|" + file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified() + "|" + context;
+	}
+
+	/**
+	 * @param key
+	 *            the key of the element
+	 * @return the cached element or null if it is not in the cache
+	 */
+	public String get(String key) {
+		File file = getFile(key);
+		if (!file.isFile())
+			return null;
+
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0)
+					out.write(buffer, 0, n);
+				return out.toString("UTF-8");
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store an element. The element is written under a temporary name and then
+	 * renamed so concurrent indexers never see a partial element.
+	 *
+	 * @param key
+	 *            the key of the element
+	 * @param element
+	 *            the element
+	 */
+	public void put(String key, String element) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create the directory of the index cache " + dir);
+
+		File tmp = File.createTempFile("element", ".tmp", dir);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(element.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			File file = getFile(key);
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				tmp.renameTo(file);
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private File getFile(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return new File(dir, Hex.toHexString(digest.digest(key.getBytes("UTF-8"))) + ".xml");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "IndexCache [dir=" + dir + "]";
+	}
+}
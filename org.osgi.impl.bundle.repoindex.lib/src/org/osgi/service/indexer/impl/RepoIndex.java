@@ -2,16 +2,20 @@ package org.osgi.service.indexer.impl;
 
 import static org.osgi.framework.FrameworkUtil.createFilter;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,6 +23,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
@@ -32,7 +41,7 @@ import org.osgi.service.indexer.impl.types.TypedAttribute;
 import org.osgi.service.indexer.impl.util.AddOnlyList;
 import org.osgi.service.indexer.impl.util.Indent;
 import org.osgi.service.indexer.impl.util.Pair;
-import org.osgi.service.indexer.impl.util.Tag;
+import org.osgi.service.indexer.impl.util.TagWriter;
 import org.osgi.service.log.LogService;
 
 /**
@@ -45,6 +54,25 @@ public class RepoIndex implements ResourceIndexer {
 	 */
 	public static final String REPOSITORY_INCREMENT_OVERRIDE = "-repository.increment.override";
 
+	/**
+	 * Name of the configuration variable for the number of threads that index
+	 * the files (if not set then the files are indexed in the calling thread).
+	 * The resource elements are always written in the same order. The analyzers
+	 * must be thread safe when more than one thread is used.
+	 */
+	public static final String INDEX_THREADS = "-index.threads";
+
+	/**
+	 * Name of the configuration variable for the directory of the cache of
+	 * generated resource elements (if not set then no cache is used). A file
+	 * with the same path, size and last modification time is not analyzed
+	 * again.
+	 */
+	public static final String INDEX_CACHE_DIR = "-index.cache.dir";
+
+	/** the size of the output buffers of an index */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	/** the generic bundle analyzer */
 	private final BundleAnalyzer bundleAnalyzer;
 
@@ -158,37 +186,34 @@ public class RepoIndex implements ResourceIndexer {
 			 */
 			indent = (prettySetting == null || (!Boolean.parseBoolean(prettySetting) && compressedSetting != null)) ? Indent.NONE : Indent.PRETTY;
 			boolean compressed = (prettySetting == null && compressedSetting == null) || Boolean.parseBoolean(compressedSetting);
-			if (!compressed) {
-				pw = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-			} else {
-				pw = new PrintWriter(new GZIPOutputStream(out, Deflater.BEST_COMPRESSION));
+			if (compressed) {
+				out = new GZIPOutputStream(out, BUFFER_SIZE) {
+					{
+						def.setLevel(Deflater.BEST_COMPRESSION);
+					}
+				};
 			}
+			pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE));
 
 			pw.print(Schema.XML_PROCESSING_INSTRUCTION);
-			Tag repoTag = new Tag(Schema.ELEM_REPOSITORY);
 
 			String repoName = config.get(REPOSITORY_NAME);
 			if (repoName == null)
 				repoName = REPOSITORYNAME_DEFAULT;
-			repoTag.addAttribute(Schema.ATTR_NAME, repoName);
 
 			String increment = config.get(REPOSITORY_INCREMENT_OVERRIDE);
 			if (increment == null)
 				increment = Long.toString(System.currentTimeMillis());
-			repoTag.addAttribute(Schema.ATTR_INCREMENT, increment);
-
-			repoTag.addAttribute(Schema.ATTR_XML_NAMESPACE, Schema.NAMESPACE);
 
-			repoTag.printOpen(indent, pw, false);
-			for (File file : filesToIndex) {
-				try {
-					Tag resourceTag = generateResource(file, config);
-					resourceTag.print(indent.next(), pw);
-				} catch (Exception e) {
-					log(LogService.LOG_WARNING, MessageFormat.format("Could not index {0}, skipped ({1}).", file, e.getMessage()), null);
-				}
-			}
-			repoTag.printClose(indent, pw);
+			// attributes in the order of their names, as a Tag prints them
+			TagWriter writer = new TagWriter(pw);
+			writer.start(indent, Schema.ELEM_REPOSITORY);
+			writer.attribute(Schema.ATTR_INCREMENT, increment);
+			writer.attribute(Schema.ATTR_NAME, repoName);
+			writer.attribute(Schema.ATTR_XML_NAMESPACE, Schema.NAMESPACE);
+			writer.startContent();
+			printResources(filesToIndex, indent.next(), writer, config);
+			writer.end(indent, Schema.ELEM_REPOSITORY);
 		} finally {
 			if (pw != null) {
 				pw.flush();
@@ -218,17 +243,137 @@ public class RepoIndex implements ResourceIndexer {
 		else
 			pw = new PrintWriter(out);
 
-		for (File file : files) {
-			try {
-				Tag resourceTag = generateResource(file, config);
-				resourceTag.print(Indent.PRETTY, pw);
-			} catch (Exception e) {
-				log(LogService.LOG_WARNING, MessageFormat.format("Could not index {0}, skipped ({1}).", file, e.getMessage()), null);
+		TagWriter writer = new TagWriter(pw);
+		printResources(files, Indent.PRETTY, writer, config);
+		writer.flush();
+	}
+
+	/**
+	 * Print the resource elements of the files in the order of the files. When
+	 * more than one thread is configured the files are indexed concurrently,
+	 * the number of elements that wait to be printed is limited.
+	 */
+	private void printResources(Set<File> files, final Indent indent, TagWriter writer, final Map<String, String> config) throws Exception {
+		int threads = 1;
+		String threadsSetting = config == null ? null : config.get(INDEX_THREADS);
+		if (threadsSetting != null)
+			threads = Integer.parseInt(threadsSetting.trim());
+
+		String cacheSetting = config == null ? null : config.get(INDEX_CACHE_DIR);
+		final IndexCache cache = cacheSetting == null ? null : new IndexCache(new File(cacheSetting));
+
+		if (threads <= 1 || files.size() <= 1) {
+			for (File file : files) {
+				if (cache == null) {
+					// nothing is written when the file cannot be indexed
+					try {
+						generateResource(file, indent, writer, config);
+					} catch (Exception e) {
+						logSkipped(file, e);
+					}
+				} else {
+					String element = generateResource(file, indent, config, cache);
+					if (element != null)
+						writer.print(element);
+				}
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<String>> pending = new LinkedList<Future<String>>();
+			Iterator<File> i = files.iterator();
+			while (i.hasNext() || !pending.isEmpty()) {
+				while (i.hasNext() && pending.size() < threads * 4) {
+					final File file = i.next();
+					pending.add(executor.submit(new Callable<String>() {
+						public String call() throws Exception {
+							return generateResource(file, indent, config, cache);
+						}
+					}));
+				}
+
+				String element;
+				try {
+					element = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+				if (element != null)
+					writer.print(element);
 			}
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
-	private Tag generateResource(File file, Map<String, String> config) throws Exception {
+	/**
+	 * Generate the resource element of a file, take it from the cache when
+	 * possible.
+	 *
+	 * @return the element or null if the file could not be indexed
+	 */
+	private String generateResource(File file, Indent indent, Map<String, String> config, IndexCache cache) {
+		String key = null;
+		try {
+			if (cache != null) {
+				key = IndexCache.getKey(file, getCacheContext(indent, config));
+				String element = cache.get(key);
+				if (element != null)
+					return element;
+			}
+
+			StringWriter sw = new StringWriter();
+			TagWriter writer = new TagWriter(new PrintWriter(sw));
+			generateResource(file, indent, writer, config);
+			writer.flush();
+			String element = sw.toString();
+
+			if (cache != null) {
+				try {
+					cache.put(key, element);
+				} catch (IOException e) {
+					log(LogService.LOG_WARNING, MessageFormat.format("Could not cache the index of {0} ({1}).", file, e.getMessage()), null);
+				}
+			}
+			return element;
+		} catch (Exception e) {
+			logSkipped(file, e);
+			return null;
+		}
+	}
+
+	private void logSkipped(File file, Exception e) {
+		log(LogService.LOG_WARNING, MessageFormat.format("Could not index {0}, skipped ({1}).", file, e.getMessage()), null);
+	}
+
+	/*
+	 * Everything besides the file that determines its resource element
+	 */
+	private String getCacheContext(Indent indent, Map<String, String> config) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(indent);
+		if (config != null)
+			sb.append('|').append(config.get(ResourceIndexer.ROOT_URL)).append('|').append(config.get(ResourceIndexer.URL_TEMPLATE)).append('|').append(System.getProperty("user.dir"));
+		for (Pair<ResourceAnalyzer, Filter> entry : copyAnalyzers())
+			sb.append('|').append(entry.getFirst().getClass().getName()).append(entry.getSecond());
+		return sb.toString();
+	}
+
+	private List<Pair<ResourceAnalyzer, Filter>> copyAnalyzers() {
+		synchronized (analyzers) {
+			return new ArrayList<Pair<ResourceAnalyzer, Filter>>(analyzers);
+		}
+	}
+
+	/*
+	 * Analyze a file and write its resource element. Nothing is written when
+	 * the analysis fails or an attribute value cannot be converted.
+	 */
+	private void generateResource(File file, Indent indent, TagWriter writer, Map<String, String> config) throws Exception {
 
 		JarResource resource = new JarResource(file);
 		List<Capability> caps = new AddOnlyList<Capability>(new LinkedList<Capability>());
@@ -254,20 +399,19 @@ public class RepoIndex implements ResourceIndexer {
 				bundleAnalyzer.setStateLocal(null);
 			}
 
-			// Iterate over the analyzers
+			// Iterate over the analyzers, without holding the lock so files
+			// can be indexed concurrently
 			try {
-				synchronized (analyzers) {
-					for (Pair<ResourceAnalyzer, Filter> entry : analyzers) {
-						ResourceAnalyzer analyzer = entry.getFirst();
-						Filter filter = entry.getSecond();
-
-						if (filter == null || filter.match(resource.getProperties())) {
-							try {
-								analyzer.analyzeResource(resource, caps, reqs);
-							} catch (Exception e) {
-								log(LogService.LOG_ERROR,
-										MessageFormat.format("Error calling analyzer \"{0}\" on resource {1}.", analyzer.getClass().getName(), resource.getLocation()), e);
-							}
+				for (Pair<ResourceAnalyzer, Filter> entry : copyAnalyzers()) {
+					ResourceAnalyzer analyzer = entry.getFirst();
+					Filter filter = entry.getSecond();
+
+					if (filter == null || filter.match(resource.getProperties())) {
+						try {
+							analyzer.analyzeResource(resource, caps, reqs);
+						} catch (Exception e) {
+							log(LogService.LOG_ERROR,
+									MessageFormat.format("Error calling analyzer \"{0}\" on resource {1}.", analyzer.getClass().getName(), resource.getLocation()), e);
 						}
 					}
 				}
@@ -278,26 +422,37 @@ public class RepoIndex implements ResourceIndexer {
 			resource.close();
 		}
 
-		Tag resourceTag = new Tag(Schema.ELEM_RESOURCE);
+		// Convert all attribute values before the element is started, the
+		// resource is skipped as a whole when a value is not supported
+		List<List<TypedAttribute>> capAttribs = new ArrayList<List<TypedAttribute>>(caps.size());
+		for (Capability cap : caps)
+			capAttribs.add(createTypedAttributes(cap.getAttributes()));
+		List<List<TypedAttribute>> reqAttribs = new ArrayList<List<TypedAttribute>>(reqs.size());
+		for (Requirement req : reqs)
+			reqAttribs.add(createTypedAttributes(req.getAttributes()));
+
+		Indent capIndent = indent.next();
+		writer.start(indent, Schema.ELEM_RESOURCE);
+		Iterator<List<TypedAttribute>> attribs = capAttribs.iterator();
 		for (Capability cap : caps) {
-			Tag capTag = new Tag(Schema.ELEM_CAPABILITY);
-			capTag.addAttribute(Schema.ATTR_NAMESPACE, cap.getNamespace());
+			writer.start(capIndent, Schema.ELEM_CAPABILITY);
+			writer.attribute(Schema.ATTR_NAMESPACE, cap.getNamespace());
 
-			appendAttributeAndDirectiveTags(capTag, cap.getAttributes(), cap.getDirectives());
+			writeAttributesAndDirectives(capIndent.next(), writer, attribs.next(), cap.getDirectives());
 
-			resourceTag.addContent(capTag);
+			writer.end(capIndent, Schema.ELEM_CAPABILITY);
 		}
 
+		attribs = reqAttribs.iterator();
 		for (Requirement req : reqs) {
-			Tag reqTag = new Tag(Schema.ELEM_REQUIREMENT);
-			reqTag.addAttribute(Schema.ATTR_NAMESPACE, req.getNamespace());
+			writer.start(capIndent, Schema.ELEM_REQUIREMENT);
+			writer.attribute(Schema.ATTR_NAMESPACE, req.getNamespace());
 
-			appendAttributeAndDirectiveTags(reqTag, req.getAttributes(), req.getDirectives());
+			writeAttributesAndDirectives(capIndent.next(), writer, attribs.next(), req.getDirectives());
 
-			resourceTag.addContent(reqTag);
+			writer.end(capIndent, Schema.ELEM_REQUIREMENT);
 		}
-
-		return resourceTag;
+		writer.end(indent, Schema.ELEM_RESOURCE);
 	}
 
 	private void log(int level, String message, Throwable t) {
@@ -305,20 +460,22 @@ public class RepoIndex implements ResourceIndexer {
 			log.log(level, message, t);
 	}
 
-	private static void appendAttributeAndDirectiveTags(Tag parentTag, Map<String, Object> attribs, Map<String, String> directives) {
-		for (Entry<String, Object> attribEntry : attribs.entrySet()) {
-			Tag attribTag = new Tag(Schema.ELEM_ATTRIBUTE);
-			attribTag.addAttribute(Schema.ATTR_NAME, attribEntry.getKey());
+	private static List<TypedAttribute> createTypedAttributes(Map<String, Object> attribs) {
+		List<TypedAttribute> typedAttribs = new ArrayList<TypedAttribute>(attribs.size());
+		for (Entry<String, Object> attribEntry : attribs.entrySet())
+			typedAttribs.add(TypedAttribute.create(attribEntry.getKey(), attribEntry.getValue()));
+		return typedAttribs;
+	}
 
-			TypedAttribute typedAttrib = TypedAttribute.create(attribEntry.getKey(), attribEntry.getValue());
-			parentTag.addContent(typedAttrib.toXML());
-		}
+	private static void writeAttributesAndDirectives(Indent indent, TagWriter writer, List<TypedAttribute> attribs, Map<String, String> directives) {
+		for (TypedAttribute typedAttrib : attribs)
+			typedAttrib.write(indent, writer);
 
 		for (Entry<String, String> directiveEntry : directives.entrySet()) {
-			Tag directiveTag = new Tag(Schema.ELEM_DIRECTIVE);
-			directiveTag.addAttribute(Schema.ATTR_NAME, directiveEntry.getKey());
-			directiveTag.addAttribute(Schema.ATTR_VALUE, directiveEntry.getValue());
-			parentTag.addContent(directiveTag);
+			writer.start(indent, Schema.ELEM_DIRECTIVE);
+			writer.attribute(Schema.ATTR_NAME, directiveEntry.getKey());
+			writer.attribute(Schema.ATTR_VALUE, directiveEntry.getValue());
+			writer.end(indent, Schema.ELEM_DIRECTIVE);
 		}
 	}
 
@@ -1,18 +1,20 @@
 package org.osgi.service.indexer.impl.types;
 
 import org.osgi.service.indexer.impl.Schema;
+import org.osgi.service.indexer.impl.util.Indent;
 import org.osgi.service.indexer.impl.util.Tag;
+import org.osgi.service.indexer.impl.util.TagWriter;
 
 public class TypedAttribute {
 
 	private final String name;
 	private final Type type;
-	private final Object value;
+	private final String stringValue;
 
 	public TypedAttribute(String name, Type type, Object value) {
 		this.name = name;
 		this.type = type;
-		this.value = value;
+		this.stringValue = type.convertToString(value);
 	}
 
 	public static TypedAttribute create(String name, Object value) {
@@ -23,12 +25,31 @@ public class TypedAttribute {
 		Tag tag = new Tag(Schema.ELEM_ATTRIBUTE);
 		tag.addAttribute(Schema.ATTR_NAME, name);
 
-		if (type.isList() || type.getType() != ScalarType.String) {
+		if (isTyped()) {
 			tag.addAttribute(Schema.ATTR_TYPE, type.toString());
 		}
 
-		tag.addAttribute(Schema.ATTR_VALUE, type.convertToString(value));
+		tag.addAttribute(Schema.ATTR_VALUE, stringValue);
 
 		return tag;
 	}
+
+	/**
+	 * Write the same element as {@link #toXML()} without creating the Tag
+	 */
+	public void write(Indent indent, TagWriter writer) {
+		writer.start(indent, Schema.ELEM_ATTRIBUTE);
+		writer.attribute(Schema.ATTR_NAME, name);
+
+		if (isTyped()) {
+			writer.attribute(Schema.ATTR_TYPE, type.toString());
+		}
+
+		writer.attribute(Schema.ATTR_VALUE, stringValue);
+		writer.end(indent, Schema.ELEM_ATTRIBUTE);
+	}
+
+	private boolean isTyped() {
+		return type.isList() || type.getType() != ScalarType.String;
+	}
 }
@@ -65,4 +65,9 @@ public class Indent {
 	public Indent next() {
 		return (increment <= 0) ? this : new Indent(newLine, level + increment, increment);
 	}
+
+	@Override
+	public String toString() {
+		return "Indent [newLine=" + newLine + ", level=" + level + ", increment=" + increment + "]";
+	}
 }
@@ -0,0 +1,143 @@
+package org.osgi.service.indexer.impl.util;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes XML elements directly to a PrintWriter, without building a tree of
+ * {@link Tag}s first. The output is the same as printing the equivalent Tag
+ * tree, provided the attributes of an element are written in the order of
+ * their names (a Tag sorts its attributes).
+ *
+ * <pre>
+ * writer.start(indent, &quot;capability&quot;);
+ * writer.attribute(&quot;namespace&quot;, &quot;osgi.identity&quot;);
+ * writer.start(indent.next(), &quot;attribute&quot;);
+ * ...
+ * writer.end(indent.next(), &quot;attribute&quot;);
+ * writer.end(indent, &quot;capability&quot;);
+ * </pre>
+ */
+public class TagWriter {
+	private final PrintWriter pw;
+
+	/** true when the start tag of the current element is not yet closed */
+	private boolean open;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pw
+	 *            the writer to print to
+	 */
+	public TagWriter(PrintWriter pw) {
+		this.pw = pw;
+	}
+
+	/**
+	 * Start an element. Its attributes must be written before any content.
+	 */
+	public void start(Indent indent, String name) {
+		closeStart();
+		indent.print(pw);
+		pw.print('<');
+		pw.print(name);
+		open = true;
+	}
+
+	/**
+	 * Write an attribute of the element that was just started.
+	 */
+	public void attribute(String key, String value) {
+		if (!open)
+			throw new IllegalStateException("Attribute " + key + " written outside a start tag");
+		pw.print(' ');
+		pw.print(key);
+		pw.print("=\"");
+		escape(value);
+		pw.print('"');
+	}
+
+	/**
+	 * End an element, an element without content is written as an empty
+	 * element.
+	 */
+	public void end(Indent indent, String name) {
+		if (open) {
+			pw.print("/>");
+			open = false;
+		} else {
+			indent.print(pw);
+			pw.print("</");
+			pw.print(name);
+			pw.print('>');
+		}
+	}
+
+	/**
+	 * Close the start tag of the current element, so it is not written as an
+	 * empty element even if it gets no content.
+	 */
+	public void startContent() {
+		closeStart();
+	}
+
+	/**
+	 * Print content that is already formatted, like an element that was
+	 * written before.
+	 */
+	public void print(String xml) {
+		closeStart();
+		pw.print(xml);
+	}
+
+	/**
+	 * Flush the underlying writer
+	 */
+	public void flush() {
+		closeStart();
+		pw.flush();
+	}
+
+	private void closeStart() {
+		if (open) {
+			pw.print('>');
+			open = false;
+		}
+	}
+
+	/*
+	 * Print an attribute value with entity conversion, unchanged runs are
+	 * printed at once.
+	 */
+	private void escape(String s) {
+		if (s == null) {
+			pw.print("?null?");
+			return;
+		}
+
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			String entity;
+			switch (s.charAt(i)) {
+			case '<':
+				entity = "&lt;";
+				break;
+			case '>':
+				entity = "&gt;";
+				break;
+			case '&':
+				entity = "&amp;";
+				break;
+			case '"':
+				entity = "&quot;";
+				break;
+			default:
+				continue;
+			}
+			pw.write(s, start, i - start);
+			pw.print(entity);
+			start = i + 1;
+		}
+		pw.write(s, start, s.length() - start);
+	}
+}
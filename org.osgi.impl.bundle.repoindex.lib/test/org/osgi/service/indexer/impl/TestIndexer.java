@@ -8,9 +8,11 @@ import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.StringWriter;
 import java.util.Collections;
 import java.util.HashMap;
@@ -20,17 +22,21 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import junit.framework.TestCase;
 
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.indexer.Builder;
 import org.osgi.service.indexer.Capability;
 import org.osgi.service.indexer.Requirement;
 import org.osgi.service.indexer.Resource;
 import org.osgi.service.indexer.ResourceAnalyzer;
 import org.osgi.service.indexer.ResourceIndexer;
 import org.osgi.service.log.LogService;
+import org.w3c.dom.Document;
 
 public class TestIndexer extends TestCase {
 
@@ -207,6 +213,78 @@ public class TestIndexer extends TestCase {
 		}
 	}
 
+	public void testParallelCachedIndex() throws Exception {
+		Set<File> files = new LinkedHashSet<File>();
+		for (File file : new File("testdata").listFiles()) {
+			if (file.getName().endsWith(".jar"))
+				files.add(file);
+		}
+
+		Map<String, String> config = new HashMap<String, String>();
+		config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+		config.put(ResourceIndexer.PRETTY, "true");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		new RepoIndex().index(files, expected, config);
+
+		File cacheDir = new File("generated/indexcache");
+		deleteCache(cacheDir);
+		config.put(RepoIndex.INDEX_THREADS, "4");
+		config.put(RepoIndex.INDEX_CACHE_DIR, cacheDir.getPath());
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new RepoIndex().index(files, out, config);
+			assertEquals(expected.toString(), out.toString());
+			assertEquals(files.size(), cacheDir.list().length);
+
+			// The second time the elements come from the cache
+			for (File cached : cacheDir.listFiles()) {
+				FileWriter writer = new FileWriter(cached);
+				try {
+					writer.write("<resource/>");
+				} finally {
+					writer.close();
+				}
+			}
+			out.reset();
+			new RepoIndex().index(files, out, config);
+			assertEquals(files.size(), out.toString().split("<resource/>", -1).length - 1);
+		} finally {
+			deleteCache(cacheDir);
+		}
+	}
+
+	private static void deleteCache(File cacheDir) {
+		File[] cached = cacheDir.listFiles();
+		if (cached != null) {
+			for (File file : cached)
+				file.delete();
+		}
+		cacheDir.delete();
+	}
+
+	public void testSkipUnsupportedAttributeValue() throws Exception {
+		RepoIndex indexer = new RepoIndex();
+		indexer.addAnalyzer(new ResourceAnalyzer() {
+			public void analyzeResource(Resource resource, List<Capability> capabilities, List<Requirement> requirements) throws Exception {
+				if (resource.getLocation().endsWith("06-requirebundle.jar"))
+					capabilities.add(new Builder().setNamespace("wibble").addAttribute("empty", Collections.emptyList()).buildCapability());
+			}
+		}, null);
+
+		Set<File> files = new LinkedHashSet<File>();
+		files.add(new File("testdata/03-export.jar"));
+		files.add(new File("testdata/06-requirebundle.jar"));
+
+		Map<String, String> config = new HashMap<String, String>();
+		config.put(ResourceIndexer.PRETTY, "true");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		indexer.index(files, out, config);
+
+		// The resource is skipped as a whole, the index stays well-formed
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(1, document.getElementsByTagName("resource").getLength());
+	}
+
 	public void testAddAnalyzer() throws Exception {
 		RepoIndex indexer = new RepoIndex();
 		indexer.addAnalyzer(new WibbleAnalyzer(), null);
@@ -1,10 +1,16 @@
 package org.osgi.service.indexer.impl;
 
 import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.List;
 
 import junit.framework.TestCase;
 
+import org.osgi.service.indexer.impl.util.Indent;
+import org.osgi.service.indexer.impl.util.Tag;
+import org.osgi.service.indexer.impl.util.TagWriter;
+
 public class TestUtils extends TestCase {
 
 	public void testFindPlainPath() throws Exception {
@@ -21,4 +27,40 @@ public class TestUtils extends TestCase {
 		assertEquals(12, list.size());
 		assertEquals("CDC-1.0_Foundation-1.0.profile", list.get(0));
 	}
+
+	public void testTagWriterMatchesTag() throws Exception {
+		Tag tag = new Tag("resource");
+		Tag cap = new Tag("capability");
+		cap.addAttribute("namespace", "a<b>&\"c\"");
+		Tag attr = new Tag("attribute");
+		attr.addAttribute("name", "x");
+		attr.addAttribute("value", (String) null);
+		cap.addContent(attr);
+		tag.addContent(cap);
+		tag.addContent(new Tag("requirement"));
+
+		for (Indent indent : new Indent[] { Indent.NONE, Indent.PRETTY }) {
+			StringWriter expected = new StringWriter();
+			PrintWriter pw = new PrintWriter(expected);
+			tag.print(indent, pw);
+			pw.flush();
+
+			StringWriter actual = new StringWriter();
+			TagWriter writer = new TagWriter(new PrintWriter(actual));
+			writer.start(indent, "resource");
+			writer.start(indent.next(), "capability");
+			writer.attribute("namespace", "a<b>&\"c\"");
+			writer.start(indent.next().next(), "attribute");
+			writer.attribute("name", "x");
+			writer.attribute("value", null);
+			writer.end(indent.next().next(), "attribute");
+			writer.end(indent.next(), "capability");
+			writer.start(indent.next(), "requirement");
+			writer.end(indent.next(), "requirement");
+			writer.end(indent, "resource");
+			writer.flush();
+
+			assertEquals(expected.toString(), actual.toString());
+		}
+	}
 }